@@ -0,0 +1,99 @@
+package app.akiles.cordova;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Card;
+import app.akiles.sdk.Gadget;
+import app.akiles.sdk.Hardware;
+
+/**
+ * The bridge encoding hot paths, as the plugin runs them.
+ *
+ *   gradle -p plugin/jvm jmh
+ *   gradle -p plugin/jvm jmh -PjmhArgs='EncodingBenchmark.gadgets -prof gc'
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+    private Gadget[] gadgets;
+    private Hardware[] hardwares;
+    private Hardware discovered;
+    private AkilesException.PermissionDeniedOutOfSchedule outOfSchedule;
+    private AkilesException.LocationOutOfRadius outOfRadius;
+    private Card card;
+
+    @Setup
+    public void setUp() {
+        gadgets = Fixtures.gadgets();
+        hardwares = Fixtures.hardwares();
+        discovered = Fixtures.hardware(new Random(3), 0);
+        outOfSchedule = Fixtures.outOfSchedule();
+        outOfRadius = Fixtures.outOfRadius();
+        card = Fixtures.card();
+    }
+
+    /** get_gadgets reply for 1000 gadgets. */
+    @Benchmark
+    public String gadgets() {
+        return EventEncoder.gadgetsJson(gadgets);
+    }
+
+    /** get_hardwares reply for 50 hardware. */
+    @Benchmark
+    public String hardwares() {
+        return EventEncoder.hardwaresJson(hardwares);
+    }
+
+    /** One scan onDiscover event. */
+    @Benchmark
+    public String discover() {
+        return EventEncoder.event("discover").hardware("hardware", discovered).end();
+    }
+
+    /** Action error event for OUT_OF_SCHEDULE with a full 7-day schedule. */
+    @Benchmark
+    public String errorOutOfSchedule() {
+        return EventEncoder.event("error").error("error", outOfSchedule).end();
+    }
+
+    /** Action error event for INTERNET_LOCATION_OUT_OF_RADIUS with the site location. */
+    @Benchmark
+    public String errorOutOfRadius() {
+        return EventEncoder.event("error").error("error", outOfRadius).end();
+    }
+
+    /** One Bluetooth progress tick. */
+    @Benchmark
+    public String progress() {
+        return EventEncoder.event("bluetooth_status_progress").field("percent", 42.5f).end();
+    }
+
+    /** scan_card reply. */
+    @Benchmark
+    public String card() {
+        return EventEncoder.cardJson(card);
+    }
+
+    /** Card UID to hex, as used for the card registry key. */
+    @Benchmark
+    public String hex() {
+        return EventEncoder.hex(card.getUid());
+    }
+}
@@ -0,0 +1,121 @@
+package app.akiles.cordova;
+
+import java.util.Random;
+
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Card;
+import app.akiles.sdk.Gadget;
+import app.akiles.sdk.GadgetAction;
+import app.akiles.sdk.Hardware;
+import app.akiles.sdk.Schedule;
+
+/**
+ * SDK model objects with the sizes of a large organization: 1000 gadgets,
+ * 50 hardware, and schedules with several ranges on every weekday. Seeded, so
+ * every run encodes the same data.
+ */
+final class Fixtures {
+    static final int GADGETS = 1000;
+    static final int HARDWARES = 50;
+
+    private static final String[] ACTION_NAMES = {"Open", "Open for 5 minutes", "Close", "Unlock"};
+    private static final String[] PLACES = {"Main entrance", "Garage", "Floor 2 – Office", "Storage \"B\"", "Terrace", "Gym"};
+
+    private Fixtures() {
+    }
+
+    static Gadget[] gadgets() {
+        Random random = new Random(1);
+        Gadget[] gadgets = new Gadget[GADGETS];
+        for (int i = 0; i < GADGETS; i++) {
+            Gadget g = new Gadget();
+            g.id = id("gad", random);
+            g.name = PLACES[i % PLACES.length] + " " + i;
+            g.actions = new GadgetAction[1 + random.nextInt(3)];
+            for (int j = 0; j < g.actions.length; j++) {
+                GadgetAction a = new GadgetAction();
+                a.id = j == 0 ? "open" : id("act", random);
+                a.name = ACTION_NAMES[j];
+                g.actions[j] = a;
+            }
+            gadgets[i] = g;
+        }
+        return gadgets;
+    }
+
+    static Hardware[] hardwares() {
+        Random random = new Random(2);
+        Hardware[] hardwares = new Hardware[HARDWARES];
+        for (int i = 0; i < HARDWARES; i++) {
+            hardwares[i] = hardware(random, i);
+        }
+        return hardwares;
+    }
+
+    static Hardware hardware(Random random, int i) {
+        Hardware hw = new Hardware();
+        hw.id = id("hw", random);
+        hw.name = "Controller " + PLACES[i % PLACES.length];
+        hw.productId = "akiles_cerbo";
+        hw.revisionId = "v2";
+        hw.sessions = new String[1 + random.nextInt(3)];
+        for (int j = 0; j < hw.sessions.length; j++) {
+            hw.sessions[j] = id("mbm", random);
+        }
+        return hw;
+    }
+
+    /**
+     * Every weekday open in the morning, at noon, in the afternoon and at night.
+     */
+    static Schedule fullSchedule() {
+        Schedule schedule = new Schedule();
+        schedule.weekdays = new Schedule.Weekday[7];
+        int[][] ranges = {{7 * 3600, 9 * 3600 + 1800}, {12 * 3600, 14 * 3600}, {16 * 3600 + 900, 19 * 3600}, {22 * 3600, 23 * 3600 + 3599}};
+        for (int d = 0; d < 7; d++) {
+            Schedule.Weekday weekday = new Schedule.Weekday();
+            weekday.ranges = new Schedule.Range[ranges.length];
+            for (int r = 0; r < ranges.length; r++) {
+                Schedule.Range range = new Schedule.Range();
+                range.start = ranges[r][0];
+                range.end = ranges[r][1];
+                weekday.ranges[r] = range;
+            }
+            schedule.weekdays[d] = weekday;
+        }
+        return schedule;
+    }
+
+    static AkilesException.PermissionDeniedOutOfSchedule outOfSchedule() {
+        AkilesException.PermissionDeniedOutOfSchedule ex = new AkilesException.PermissionDeniedOutOfSchedule("Member is not allowed access at this time");
+        ex.waitTime = 5400;
+        ex.timezone = "Europe/Madrid";
+        ex.schedule = fullSchedule();
+        return ex;
+    }
+
+    static AkilesException.LocationOutOfRadius outOfRadius() {
+        AkilesException.LocationOutOfRadius ex = new AkilesException.LocationOutOfRadius("You are too far from the site");
+        ex.distance = 1523.75;
+        ex.siteGeo = new AkilesException.SiteGeo();
+        ex.siteGeo.radius = 150;
+        ex.siteGeo.location = new AkilesException.Location();
+        ex.siteGeo.location.lat = 41.387917;
+        ex.siteGeo.location.lng = 2.169919;
+        return ex;
+    }
+
+    static Card card() {
+        // 7-byte UID, as on MIFARE DESFire and NTAG cards.
+        return new Card(new byte[] {0x04, (byte) 0xA2, 0x3F, (byte) 0xC1, 0x5E, 0x6B, (byte) 0x80}, true);
+    }
+
+    private static String id(String prefix, Random random) {
+        String alphabet = "0123456789abcdefghjkmnpqrstvwxyz";
+        StringBuilder sb = new StringBuilder(prefix).append('_');
+        for (int i = 0; i < 26; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,209 @@
+package app.akiles.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Card;
+import app.akiles.sdk.Gadget;
+import app.akiles.sdk.GadgetAction;
+import app.akiles.sdk.Hardware;
+import app.akiles.sdk.Schedule;
+
+/**
+ * The same events as `EncodingBenchmark`, encoded the way the plugin did before
+ * EventEncoder: an org.json tree per event, stringified by Cordova when the
+ * PluginResult is built. Kept as the reference for allocation comparisons:
+ *
+ *   gradle -p plugin/jvm jmh -PjmhArgs='-prof gc'
+ *
+ * org.json on the JVM is not byte-for-byte the Android implementation, but it
+ * builds the same tree of HashMaps and lists.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LegacyEncodingBenchmark {
+    private Gadget[] gadgets;
+    private Hardware[] hardwares;
+    private Hardware discovered;
+    private AkilesException.PermissionDeniedOutOfSchedule outOfSchedule;
+    private AkilesException.LocationOutOfRadius outOfRadius;
+    private Card card;
+
+    @Setup
+    public void setUp() {
+        gadgets = Fixtures.gadgets();
+        hardwares = Fixtures.hardwares();
+        discovered = Fixtures.hardware(new Random(3), 0);
+        outOfSchedule = Fixtures.outOfSchedule();
+        outOfRadius = Fixtures.outOfRadius();
+        card = Fixtures.card();
+    }
+
+    @Benchmark
+    public String gadgets() {
+        JSONArray result = new JSONArray();
+        for (Gadget gadget : gadgets) {
+            JSONObject obj = new JSONObject();
+            obj.put("id", gadget.id);
+            obj.put("name", gadget.name);
+            JSONArray actions = new JSONArray();
+            if (gadget.actions != null) {
+                for (GadgetAction action : gadget.actions) {
+                    JSONObject actionObj = new JSONObject();
+                    actionObj.put("id", action.id);
+                    actionObj.put("name", action.name);
+                    actions.put(actionObj);
+                }
+            }
+            obj.put("actions", actions);
+            result.put(obj);
+        }
+        return result.toString();
+    }
+
+    @Benchmark
+    public String hardwares() {
+        JSONArray result = new JSONArray();
+        for (Hardware hw : hardwares) {
+            result.put(hardware(hw));
+        }
+        return result.toString();
+    }
+
+    @Benchmark
+    public String discover() {
+        JSONObject event = new JSONObject();
+        event.put("type", "discover");
+        event.put("hardware", hardware(discovered));
+        return event.toString();
+    }
+
+    @Benchmark
+    public String errorOutOfSchedule() {
+        JSONObject event = new JSONObject();
+        event.put("type", "error");
+        event.put("error", error(outOfSchedule));
+        return event.toString();
+    }
+
+    @Benchmark
+    public String errorOutOfRadius() {
+        JSONObject event = new JSONObject();
+        event.put("type", "error");
+        event.put("error", error(outOfRadius));
+        return event.toString();
+    }
+
+    @Benchmark
+    public String progress() {
+        JSONObject event = new JSONObject();
+        event.put("type", "bluetooth_status_progress");
+        event.put("percent", 42.5f);
+        return event.toString();
+    }
+
+    @Benchmark
+    public String card() {
+        JSONObject obj = new JSONObject();
+        obj.put("isAkilesCard", card.isAkilesCard());
+        obj.put("uid", hex(card.getUid()));
+        return obj.toString();
+    }
+
+    @Benchmark
+    public String hex() {
+        return hex(card.getUid());
+    }
+
+    private static JSONObject hardware(Hardware hw) {
+        JSONObject obj = new JSONObject();
+        obj.put("id", hw.id);
+        obj.put("name", hw.name);
+        obj.put("productId", hw.productId);
+        obj.put("revisionId", hw.revisionId);
+        JSONArray sessions = new JSONArray();
+        if (hw.sessions != null) {
+            for (String s : hw.sessions) {
+                sessions.put(s);
+            }
+        }
+        obj.put("sessions", sessions);
+        return obj;
+    }
+
+    private static JSONObject error(AkilesException ex) {
+        JSONObject obj = new JSONObject();
+        obj.put("code", ex.code.toString());
+        obj.put("description", ex.getMessage());
+        if (ex instanceof AkilesException.LocationOutOfRadius) {
+            AkilesException.LocationOutOfRadius locationOutOfRadius = (AkilesException.LocationOutOfRadius) ex;
+            obj.put("distance", locationOutOfRadius.distance);
+            if (locationOutOfRadius.siteGeo != null) {
+                JSONObject siteGeoObj = new JSONObject();
+                siteGeoObj.put("radius", locationOutOfRadius.siteGeo.radius);
+                if (locationOutOfRadius.siteGeo.location != null) {
+                    JSONObject locationObj = new JSONObject();
+                    locationObj.put("lat", locationOutOfRadius.siteGeo.location.lat);
+                    locationObj.put("lng", locationOutOfRadius.siteGeo.location.lng);
+                    siteGeoObj.put("location", locationObj);
+                }
+                obj.put("siteGeo", siteGeoObj);
+            }
+        } else if (ex instanceof AkilesException.PermissionDeniedOutOfSchedule) {
+            AkilesException.PermissionDeniedOutOfSchedule outOfSchedule = (AkilesException.PermissionDeniedOutOfSchedule) ex;
+            obj.put("reason", outOfSchedule.reason.toString());
+            obj.put("waitTime", outOfSchedule.waitTime);
+            obj.put("timezone", outOfSchedule.timezone);
+            if (outOfSchedule.schedule != null) {
+                JSONObject scheduleObj = new JSONObject();
+                JSONArray weekdaysArray = new JSONArray();
+                if (outOfSchedule.schedule.weekdays != null) {
+                    for (Schedule.Weekday weekday : outOfSchedule.schedule.weekdays) {
+                        JSONObject weekdayObj = new JSONObject();
+                        JSONArray rangesArray = new JSONArray();
+                        if (weekday.ranges != null) {
+                            for (Schedule.Range range : weekday.ranges) {
+                                JSONObject rangeObj = new JSONObject();
+                                rangeObj.put("start", range.start);
+                                rangeObj.put("end", range.end);
+                                rangesArray.put(rangeObj);
+                            }
+                        }
+                        weekdayObj.put("ranges", rangesArray);
+                        weekdaysArray.put(weekdayObj);
+                    }
+                }
+                scheduleObj.put("weekdays", weekdaysArray);
+                obj.put("schedule", scheduleObj);
+            }
+        }
+        return obj;
+    }
+
+    private static String hex(byte[] payload) {
+        if (payload == null)
+            return "";
+        StringBuilder stringBuilder = new StringBuilder(payload.length);
+        for (byte byteChar : payload)
+            stringBuilder.append(String.format("%02X", byteChar));
+        return stringBuilder.toString();
+    }
+}
@@ -0,0 +1,526 @@
+package app.akiles.cordova;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import app.akiles.sdk.ActionBluetoothStatus;
+import app.akiles.sdk.ActionCallback;
+import app.akiles.sdk.ActionInternetStatus;
+import app.akiles.sdk.ActionOptions;
+import app.akiles.sdk.Akiles;
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Callback;
+import app.akiles.sdk.Cancel;
+import app.akiles.sdk.Card;
+import app.akiles.sdk.ErrorCode;
+import app.akiles.sdk.Gadget;
+import app.akiles.sdk.GadgetAction;
+import app.akiles.sdk.Hardware;
+import app.akiles.sdk.ScanCallback;
+import app.akiles.sdk.SyncCallback;
+import app.akiles.sdk.SyncStatus;
+
+/**
+ * A scripted SDK for the load harness. Every call completes after a random
+ * latency within its {@link Behavior}, and fails with the behavior's error at
+ * its failure rate. Callbacks are delivered on a pool of `callbackThreads`
+ * threads; with one it behaves like the real SDK, which calls back on the
+ * main thread.
+ *
+ * Each `action`, `scan`, `sync` and `scanCard` counts as running until its
+ * final callback; `running()` after the load has settled is the number of SDK
+ * operations the plugin started and never saw through or canceled.
+ */
+class FakeAkiles extends Akiles {
+    /**
+     * How one kind of call behaves. Fields can be changed while running.
+     */
+    static final class Behavior {
+        volatile long minLatency;
+        volatile long maxLatency;
+        volatile double failureRate;
+        volatile ErrorCode failure;
+
+        Behavior(long minLatency, long maxLatency, double failureRate, ErrorCode failure) {
+            this.minLatency = minLatency;
+            this.maxLatency = maxLatency;
+            this.failureRate = failureRate;
+            this.failure = failure;
+        }
+    }
+
+    final Behavior session = new Behavior(5, 20, 0, ErrorCode.INTERNAL);
+    final Behavior catalog = new Behavior(0, 2, 0, ErrorCode.INTERNAL);
+    final Behavior internet = new Behavior(100, 400, 0.05, ErrorCode.INTERNET_DEVICE_OFFLINE);
+    final Behavior bluetooth = new Behavior(300, 1500, 0.1, ErrorCode.BLUETOOTH_DEVICE_NOT_FOUND);
+    final Behavior scan = new Behavior(500, 2000, 0, ErrorCode.INTERNAL);
+    final Behavior sync = new Behavior(300, 1500, 0.05, ErrorCode.BLUETOOTH_DEVICE_NOT_FOUND);
+    final Behavior scanCard = new Behavior(200, 800, 0.05, ErrorCode.NFC_READ_ERROR);
+
+    volatile int gadgets = 50;
+    volatile int hardwares = 10;
+    volatile int discoveries = 5;
+    volatile int progressTicks = 10;
+    // When set, every scanCard reads this card, as if it were left on the reader.
+    volatile byte[] cardOnReader;
+
+    private final ScheduledThreadPoolExecutor callbacks;
+    private final Random random;
+    private final ConcurrentHashMap<String, Catalog> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger sessionSeq = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong canceled = new AtomicLong();
+    private final AtomicInteger cardUpdates = new AtomicInteger();
+
+    FakeAkiles(Context context, int callbackThreads, long seed) {
+        super(context);
+        callbacks = new ScheduledThreadPoolExecutor(callbackThreads, r -> {
+            Thread t = new Thread(r, "fake-sdk");
+            t.setDaemon(true);
+            return t;
+        });
+        callbacks.setRemoveOnCancelPolicy(true);
+        random = new Random(seed);
+    }
+
+    /**
+     * SDK operations started and not finished yet.
+     */
+    int running() {
+        return running.get();
+    }
+
+    long started() {
+        return started.get();
+    }
+
+    long canceled() {
+        return canceled.get();
+    }
+
+    /**
+     * Cards written with `Card.update`.
+     */
+    int cardUpdates() {
+        return cardUpdates.get();
+    }
+
+    void shutdown() {
+        callbacks.shutdownNow();
+    }
+
+    @Override
+    public boolean isBluetoothSupported() {
+        return true;
+    }
+
+    @Override
+    public String[] getSessionIDs() {
+        return sessions.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public void addSession(String token, Callback<String> callback) {
+        callbacks.schedule(() -> {
+            if (fails(session)) {
+                callback.onError(new AkilesException(session.failure, "scripted failure"));
+                return;
+            }
+            String id = "ses_" + sessionSeq.incrementAndGet();
+            sessions.put(id, new Catalog(id, gadgets, hardwares));
+            callback.onSuccess(id);
+        }, latency(session), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void removeSession(String sessionID) throws AkilesException {
+        block(catalog);
+        sessions.remove(sessionID);
+    }
+
+    @Override
+    public void removeAllSessions() throws AkilesException {
+        block(catalog);
+        sessions.clear();
+    }
+
+    @Override
+    public void refreshSession(String sessionID, Callback<Void> callback) {
+        callbacks.schedule(() -> {
+            if (!sessions.containsKey(sessionID)) {
+                callback.onError(invalidSession(sessionID));
+            } else if (fails(session)) {
+                callback.onError(new AkilesException(session.failure, "scripted failure"));
+            } else {
+                callback.onSuccess(null);
+            }
+        }, latency(session), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void refreshAllSessions(Callback<Void> callback) {
+        callbacks.schedule(() -> {
+            if (fails(session)) {
+                callback.onError(new AkilesException(session.failure, "scripted failure"));
+            } else {
+                callback.onSuccess(null);
+            }
+        }, latency(session), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Gadget[] getGadgets(String sessionID) throws AkilesException {
+        block(catalog);
+        return catalog(sessionID).gadgets;
+    }
+
+    @Override
+    public Hardware[] getHardwares(String sessionID) throws AkilesException {
+        block(catalog);
+        return catalog(sessionID).hardwares;
+    }
+
+    @Override
+    public Cancel action(String sessionID, String gadgetID, String actionID, ActionOptions options, ActionCallback callback) {
+        ActionOp op = new ActionOp(callback, options.useInternet, options.useBluetooth);
+        if (!sessions.containsKey(sessionID)) {
+            AkilesException e = invalidSession(sessionID);
+            op.at(latency(session), () -> op.leg(ActionOp.ALL, e));
+            return op;
+        }
+        if (options.useInternet) {
+            long t = latency(internet);
+            AkilesException e = failure(internet);
+            op.at(0, () -> callback.onInternetStatus(ActionInternetStatus.EXECUTING_ACTION));
+            op.at(t, () -> op.leg(ActionOp.INTERNET, e));
+        }
+        if (options.useBluetooth) {
+            long t = latency(bluetooth);
+            AkilesException e = failure(bluetooth);
+            op.at(0, () -> callback.onBluetoothStatus(ActionBluetoothStatus.SCANNING));
+            op.at(t * 3 / 10, () -> callback.onBluetoothStatus(ActionBluetoothStatus.CONNECTING));
+            op.at(t * 4 / 10, () -> callback.onBluetoothStatus(ActionBluetoothStatus.SYNCING_DEVICE));
+            int ticks = progressTicks;
+            for (int i = 1; i <= ticks; i++) {
+                float percent = 100f * i / ticks;
+                op.at(t * 4 / 10 + t * 4 / 10 * i / ticks, () -> callback.onBluetoothStatusProgress(percent));
+            }
+            op.at(t * 9 / 10, () -> callback.onBluetoothStatus(ActionBluetoothStatus.EXECUTING_ACTION));
+            op.at(t, () -> op.leg(ActionOp.BLUETOOTH, e));
+        }
+        return op;
+    }
+
+    @Override
+    public Cancel scan(ScanCallback callback) {
+        Op op = new Op() {
+            @Override
+            void onCanceled() {
+                callback.onError(new AkilesException(ErrorCode.CANCELED, "canceled"));
+            }
+        };
+        long t = latency(scan);
+        Hardware[] known = knownHardware();
+        int n = known.length > 0 ? discoveries : 0;
+        for (int i = 0; i < n; i++) {
+            Hardware hw = known[nextInt(known.length)];
+            op.at(t * (i + 1) / (n + 1), () -> callback.onDiscover(hw));
+        }
+        AkilesException e = failure(scan);
+        op.at(t, () -> {
+            if (op.finish()) {
+                if (e == null) {
+                    callback.onSuccess();
+                } else {
+                    callback.onError(e);
+                }
+            }
+        });
+        return op;
+    }
+
+    @Override
+    public Cancel sync(String sessionID, String hardwareID, SyncCallback callback) {
+        Op op = new Op() {
+            @Override
+            void onCanceled() {
+                callback.onError(new AkilesException(ErrorCode.CANCELED, "canceled"));
+            }
+        };
+        long t = latency(sync);
+        AkilesException e = sessions.containsKey(sessionID) ? failure(sync) : invalidSession(sessionID);
+        op.at(0, () -> callback.onStatus(SyncStatus.SCANNING));
+        op.at(t * 3 / 10, () -> callback.onStatus(SyncStatus.CONNECTING));
+        op.at(t * 4 / 10, () -> callback.onStatus(SyncStatus.SYNCING_DEVICE));
+        int ticks = progressTicks;
+        for (int i = 1; i <= ticks; i++) {
+            float percent = 100f * i / ticks;
+            op.at(t * 4 / 10 + t * 4 / 10 * i / ticks, () -> callback.onStatusProgress(percent));
+        }
+        op.at(t * 9 / 10, () -> callback.onStatus(SyncStatus.SYNCING_SERVER));
+        op.at(t, () -> {
+            if (op.finish()) {
+                if (e == null) {
+                    callback.onSuccess();
+                } else {
+                    callback.onError(e);
+                }
+            }
+        });
+        return op;
+    }
+
+    @Override
+    public Cancel scanCard(Callback<Card> callback) {
+        Op op = new Op() {
+            @Override
+            void onCanceled() {
+                callback.onError(new AkilesException(ErrorCode.CANCELED, "canceled"));
+            }
+        };
+        AkilesException e = failure(scanCard);
+        byte[] fixed = cardOnReader;
+        byte[] uid = fixed != null ? fixed : new byte[7];
+        if (fixed == null) {
+            synchronized (random) {
+                random.nextBytes(uid);
+            }
+        }
+        op.at(latency(scanCard), () -> {
+            if (op.finish()) {
+                if (e == null) {
+                    callback.onSuccess(new Card(uid, true) {
+                        @Override
+                        public void update(Callback<Void> updateCallback) {
+                            cardUpdates.incrementAndGet();
+                            updateCallback.onSuccess(null);
+                        }
+                    });
+                } else {
+                    callback.onError(e);
+                }
+            }
+        });
+        return op;
+    }
+
+    private Catalog catalog(String sessionID) throws AkilesException {
+        Catalog c = sessions.get(sessionID);
+        if (c == null) {
+            throw invalidSession(sessionID);
+        }
+        return c;
+    }
+
+    private Hardware[] knownHardware() {
+        ArrayList<Hardware> all = new ArrayList<>();
+        for (Catalog c : sessions.values()) {
+            for (Hardware hw : c.hardwares) {
+                all.add(hw);
+            }
+        }
+        return all.toArray(new Hardware[0]);
+    }
+
+    private static AkilesException invalidSession(String sessionID) {
+        return new AkilesException(ErrorCode.INVALID_SESSION, "session not found: " + sessionID);
+    }
+
+    private long latency(Behavior b) {
+        long min = b.minLatency;
+        long span = b.maxLatency - min;
+        synchronized (random) {
+            return span > 0 ? min + (long) (random.nextDouble() * span) : min;
+        }
+    }
+
+    private boolean fails(Behavior b) {
+        synchronized (random) {
+            return random.nextDouble() < b.failureRate;
+        }
+    }
+
+    private AkilesException failure(Behavior b) {
+        return fails(b) ? new AkilesException(b.failure, "scripted failure") : null;
+    }
+
+    private int nextInt(int bound) {
+        synchronized (random) {
+            return random.nextInt(bound);
+        }
+    }
+
+    /**
+     * Synchronous SDK calls read the local database; stand in for that time on the calling thread.
+     */
+    private void block(Behavior b) {
+        long ms = latency(b);
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Catalog {
+        final Gadget[] gadgets;
+        final Hardware[] hardwares;
+
+        Catalog(String sessionID, int gadgetCount, int hardwareCount) {
+            gadgets = new Gadget[gadgetCount];
+            for (int i = 0; i < gadgetCount; i++) {
+                Gadget g = new Gadget();
+                g.id = "gad_" + sessionID + "_" + i;
+                g.name = "Door " + i;
+                GadgetAction open = new GadgetAction();
+                open.id = "open";
+                open.name = "Open";
+                g.actions = new GadgetAction[] {open};
+                gadgets[i] = g;
+            }
+            hardwares = new Hardware[hardwareCount];
+            for (int i = 0; i < hardwareCount; i++) {
+                Hardware hw = new Hardware();
+                hw.id = "hw_" + sessionID + "_" + i;
+                hw.name = "Controller " + i;
+                hw.productId = "akiles_pro";
+                hw.revisionId = "r2";
+                hw.sessions = new String[] {sessionID};
+                hardwares[i] = hw;
+            }
+        }
+    }
+
+    /**
+     * A running SDK operation: its scheduled callbacks, and whether its final
+     * callback was delivered. Steps run under the operation's lock, so a cancel
+     * never interleaves with a callback in progress.
+     */
+    private abstract class Op implements Cancel {
+        private final ArrayList<ScheduledFuture<?>> steps = new ArrayList<>();
+        private boolean done;
+
+        Op() {
+            running.incrementAndGet();
+            started.incrementAndGet();
+        }
+
+        synchronized void at(long delay, Runnable step) {
+            if (done) {
+                return;
+            }
+            steps.add(callbacks.schedule(() -> {
+                synchronized (Op.this) {
+                    if (!done) {
+                        step.run();
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS));
+        }
+
+        /**
+         * Mark the operation done. Returns false if it already was.
+         */
+        synchronized boolean finish() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            for (ScheduledFuture<?> f : steps) {
+                f.cancel(false);
+            }
+            running.decrementAndGet();
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            callbacks.execute(() -> {
+                synchronized (Op.this) {
+                    if (finish()) {
+                        canceled.incrementAndGet();
+                        onCanceled();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Deliver the callbacks of a cancel, after the operation was marked done.
+         */
+        abstract void onCanceled();
+    }
+
+    /**
+     * An action with its transports. The action succeeds with the first
+     * transport that does, and fails with the last error once all failed.
+     */
+    private final class ActionOp extends Op {
+        static final int INTERNET = 1;
+        static final int BLUETOOTH = 2;
+        static final int ALL = INTERNET | BLUETOOTH;
+
+        private final ActionCallback callback;
+        private int pending;
+        private boolean globalSent;
+
+        ActionOp(ActionCallback callback, boolean useInternet, boolean useBluetooth) {
+            this.callback = callback;
+            pending = (useInternet ? INTERNET : 0) | (useBluetooth ? BLUETOOTH : 0);
+        }
+
+        /**
+         * End the given transports, with an error or successfully. Runs under the lock.
+         */
+        void leg(int legs, AkilesException e) {
+            legs &= pending;
+            pending &= ~legs;
+            if ((legs & INTERNET) != 0) {
+                if (e == null) {
+                    callback.onInternetSuccess();
+                } else {
+                    callback.onInternetError(e);
+                }
+            }
+            if ((legs & BLUETOOTH) != 0) {
+                if (e == null) {
+                    callback.onBluetoothSuccess();
+                } else {
+                    callback.onBluetoothError(e);
+                }
+            }
+            if (e == null && !globalSent) {
+                globalSent = true;
+                callback.onSuccess();
+            }
+            if (pending == 0) {
+                if (!globalSent) {
+                    globalSent = true;
+                    callback.onError(e);
+                }
+                finish();
+            }
+        }
+
+        @Override
+        void onCanceled() {
+            leg(pending, new AkilesException(ErrorCode.CANCELED, "canceled"));
+            if (!globalSent) {
+                globalSent = true;
+                callback.onError(new AkilesException(ErrorCode.CANCELED, "canceled"));
+            }
+        }
+    }
+}
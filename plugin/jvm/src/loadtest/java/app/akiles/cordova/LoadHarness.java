@@ -0,0 +1,558 @@
+package app.akiles.cordova;
+
+import android.app.Activity;
+import android.content.Context;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaArgs;
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import app.akiles.sdk.Akiles;
+
+/**
+ * Drives `AkilesPlugin.execute()` with thousands of concurrent operations
+ * against {@link FakeAkiles}, the way the Cordova bridge does: every command
+ * is executed on one bridge thread, and results come back through the
+ * WebView. Some of the long-running operations are canceled midway.
+ *
+ * Each pass reports the throughput, the time `execute()` held the bridge
+ * thread, and the latency from `execute()` to the final result per command.
+ * Then it looks for leaks once the load has settled: callbacks that never got
+ * a final result, callback contexts still reachable from the plugin after
+ * their final result, bridge callbacks JS would still hold, operations left
+ * in the registry, and SDK operations
+ * that were never finished or canceled. Any leak makes the exit code 1.
+ *
+ *   gradle -p plugin/jvm loadtest [-PloadtestArgs='--ops 20000 --mode channel']
+ *
+ * Options: --ops, --sessions, --cancel-rate, --callback-threads, --scale
+ * (multiplies every scripted latency), --bluetooth-concurrency, --seed,
+ * --timeout (seconds to settle) and --mode (direct, channel or both).
+ */
+public final class LoadHarness {
+    private static final String[] KINDS = {
+            "action", "sync", "scan", "scan_card", "get_gadgets", "get_hardwares", "refresh_session"};
+    private static final int[] WEIGHTS = {50, 15, 8, 2, 12, 8, 5};
+
+    private final Map<String, String> options;
+    private final boolean channel;
+    private final Random random;
+
+    private final ConcurrentHashMap<String, Call> byCallback = new ConcurrentHashMap<>();
+    // Like cordova.callbacks in JS: a callback is held until its final result.
+    private final Set<String> held = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Call> byOp = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Stats> stats = new LinkedHashMap<>();
+    private final ArrayList<Long> bridgeNanos = new ArrayList<>();
+    private final AtomicInteger callSeq = new AtomicInteger();
+
+    private ExecutorService bridge;
+    private ExecutorService threadPool;
+    private ScheduledExecutorService canceler;
+    private Activity activity;
+    private FakeAkiles fake;
+    private AkilesPlugin plugin;
+    private CordovaWebView webView;
+    private String channelId;
+
+    private LoadHarness(Map<String, String> options, boolean channel) {
+        this.options = options;
+        this.channel = channel;
+        this.random = new Random(Long.parseLong(options.get("seed")));
+        for (String kind : KINDS) {
+            stats.put(kind, new Stats());
+        }
+        stats.put("cancel", new Stats());
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("ops", "5000");
+        options.put("sessions", "4");
+        options.put("cancel-rate", "0.1");
+        options.put("callback-threads", "1");
+        options.put("scale", "0.25");
+        options.put("bluetooth-concurrency", "64");
+        options.put("seed", "1");
+        options.put("timeout", "120");
+        options.put("mode", "both");
+        for (int i = 0; i + 1 < argv.length; i += 2) {
+            if (!argv[i].startsWith("--") || !options.containsKey(argv[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + argv[i]);
+            }
+            options.put(argv[i].substring(2), argv[i + 1]);
+        }
+        String mode = options.get("mode");
+        boolean leaks = false;
+        if (mode.equals("direct") || mode.equals("both")) {
+            leaks |= new LoadHarness(options, false).run();
+        }
+        if (mode.equals("channel") || mode.equals("both")) {
+            leaks |= new LoadHarness(options, true).run();
+        }
+        System.exit(leaks ? 1 : 0);
+    }
+
+    /**
+     * Run one pass. Returns true if anything leaked.
+     */
+    private boolean run() throws Exception {
+        int ops = Integer.parseInt(options.get("ops"));
+        double cancelRate = Double.parseDouble(options.get("cancel-rate"));
+        setUp();
+        try {
+            if (channel) {
+                channelId = "channel";
+                bridge.submit(() -> exec("channel", "register_events", new JSONArray())).get();
+            }
+            List<String> sessionIDs = addSessions(Integer.parseInt(options.get("sessions")));
+
+            CountDownLatch settled = new CountDownLatch(ops);
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                String kind = pick();
+                String sessionID = sessionIDs.get(random.nextInt(sessionIDs.size()));
+                Call call = newCall(kind, settled);
+                JSONArray args = args(call, sessionID);
+                bridge.execute(() -> exec(call, args));
+                if (call.opId != null && !kind.startsWith("get_") && random.nextDouble() < cancelRate) {
+                    long delay = (long) (random.nextDouble() * 400 * scale());
+                    canceler.schedule(() -> bridge.execute(() -> cancel(call)), delay, TimeUnit.MILLISECONDS);
+                }
+            }
+            boolean done = settled.await(Long.parseLong(options.get("timeout")), TimeUnit.SECONDS);
+            long elapsed = lastEnd() - start;
+            // Cancels sent after their operation ended are answered too.
+            canceler.shutdown();
+            canceler.awaitTermination(10, TimeUnit.SECONDS);
+            bridge.submit(() -> { }).get();
+            Thread.sleep(200);
+            return report(ops, done, elapsed);
+        } finally {
+            tearDown();
+        }
+    }
+
+    private void setUp() throws IOException {
+        File filesDir = Files.createTempDirectory("akiles-loadtest").toFile();
+        filesDir.deleteOnExit();
+        activity = new Activity(filesDir);
+        double scale = scale();
+        fake = new FakeAkiles(activity, Integer.parseInt(options.get("callback-threads")), random.nextLong());
+        for (FakeAkiles.Behavior b : new FakeAkiles.Behavior[] {
+                fake.session, fake.internet, fake.bluetooth, fake.scan, fake.sync, fake.scanCard}) {
+            b.minLatency = (long) (b.minLatency * scale);
+            b.maxLatency = (long) (b.maxLatency * scale);
+        }
+        bridge = Executors.newSingleThreadExecutor(r -> daemon(r, "bridge"));
+        threadPool = Executors.newCachedThreadPool(r -> daemon(r, "cordova"));
+        canceler = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "canceler"));
+        webView = this::deliver;
+        CordovaInterface cordova = new CordovaInterface() {
+            @Override
+            public Activity getActivity() {
+                return activity;
+            }
+
+            @Override
+            public Context getContext() {
+                return activity;
+            }
+
+            @Override
+            public ExecutorService getThreadPool() {
+                return threadPool;
+            }
+
+            @Override
+            public void requestPermissions(CordovaPlugin plugin, int requestCode, String[] permissions) {
+            }
+        };
+        CordovaPreferences preferences = new CordovaPreferences();
+        preferences.set("akiles_bluetooth_concurrency", Integer.parseInt(options.get("bluetooth-concurrency")));
+        FakeAkiles sdk = fake;
+        plugin = new AkilesPlugin() {
+            @Override
+            protected Akiles createAkiles(Activity a) {
+                return sdk;
+            }
+        };
+        plugin.privateInitialize("Akiles", cordova, webView, preferences);
+    }
+
+    private void tearDown() {
+        plugin.onDestroy();
+        fake.shutdown();
+        canceler.shutdownNow();
+        bridge.shutdownNow();
+        threadPool.shutdownNow();
+    }
+
+    private List<String> addSessions(int n) throws Exception {
+        CountDownLatch added = new CountDownLatch(n);
+        ArrayList<Call> calls = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Call call = newCall("add_session", added);
+            calls.add(call);
+            JSONArray args = new JSONArray().put("token_" + i);
+            bridge.execute(() -> exec(call, args));
+        }
+        if (!added.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Sessions weren't added");
+        }
+        ArrayList<String> ids = new ArrayList<>();
+        for (Call call : calls) {
+            if (!(call.last instanceof String)) {
+                throw new IllegalStateException("Error adding session: " + call.last);
+            }
+            ids.add((String) call.last);
+        }
+        return ids;
+    }
+
+    private String pick() {
+        int total = 0;
+        for (int w : WEIGHTS) {
+            total += w;
+        }
+        int r = random.nextInt(total);
+        for (int i = 0; i < KINDS.length; i++) {
+            r -= WEIGHTS[i];
+            if (r < 0) {
+                return KINDS[i];
+            }
+        }
+        return KINDS[0];
+    }
+
+    private JSONArray args(Call call, String sessionID) throws JSONException {
+        String session = sessionID.substring(sessionID.indexOf('_') + 1);
+        switch (call.kind) {
+            case "action":
+                // Mostly both transports, like the default, some single-transport actions.
+                double r = random.nextDouble();
+                JSONObject actionOptions = new JSONObject()
+                        .put("useInternet", r < 0.8)
+                        .put("useBluetooth", r >= 0.4);
+                return new JSONArray().put(call.opId).put(sessionID)
+                        .put("gad_ses_" + session + "_" + random.nextInt(fake.gadgets)).put("open").put(actionOptions);
+            case "sync":
+                return new JSONArray().put(call.opId).put(sessionID)
+                        .put("hw_ses_" + session + "_" + random.nextInt(fake.hardwares)).put(new JSONObject());
+            case "scan":
+            case "scan_card":
+                return new JSONArray().put(call.opId);
+            default:
+                return new JSONArray().put(sessionID);
+        }
+    }
+
+    private Call newCall(String kind, CountDownLatch settled) {
+        int id = callSeq.incrementAndGet();
+        boolean operation = kind.equals("action") || kind.equals("sync") || kind.equals("scan") || kind.equals("scan_card");
+        Call call = new Call(kind, "cb" + id, operation ? "op" + id : null, settled);
+        byCallback.put(call.callbackId, call);
+        if (call.opId != null) {
+            byOp.put(call.opId, call);
+        }
+        return call;
+    }
+
+    private void cancel(Call target) {
+        Call call = newCall("cancel", null);
+        exec(call, new JSONArray().put(target.opId));
+    }
+
+    private void exec(Call call, JSONArray args) {
+        exec(call.callbackId, call.kind, args, call);
+    }
+
+    private void exec(String callbackId, String action, JSONArray args) {
+        exec(callbackId, action, args, null);
+    }
+
+    /**
+     * Run one command the way Cordova's PluginManager does. Bridge thread only.
+     */
+    private void exec(String callbackId, String action, JSONArray args, Call call) {
+        CallbackContext callbackContext = new CallbackContext(callbackId, webView);
+        if (!callbackId.equals(channelId)) {
+            held.add(callbackId);
+        }
+        long start = System.nanoTime();
+        if (call != null) {
+            call.start = start;
+            call.context = new WeakReference<>(callbackContext);
+        }
+        try {
+            if (!plugin.execute(action, new CordovaArgs(args), callbackContext)) {
+                callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            }
+        } catch (JSONException e) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION));
+        }
+        bridgeNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * The WebView end: results for a callback, or a batch from the event channel.
+     */
+    private void deliver(PluginResult result, String callbackId) {
+        try {
+            if (callbackId.equals(channelId)) {
+                if (result.getMessageType() != PluginResult.MESSAGE_TYPE_JSON) {
+                    // The keep-alive sent when the channel is registered.
+                    return;
+                }
+                JSONArray batch = new JSONArray(result.getMessage());
+                for (int i = 0; i < batch.length(); i++) {
+                    JSONObject entry = batch.getJSONObject(i);
+                    Call call = byOp.get(entry.getString("opId"));
+                    if (call != null) {
+                        call.result(entry.getInt("status"), entry.getBoolean("keep"), entry.opt("message"));
+                    }
+                }
+                return;
+            }
+            if (!result.getKeepCallback()) {
+                held.remove(callbackId);
+            }
+            Call call = byCallback.get(callbackId);
+            if (call != null && channel && call.opId != null && result.getStatus() == PluginResult.Status.NO_RESULT.ordinal()) {
+                // A routed command's own callback being released; its results come through the channel.
+                return;
+            }
+            if (call != null) {
+                call.result(result.getStatus(), result.getKeepCallback(), parse(result.getMessage()));
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException("Bad result for " + callbackId + ": " + result.getMessage(), e);
+        }
+    }
+
+    private boolean report(int ops, boolean done, long elapsed) throws Exception {
+        int settled = 0;
+        int unsettled = 0;
+        for (Call call : byCallback.values()) {
+            if (call.kind.equals("add_session")) {
+                continue;
+            }
+            Stats s = stats.get(call.kind);
+            synchronized (call) {
+                if (!call.finished) {
+                    unsettled++;
+                    continue;
+                }
+                if (!call.kind.equals("cancel")) {
+                    settled++;
+                }
+                s.add(call);
+            }
+        }
+        JSONArray registered = (JSONArray) query("list_operations");
+        JSONObject metrics = (JSONObject) query("get_metrics");
+        int retained = retainedContexts();
+
+        System.out.printf(Locale.ROOT, "== %s: %d ops, %s sessions, cancel rate %s, %s callback threads, latency scale %s%n",
+                channel ? "event channel" : "direct callbacks", ops, options.get("sessions"),
+                options.get("cancel-rate"), options.get("callback-threads"), options.get("scale"));
+        System.out.printf(Locale.ROOT, "throughput  %.0f ops/s (%d settled in %.2f s%s)%n",
+                settled * 1e9 / Math.max(elapsed, 1), settled, elapsed / 1e9, done ? "" : ", timed out");
+        Collections.sort(bridgeNanos);
+        System.out.printf(Locale.ROOT, "bridge      execute() p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                quantile(bridgeNanos, 0.50) / 1e6, quantile(bridgeNanos, 0.99) / 1e6, quantile(bridgeNanos, 1) / 1e6);
+        System.out.printf(Locale.ROOT, "%-16s %6s %6s %6s %6s %8s %8s %8s %8s  (ms from execute() to final result)%n",
+                "command", "count", "ok", "error", "cancel", "p50", "p95", "p99", "max");
+        for (Map.Entry<String, Stats> e : stats.entrySet()) {
+            Stats s = e.getValue();
+            Collections.sort(s.latencies);
+            System.out.printf(Locale.ROOT, "%-16s %6d %6d %6d %6d %8.1f %8.1f %8.1f %8.1f%n",
+                    e.getKey(), s.latencies.size(), s.ok, s.error, s.canceled,
+                    quantile(s.latencies, 0.50) / 1e6, quantile(s.latencies, 0.95) / 1e6,
+                    quantile(s.latencies, 0.99) / 1e6, quantile(s.latencies, 1) / 1e6);
+        }
+        System.out.printf(Locale.ROOT, "sdk         %d operations started, %d canceled%n", fake.started(), fake.canceled());
+        System.out.printf(Locale.ROOT, "storage     %d transport history writes%n", activity.preferenceWrites("akiles_transport_history"));
+        if (channel) {
+            JSONObject counters = metrics.optJSONObject("counters");
+            System.out.printf(Locale.ROOT, "channel     %d events in %d flushes%n",
+                    counters != null ? counters.optLong("events.sent") : 0, counters != null ? counters.optLong("events.flushes") : 0);
+        }
+        System.out.printf(Locale.ROOT, "leaks       %d callbacks without a final result, %d contexts retained after it, "
+                        + "%d bridge callbacks held, %d operations registered (%d started, %d finished), "
+                        + "%d SDK operations running%n",
+                unsettled, retained, held.size(), registered.length(), metrics.getLong("operationsStarted"),
+                metrics.getLong("operationsFinished"), fake.running());
+        if (registered.length() > 0) {
+            System.out.println("            still registered: " + registered.toString().substring(0, Math.min(400, registered.toString().length())));
+        }
+        System.out.println();
+        return unsettled > 0 || retained > 0 || !held.isEmpty() || registered.length() > 0 || fake.running() > 0;
+    }
+
+    /**
+     * Run a command and wait for its result message.
+     */
+    private Object query(String action) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        Call call = new Call(action, "query" + callSeq.incrementAndGet(), null, done);
+        byCallback.put(call.callbackId, call);
+        bridge.execute(() -> exec(call, new JSONArray()));
+        if (!done.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(action + " didn't answer");
+        }
+        byCallback.remove(call.callbackId);
+        return call.last;
+    }
+
+    /**
+     * Callback contexts of settled calls that are still reachable after a few
+     * collections: something in the plugin holds on to them.
+     */
+    private int retainedContexts() throws InterruptedException {
+        int retained = 0;
+        for (int round = 0; round < 5; round++) {
+            System.gc();
+            Thread.sleep(50);
+            retained = 0;
+            for (Call call : byCallback.values()) {
+                WeakReference<CallbackContext> ref = call.context;
+                if (call.finished && ref != null && ref.get() != null) {
+                    retained++;
+                }
+            }
+            if (retained == 0) {
+                break;
+            }
+        }
+        return retained;
+    }
+
+    private long lastEnd() {
+        long last = 0;
+        for (Call call : byCallback.values()) {
+            last = Math.max(last, call.end);
+        }
+        return last;
+    }
+
+    private double scale() {
+        return Double.parseDouble(options.get("scale"));
+    }
+
+    private static Object parse(String json) throws JSONException {
+        return new JSONArray("[" + json + "]").get(0);
+    }
+
+    private static long quantile(List<Long> sorted, double q) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return sorted.get(Math.min(sorted.size() - 1, (int) (q * sorted.size())));
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * One command sent to the plugin, and what came back for it.
+     */
+    private static final class Call {
+        final String kind;
+        final String callbackId;
+        final String opId;
+        final CountDownLatch settled;
+        volatile long start;
+        volatile long end;
+        volatile boolean finished;
+        volatile WeakReference<CallbackContext> context;
+        Object last;
+        String outcome = "ok";
+
+        Call(String kind, String callbackId, String opId, CountDownLatch settled) {
+            this.kind = kind;
+            this.callbackId = callbackId;
+            this.opId = opId;
+            this.settled = settled;
+        }
+
+        synchronized void result(int status, boolean keep, Object message) {
+            if (finished) {
+                return;
+            }
+            last = message;
+            if (status == PluginResult.Status.ERROR.ordinal() || status == PluginResult.Status.JSON_EXCEPTION.ordinal()
+                    || status == PluginResult.Status.INVALID_ACTION.ordinal()) {
+                outcome = "error";
+            } else if (message instanceof JSONObject) {
+                JSONObject event = (JSONObject) message;
+                String type = event.optString("type");
+                if (type.equals("error")) {
+                    JSONObject error = event.optJSONObject("error");
+                    outcome = error != null && "CANCELED".equals(error.optString("code")) ? "canceled" : "error";
+                } else if (type.equals("success")) {
+                    outcome = "ok";
+                }
+            }
+            if (!keep) {
+                finished = true;
+                end = System.nanoTime();
+                if (settled != null) {
+                    settled.countDown();
+                }
+            }
+        }
+    }
+
+    private static final class Stats {
+        final ArrayList<Long> latencies = new ArrayList<>();
+        int ok;
+        int error;
+        int canceled;
+
+        void add(Call call) {
+            latencies.add(call.end - call.start);
+            switch (call.outcome) {
+                case "ok":
+                    ok++;
+                    break;
+                case "canceled":
+                    canceled++;
+                    break;
+                default:
+                    error++;
+            }
+        }
+    }
+}
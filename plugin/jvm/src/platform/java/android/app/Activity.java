@@ -0,0 +1,15 @@
+package android.app;
+
+import android.content.Context;
+
+import java.io.File;
+
+public class Activity extends Context {
+    public Activity(File filesDir) {
+        super(filesDir);
+    }
+
+    public void runOnUiThread(Runnable action) {
+        action.run();
+    }
+}
@@ -0,0 +1,98 @@
+package android.content;
+
+import android.content.pm.PackageManager;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Files go to a directory given at construction; SharedPreferences are kept in
+ * memory, with the number of writes applied so a harness can check them.
+ */
+public class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    private final File filesDir;
+    private final PackageManager packageManager = new PackageManager();
+    private final ConcurrentHashMap<String, MemoryPreferences> preferences = new ConcurrentHashMap<>();
+
+    public Context(File filesDir) {
+        this.filesDir = filesDir;
+    }
+
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public PackageManager getPackageManager() {
+        return packageManager;
+    }
+
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return preferences.computeIfAbsent(name, n -> new MemoryPreferences());
+    }
+
+    /**
+     * Number of edits applied or committed to the named preferences.
+     */
+    public int preferenceWrites(String name) {
+        MemoryPreferences p = preferences.get(name);
+        return p != null ? p.writes : 0;
+    }
+
+    private static final class MemoryPreferences implements SharedPreferences {
+        private final Map<String, String> values = new HashMap<>();
+        private int writes;
+
+        @Override
+        public synchronized String getString(String key, String defValue) {
+            String v = values.get(key);
+            return v != null ? v : defValue;
+        }
+
+        @Override
+        public Editor edit() {
+            return new Editor() {
+                private final Map<String, String> changes = new HashMap<>();
+
+                @Override
+                public Editor putString(String key, String value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor remove(String key) {
+                    changes.put(key, null);
+                    return this;
+                }
+
+                @Override
+                public void apply() {
+                    commit();
+                }
+
+                @Override
+                public boolean commit() {
+                    synchronized (MemoryPreferences.this) {
+                        for (Map.Entry<String, String> e : changes.entrySet()) {
+                            if (e.getValue() == null) {
+                                values.remove(e.getKey());
+                            } else {
+                                values.put(e.getKey(), e.getValue());
+                            }
+                        }
+                        writes++;
+                    }
+                    return true;
+                }
+            };
+        }
+    }
+}
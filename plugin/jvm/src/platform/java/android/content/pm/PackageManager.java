@@ -0,0 +1,13 @@
+package android.content.pm;
+
+/**
+ * Reports no system features, so capability checks answer false off device.
+ */
+public class PackageManager {
+    public static final String FEATURE_BLUETOOTH_LE = "android.hardware.bluetooth_le";
+    public static final String FEATURE_NFC_HOST_CARD_EMULATION = "android.hardware.nfc.hce";
+
+    public boolean hasSystemFeature(String name) {
+        return false;
+    }
+}
@@ -0,0 +1,23 @@
+package android.nfc;
+
+import android.content.Context;
+
+/**
+ * No NFC hardware on the JVM.
+ */
+public final class NfcAdapter {
+    private NfcAdapter() {
+    }
+
+    public static NfcAdapter getDefaultAdapter(Context context) {
+        return null;
+    }
+
+    public boolean isSecureNfcSupported() {
+        return false;
+    }
+
+    public boolean isSecureNfcEnabled() {
+        return false;
+    }
+}
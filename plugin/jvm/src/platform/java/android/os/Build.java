@@ -0,0 +1,11 @@
+package android.os;
+
+public class Build {
+    public static class VERSION {
+        public static int SDK_INT = VERSION_CODES.Q;
+    }
+
+    public static class VERSION_CODES {
+        public static final int Q = 29;
+    }
+}
@@ -0,0 +1,38 @@
+package org.apache.cordova;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * The `<preference>` values of config.xml. Names are case-insensitive.
+ */
+public class CordovaPreferences {
+    private final HashMap<String, String> prefs = new HashMap<>();
+
+    public void set(String name, String value) {
+        prefs.put(name.toLowerCase(Locale.ENGLISH), value);
+    }
+
+    public void set(String name, boolean value) {
+        set(name, String.valueOf(value));
+    }
+
+    public void set(String name, int value) {
+        set(name, String.valueOf(value));
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String value = prefs.get(name.toLowerCase(Locale.ENGLISH));
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    public int getInteger(String name, int defaultValue) {
+        String value = prefs.get(name.toLowerCase(Locale.ENGLISH));
+        return value != null ? Integer.decode(value) : defaultValue;
+    }
+
+    public String getString(String name, String defaultValue) {
+        String value = prefs.get(name.toLowerCase(Locale.ENGLISH));
+        return value != null ? value : defaultValue;
+    }
+}
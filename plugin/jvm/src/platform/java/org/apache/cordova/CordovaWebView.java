@@ -0,0 +1,8 @@
+package org.apache.cordova;
+
+/**
+ * The part of the WebView the plugin bridge talks to: results on their way to JS.
+ */
+public interface CordovaWebView {
+    void sendPluginResult(PluginResult result, String callbackId);
+}
@@ -0,0 +1,55 @@
+package org.apache.cordova;
+
+/**
+ * Prints warnings and errors to stderr; the rest only with -Dakiles.verbose=true.
+ */
+public class LOG {
+    private static final boolean VERBOSE = Boolean.getBoolean("akiles.verbose");
+
+    public static void d(String tag, String s) {
+        print(false, tag, s, null);
+    }
+
+    public static void d(String tag, String s, Object... args) {
+        print(false, tag, String.format(s, args), null);
+    }
+
+    public static void i(String tag, String s) {
+        print(false, tag, s, null);
+    }
+
+    public static void i(String tag, String s, Throwable e) {
+        print(false, tag, s, e);
+    }
+
+    public static void i(String tag, String s, Object... args) {
+        print(false, tag, String.format(s, args), null);
+    }
+
+    public static void w(String tag, String s) {
+        print(true, tag, s, null);
+    }
+
+    public static void w(String tag, String s, Throwable e) {
+        print(true, tag, s, e);
+    }
+
+    public static void e(String tag, String s) {
+        print(true, tag, s, null);
+    }
+
+    public static void e(String tag, String s, Throwable e) {
+        print(true, tag, s, e);
+    }
+
+    public static void e(String tag, String s, Object... args) {
+        print(true, tag, String.format(s, args), null);
+    }
+
+    private static void print(boolean important, String tag, String s, Throwable e) {
+        if (!important && !VERBOSE) {
+            return;
+        }
+        System.err.println(tag + ": " + s + (e != null ? ": " + e : ""));
+    }
+}
@@ -0,0 +1,9 @@
+package app.akiles.sdk;
+
+public enum ActionBluetoothStatus {
+    SCANNING,
+    CONNECTING,
+    SYNCING_DEVICE,
+    SYNCING_SERVER,
+    EXECUTING_ACTION,
+}
@@ -0,0 +1,21 @@
+package app.akiles.sdk;
+
+public interface ActionCallback {
+    void onSuccess();
+
+    void onError(AkilesException e);
+
+    void onInternetStatus(ActionInternetStatus status);
+
+    void onInternetSuccess();
+
+    void onInternetError(AkilesException e);
+
+    void onBluetoothStatus(ActionBluetoothStatus status);
+
+    void onBluetoothStatusProgress(float percent);
+
+    void onBluetoothSuccess();
+
+    void onBluetoothError(AkilesException e);
+}
@@ -0,0 +1,7 @@
+package app.akiles.sdk;
+
+public enum ActionInternetStatus {
+    EXECUTING_ACTION,
+    ACQUIRING_LOCATION,
+    WAITING_FOR_LOCATION_IN_RADIUS,
+}
@@ -0,0 +1,8 @@
+package app.akiles.sdk;
+
+public class ActionOptions {
+    public boolean requestBluetoothPermission = true;
+    public boolean requestLocationPermission = true;
+    public boolean useInternet = true;
+    public boolean useBluetooth = true;
+}
@@ -0,0 +1,87 @@
+package app.akiles.sdk;
+
+import android.content.Context;
+
+/**
+ * The SDK entry point, with the signatures the plugin uses. Everything that
+ * would talk to a server or a radio throws: override it, as the load harness's
+ * scripted SDK does.
+ */
+public class Akiles {
+    public Akiles(Context context) {
+    }
+
+    public void setPermissionRequester(PermissionRequester requester) {
+    }
+
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+    }
+
+    public String getVersion() {
+        return "jvm";
+    }
+
+    public String getClientInfo() {
+        return "jvm";
+    }
+
+    public boolean isBluetoothSupported() {
+        return false;
+    }
+
+    public boolean isCardEmulationSupported() {
+        return false;
+    }
+
+    public String[] getSessionIDs() throws AkilesException {
+        throw unavailable();
+    }
+
+    public void addSession(String token, Callback<String> callback) {
+        throw unavailable();
+    }
+
+    public void removeSession(String sessionID) throws AkilesException {
+        throw unavailable();
+    }
+
+    public void removeAllSessions() throws AkilesException {
+        throw unavailable();
+    }
+
+    public void refreshSession(String sessionID, Callback<Void> callback) {
+        throw unavailable();
+    }
+
+    public void refreshAllSessions(Callback<Void> callback) {
+        throw unavailable();
+    }
+
+    public Gadget[] getGadgets(String sessionID) throws AkilesException {
+        throw unavailable();
+    }
+
+    public Hardware[] getHardwares(String sessionID) throws AkilesException {
+        throw unavailable();
+    }
+
+    public Cancel action(String sessionID, String gadgetID, String actionID, ActionOptions options, ActionCallback callback) {
+        throw unavailable();
+    }
+
+    public Cancel scan(ScanCallback callback) {
+        throw unavailable();
+    }
+
+    public Cancel sync(String sessionID, String hardwareID, SyncCallback callback) {
+        throw unavailable();
+    }
+
+    public Cancel scanCard(Callback<Card> callback) {
+        throw unavailable();
+    }
+
+    private static UnsupportedOperationException unavailable() {
+        return new UnsupportedOperationException("not available on the JVM");
+    }
+}
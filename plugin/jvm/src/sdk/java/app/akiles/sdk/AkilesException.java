@@ -0,0 +1,64 @@
+package app.akiles.sdk;
+
+public class AkilesException extends Exception {
+    public final ErrorCode code;
+
+    public AkilesException(ErrorCode code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    public static class Location {
+        public double lat;
+        public double lng;
+    }
+
+    public static class SiteGeo {
+        public Location location;
+        public double radius;
+    }
+
+    public static class LocationOutOfRadius extends AkilesException {
+        public SiteGeo siteGeo;
+        public double distance;
+
+        public LocationOutOfRadius(String message) {
+            super(ErrorCode.INTERNET_LOCATION_OUT_OF_RADIUS, message);
+        }
+    }
+
+    public static class PermissionDenied extends AkilesException {
+        public final PermissionDeniedReason reason;
+
+        public PermissionDenied(PermissionDeniedReason reason, String message) {
+            super(ErrorCode.PERMISSION_DENIED, message);
+            this.reason = reason;
+        }
+    }
+
+    public static class PermissionDeniedNotStarted extends PermissionDenied {
+        public String startsAt;
+
+        public PermissionDeniedNotStarted(String message) {
+            super(PermissionDeniedReason.MEMBER_NOT_STARTED, message);
+        }
+    }
+
+    public static class PermissionDeniedEnded extends PermissionDenied {
+        public String endsAt;
+
+        public PermissionDeniedEnded(String message) {
+            super(PermissionDeniedReason.MEMBER_ENDED, message);
+        }
+    }
+
+    public static class PermissionDeniedOutOfSchedule extends PermissionDenied {
+        public long waitTime;
+        public String timezone;
+        public Schedule schedule;
+
+        public PermissionDeniedOutOfSchedule(String message) {
+            super(PermissionDeniedReason.OUT_OF_SCHEDULE, message);
+        }
+    }
+}
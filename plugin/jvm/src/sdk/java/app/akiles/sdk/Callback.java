@@ -0,0 +1,7 @@
+package app.akiles.sdk;
+
+public interface Callback<T> {
+    void onSuccess(T result);
+
+    void onError(AkilesException e);
+}
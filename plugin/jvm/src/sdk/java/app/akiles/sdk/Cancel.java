@@ -0,0 +1,5 @@
+package app.akiles.sdk;
+
+public interface Cancel {
+    void cancel();
+}
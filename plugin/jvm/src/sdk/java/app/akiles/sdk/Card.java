@@ -0,0 +1,26 @@
+package app.akiles.sdk;
+
+public class Card {
+    private final byte[] uid;
+    private final boolean akilesCard;
+
+    public Card(byte[] uid, boolean akilesCard) {
+        this.uid = uid;
+        this.akilesCard = akilesCard;
+    }
+
+    public byte[] getUid() {
+        return uid;
+    }
+
+    public boolean isAkilesCard() {
+        return akilesCard;
+    }
+
+    public void update(Callback<Void> callback) {
+        callback.onSuccess(null);
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,24 @@
+package app.akiles.sdk;
+
+public enum ErrorCode {
+    INTERNAL,
+    INVALID_PARAM,
+    INVALID_SESSION,
+    PERMISSION_DENIED,
+    ALL_COMM_METHODS_FAILED,
+    INTERNET_NOT_AVAILABLE,
+    INTERNET_DEVICE_OFFLINE,
+    INTERNET_LOCATION_OUT_OF_RADIUS,
+    INTERNET_NOT_PERMITTED,
+    BLUETOOTH_DEVICE_NOT_FOUND,
+    BLUETOOTH_DISABLED,
+    BLUETOOTH_NOT_AVAILABLE,
+    BLUETOOTH_PERMISSION_NOT_GRANTED,
+    BLUETOOTH_PERMISSION_NOT_GRANTED_PERMANENTLY,
+    TIMEOUT,
+    CANCELED,
+    NFC_NOT_AVAILABLE,
+    NFC_READ_ERROR,
+    NFC_CARD_NOT_COMPATIBLE,
+    LOCATION_DISABLED,
+}
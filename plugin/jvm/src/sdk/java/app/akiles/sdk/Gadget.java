@@ -0,0 +1,7 @@
+package app.akiles.sdk;
+
+public class Gadget {
+    public String id;
+    public String name;
+    public GadgetAction[] actions;
+}
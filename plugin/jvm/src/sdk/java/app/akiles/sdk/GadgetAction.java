@@ -0,0 +1,6 @@
+package app.akiles.sdk;
+
+public class GadgetAction {
+    public String id;
+    public String name;
+}
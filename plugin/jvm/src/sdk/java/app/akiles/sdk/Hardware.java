@@ -0,0 +1,9 @@
+package app.akiles.sdk;
+
+public class Hardware {
+    public String id;
+    public String name;
+    public String productId;
+    public String revisionId;
+    public String[] sessions;
+}
@@ -0,0 +1,9 @@
+package app.akiles.sdk;
+
+public enum PermissionDeniedReason {
+    OTHER,
+    MEMBER_NOT_STARTED,
+    MEMBER_ENDED,
+    OUT_OF_SCHEDULE,
+    ORGANIZATION_DISABLED,
+}
@@ -0,0 +1,5 @@
+package app.akiles.sdk;
+
+public interface PermissionRequester {
+    boolean request(String[] permissions, int requestCode);
+}
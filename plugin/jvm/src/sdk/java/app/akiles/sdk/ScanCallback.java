@@ -0,0 +1,9 @@
+package app.akiles.sdk;
+
+public interface ScanCallback {
+    void onDiscover(Hardware hw);
+
+    void onSuccess();
+
+    void onError(AkilesException e);
+}
@@ -0,0 +1,16 @@
+package app.akiles.sdk;
+
+public class Schedule {
+    /** Monday first. */
+    public Weekday[] weekdays;
+
+    public static class Weekday {
+        public Range[] ranges;
+    }
+
+    public static class Range {
+        /** Seconds since midnight. */
+        public int start;
+        public int end;
+    }
+}
@@ -0,0 +1,11 @@
+package app.akiles.sdk;
+
+public interface SyncCallback {
+    void onStatus(SyncStatus status);
+
+    void onStatusProgress(float percent);
+
+    void onSuccess();
+
+    void onError(AkilesException e);
+}
@@ -0,0 +1,8 @@
+package app.akiles.sdk;
+
+public enum SyncStatus {
+    SCANNING,
+    CONNECTING,
+    SYNCING_DEVICE,
+    SYNCING_SERVER,
+}
@@ -0,0 +1,166 @@
+package app.akiles.cordova;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import app.akiles.sdk.ActionBluetoothStatus;
+import app.akiles.sdk.ActionCallback;
+import app.akiles.sdk.ActionOptions;
+import app.akiles.sdk.Akiles;
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Cancel;
+import app.akiles.sdk.ErrorCode;
+
+public class BatchActionTest {
+    private ScheduledExecutorService timer;
+    private Metrics metrics;
+    private RadioScheduler scheduler;
+    private List<ActionCallback> running;
+    private List<String> events;
+    private CountDownLatch done;
+    private AccessPolicy policy;
+    private Akiles ak;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        metrics = new Metrics();
+        scheduler = new RadioScheduler(1, 1, metrics);
+        running = Collections.synchronizedList(new ArrayList<>());
+        events = Collections.synchronizedList(new ArrayList<>());
+        done = new CountDownLatch(1);
+        policy = new AccessPolicy(metrics, AccessPolicy.DEFAULT_MAX_AGE);
+        ak = new Akiles(null) {
+            @Override
+            public Cancel action(String sessionID, String gadgetID, String actionID, ActionOptions options, ActionCallback callback) {
+                running.add(callback);
+                return () -> {
+                    callback.onBluetoothError(new AkilesException(ErrorCode.CANCELED, "canceled"));
+                    callback.onError(new AkilesException(ErrorCode.CANCELED, "canceled"));
+                };
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void bluetoothItemsTakeOneRadioSlotEach() throws Exception {
+        BatchAction batch = batch(4, false);
+        batch.start();
+
+        // Parallelism 4, but the radio admits one action at a time.
+        assertEquals(1, running.size());
+        for (int i = 0; i < 4; i++) {
+            ActionCallback callback = running.get(i);
+            callback.onInternetSuccess();
+            callback.onSuccess();
+            // The radio is held until the Bluetooth transport ends too.
+            assertEquals(i + 1, running.size());
+            callback.onBluetoothSuccess();
+            assertEquals(Math.min(i + 2, 4), running.size());
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void internetItemsDontWaitForTheRadio() throws Exception {
+        BatchAction batch = batch(4, true);
+        batch.start();
+        assertEquals(4, running.size());
+    }
+
+    @Test
+    public void cancelReportsQueuedItems() throws Exception {
+        BatchAction batch = batch(4, false);
+        batch.start();
+        batch.cancel();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, running.size());
+        String last = events.get(events.size() - 1);
+        assertEquals(4, last.split("\"success\":false").length - 1);
+    }
+
+    @Test
+    public void manyDeniedItemsDontGrowTheStack() throws Exception {
+        int n = 50000;
+        for (int i = 0; i < n; i++) {
+            AkilesException.PermissionDeniedEnded ended = new AkilesException.PermissionDeniedEnded("ended");
+            ended.endsAt = "2020-01-01T00:00:00Z";
+            policy.learn("s1", "g" + i, ended);
+        }
+        BatchAction batch = batch(n, false, 1);
+        batch.start();
+
+        // Every item is denied without reaching the SDK, all on this thread.
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, running.size());
+        String last = events.get(events.size() - 1);
+        assertEquals(n, last.split("\"success\":false").length - 1);
+    }
+
+    @Test
+    public void noEventsAfterDone() throws Exception {
+        BatchAction batch = batch(1, false);
+        batch.start();
+        ActionCallback callback = running.get(0);
+        callback.onInternetSuccess();
+        callback.onSuccess();
+        callback.onBluetoothSuccess();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        int sent = events.size();
+
+        // Late transport events of the item are dropped once the batch is done.
+        callback.onBluetoothStatus(ActionBluetoothStatus.SYNCING_DEVICE);
+        assertEquals(sent, events.size());
+        assertTrue(events.get(sent - 1).contains("\"done\""));
+    }
+
+    private BatchAction batch(int items, boolean internetOnly) throws Exception {
+        return batch(items, internetOnly, 4);
+    }
+
+    private BatchAction batch(int items, boolean internetOnly, int parallelism) throws Exception {
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < items; i++) {
+            JSONObject item = new JSONObject().put("sessionID", "s1").put("gadgetID", "g" + i).put("actionID", "open");
+            if (internetOnly) {
+                item.put("options", new JSONObject().put("useBluetooth", false));
+            }
+            list.put(item);
+        }
+        Context context = new Context(new File("."));
+        TransportHistory history = new TransportHistory(context.getSharedPreferences("history", Context.MODE_PRIVATE), timer);
+        CallbackContext callbackContext = new CallbackContext("cb", (result, callbackId) -> {
+            events.add(result.getMessage());
+            if (!result.getKeepCallback()) {
+                done.countDown();
+            }
+        });
+        return new BatchAction(ak, scheduler, metrics, history, policy,
+                callbackContext, list, new JSONObject().put("parallelism", parallelism), () -> {
+                });
+    }
+}
@@ -0,0 +1,100 @@
+package app.akiles.cordova;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import app.akiles.sdk.ErrorCode;
+
+public class CardProvisionerTest {
+    private FakeAkiles fake;
+    private Metrics metrics;
+    private OperationRegistry operations;
+    private List<String> events;
+    private CountDownLatch done;
+
+    @Before
+    public void setUp() {
+        fake = new FakeAkiles(new Context(new File(".")), 1, 1);
+        fake.scanCard.minLatency = 2;
+        fake.scanCard.maxLatency = 5;
+        fake.scanCard.failureRate = 0;
+        metrics = new Metrics();
+        operations = new OperationRegistry();
+        events = Collections.synchronizedList(new ArrayList<>());
+        done = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        fake.shutdown();
+    }
+
+    @Test
+    public void cardLeftOnTheReaderIsWrittenOnce() throws Exception {
+        fake.cardOnReader = new byte[] {1, 2, 3, 4, 5, 6, 7};
+        CardProvisioner provisioner = provisioner(0, 100);
+        provisioner.start();
+
+        // Many times the repeat delay, with the card re-read all along.
+        Thread.sleep(600);
+        provisioner.cancel();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, fake.cardUpdates());
+        JSONObject last = new JSONObject(events.get(events.size() - 1));
+        assertEquals("success", last.getString("type"));
+        assertEquals(1, last.getInt("provisioned"));
+        assertEquals(0, operations.size());
+    }
+
+    @Test
+    public void differentCardsAreEachWritten() throws Exception {
+        CardProvisioner provisioner = provisioner(3, 100);
+        provisioner.start();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, fake.cardUpdates());
+        JSONObject last = new JSONObject(events.get(events.size() - 1));
+        assertEquals(3, last.getInt("provisioned"));
+    }
+
+    @Test
+    public void readErrorsDontEndTheMode() throws Exception {
+        fake.scanCard.failureRate = 0.5;
+        fake.scanCard.failure = ErrorCode.NFC_READ_ERROR;
+        CardProvisioner provisioner = provisioner(3, 100);
+        provisioner.start();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        JSONObject last = new JSONObject(events.get(events.size() - 1));
+        assertEquals("success", last.getString("type"));
+        assertEquals(3, last.getInt("provisioned"));
+    }
+
+    private CardProvisioner provisioner(int maxCards, long repeatDelay) {
+        CallbackContext callbackContext = new CallbackContext("cb", (result, callbackId) -> {
+            events.add(result.getMessage());
+            if (!result.getKeepCallback()) {
+                done.countDown();
+            }
+        });
+        operations.start("op", "provision_cards");
+        return new CardProvisioner(fake, new RadioScheduler(1, 1, metrics), metrics, operations,
+                "op", callbackContext, maxCards, repeatDelay);
+    }
+}
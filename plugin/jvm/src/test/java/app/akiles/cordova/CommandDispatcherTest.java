@@ -0,0 +1,194 @@
+package app.akiles.cordova;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CommandDispatcherTest {
+    private static final long TIMEOUT = 5;
+
+    private CommandDispatcher dispatcher;
+    private List<String> order;
+
+    @Before
+    public void setUp() {
+        dispatcher = new CommandDispatcher(4);
+        order = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void slowCommandsDoNotBlockTheCaller() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(3);
+        long start = System.nanoTime();
+        dispatcher.read("s1", blocking(started, release, "read"));
+        dispatcher.mutate("s2", blocking(started, release, "mutate"));
+        dispatcher.mutateAll(blocking(started, release, "mutateAll"));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // The bridge thread is back right away while the commands are still blocked.
+        assertTrue("dispatch took " + elapsed + "ms", elapsed < 100);
+        assertEquals(Collections.emptyList(), order);
+        release.countDown();
+        assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void readsRunInParallel() throws Exception {
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(2);
+        for (String session : new String[] {"s1", "s1"}) {
+            dispatcher.read(session, () -> {
+                bothRunning.countDown();
+                await(bothRunning);
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void mutationWaitsForEarlierRead() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.read("s1", blocking(null, release, "getGadgets"));
+        dispatcher.mutate("s1", record("removeSession", done));
+
+        Thread.sleep(100);
+        assertEquals(Collections.emptyList(), order);
+        release.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("getGadgets", "removeSession"), order);
+    }
+
+    @Test
+    public void mutationDoesNotWaitForReadsOfOtherSessions() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.read("s1", blocking(null, release, "getGadgets"));
+        dispatcher.mutate("s2", record("removeSession", done));
+
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void mutationWaitsForEarlierUnboundRead() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.read(null, blocking(null, release, "getSessionIDs"));
+        dispatcher.mutate("s1", record("removeSession", done));
+
+        Thread.sleep(100);
+        assertEquals(Collections.emptyList(), order);
+        release.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("getSessionIDs", "removeSession"), order);
+    }
+
+    @Test
+    public void barrierWaitsForEarlierReads() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.read("s1", blocking(null, release, "getGadgets"));
+        dispatcher.read("s2", blocking(null, release, "getHardwares"));
+        dispatcher.mutateAll(record("removeAllSessions", done));
+
+        Thread.sleep(100);
+        assertEquals(Collections.emptyList(), order);
+        release.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(3, order.size());
+        assertEquals("removeAllSessions", order.get(2));
+    }
+
+    @Test
+    public void readWaitsForEarlierMutation() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        dispatcher.mutate("s1", blocking(null, release, "refreshSession"));
+        dispatcher.read("s1", record("getGadgets", done));
+        dispatcher.read(null, record("getSessionIDs", done));
+
+        Thread.sleep(100);
+        assertEquals(Collections.emptyList(), order);
+        release.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals("refreshSession", order.get(0));
+        assertEquals(3, order.size());
+    }
+
+    @Test
+    public void everythingAfterBarrierWaitsForIt() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        dispatcher.mutateAll(blocking(null, release, "addSession"));
+        dispatcher.read("s1", record("getGadgets", done));
+        dispatcher.mutate("s2", record("removeSession", done));
+
+        Thread.sleep(100);
+        assertEquals(Collections.emptyList(), order);
+        release.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("addSession", "getGadgets", "removeSession"), order);
+    }
+
+    @Test
+    public void mutationsOfSessionRunInOrder() throws Exception {
+        int n = 200;
+        CountDownLatch done = new CountDownLatch(n);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String name = "m" + i;
+            expected.add(name);
+            dispatcher.mutate("s1", record(name, done));
+            // Interleaved reads of the session must not reorder the mutations.
+            dispatcher.read("s1", done::getCount);
+        }
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(expected, order);
+    }
+
+    private Runnable record(String name, CountDownLatch done) {
+        return () -> {
+            order.add(name);
+            done.countDown();
+        };
+    }
+
+    private Runnable blocking(CountDownLatch started, CountDownLatch release, String name) {
+        return () -> {
+            if (started != null) {
+                started.countDown();
+            }
+            await(release);
+            order.add(name);
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(TIMEOUT, TimeUnit.SECONDS)) {
+                throw new AssertionError("timed out");
+            }
+        } catch (InterruptedException e) {
+            // Interrupted by shutdown() after the test is over.
+            Thread.currentThread().interrupt();
+        }
+    }
+}
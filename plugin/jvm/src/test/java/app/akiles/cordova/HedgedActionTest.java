@@ -0,0 +1,155 @@
+package app.akiles.cordova;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import app.akiles.sdk.ActionCallback;
+import app.akiles.sdk.ActionOptions;
+import app.akiles.sdk.Akiles;
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Cancel;
+import app.akiles.sdk.ErrorCode;
+
+public class HedgedActionTest {
+    private ScheduledExecutorService timer;
+    private Metrics metrics;
+    private RadioScheduler scheduler;
+    private List<ActionOptions> legs;
+    private List<ActionCallback> running;
+    private List<String> events;
+    private CountDownLatch done;
+    private Akiles ak;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        metrics = new Metrics();
+        scheduler = new RadioScheduler(1, 1, metrics);
+        legs = Collections.synchronizedList(new ArrayList<>());
+        running = Collections.synchronizedList(new ArrayList<>());
+        events = Collections.synchronizedList(new ArrayList<>());
+        done = new CountDownLatch(1);
+        ak = new Akiles(null) {
+            @Override
+            public Cancel action(String sessionID, String gadgetID, String actionID, ActionOptions options, ActionCallback callback) {
+                legs.add(options);
+                running.add(callback);
+                return () -> {
+                    if (options.useBluetooth) {
+                        callback.onBluetoothError(new AkilesException(ErrorCode.CANCELED, "canceled"));
+                    } else {
+                        callback.onInternetError(new AkilesException(ErrorCode.CANCELED, "canceled"));
+                    }
+                    callback.onError(new AkilesException(ErrorCode.CANCELED, "canceled"));
+                };
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void internetFirstLeavesTheRadioFree() throws Exception {
+        hedged("internet_first").start();
+        assertEquals(1, legs.size());
+        assertTrue(legs.get(0).useInternet);
+
+        // A scan gets the radio while the internet leg runs.
+        assertTrue(radioFree());
+
+        ActionCallback internet = running.get(0);
+        internet.onInternetSuccess();
+        internet.onSuccess();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, legs.size());
+    }
+
+    @Test
+    public void bluetoothLegWaitsForTheRadio() throws Exception {
+        RadioScheduler.Task sync = scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_USER_SYNC, false);
+        sync.submit(attempt -> () -> {
+        }, () -> {
+        });
+        hedged("bluetooth_first").start();
+        assertEquals(0, legs.size());
+
+        sync.finish();
+        assertEquals(1, legs.size());
+        assertTrue(legs.get(0).useBluetooth);
+
+        // The slot is held until the Bluetooth transport ends, after the global success.
+        ActionCallback bluetooth = running.get(0);
+        bluetooth.onSuccess();
+        assertFalse(radioFree());
+        bluetooth.onBluetoothSuccess();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(radioFree());
+    }
+
+    @Test
+    public void cancelWhileWaitingForTheRadio() throws Exception {
+        RadioScheduler.Task sync = scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_USER_SYNC, false);
+        sync.submit(attempt -> () -> {
+        }, () -> {
+        });
+        HedgedAction hedged = hedged("bluetooth_first");
+        hedged.start();
+        hedged.cancel();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, legs.size());
+        assertTrue(String.join("\n", events).contains("CANCELED"));
+    }
+
+    /**
+     * Whether a scan submitted now starts right away. It's canceled either way.
+     */
+    private boolean radioFree() {
+        AtomicBoolean started = new AtomicBoolean();
+        RadioScheduler.Task scan = scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_SCAN, true);
+        scan.submit(attempt -> {
+            started.set(true);
+            return scan::finish;
+        }, () -> {
+        });
+        scan.cancel();
+        return started.get();
+    }
+
+    private HedgedAction hedged(String mode) throws Exception {
+        Context context = new Context(new File("."));
+        TransportHistory history = new TransportHistory(context.getSharedPreferences("history", Context.MODE_PRIVATE), timer);
+        CallbackContext callbackContext = new CallbackContext("cb", (result, callbackId) -> {
+            events.add(result.getMessage());
+            if (!result.getKeepCallback()) {
+                done.countDown();
+            }
+        });
+        return new HedgedAction(ak, scheduler, metrics, history, new AccessPolicy(metrics, AccessPolicy.DEFAULT_MAX_AGE), timer,
+                callbackContext, "s1", "g1", "open", new ActionOptions(), null,
+                new JSONObject().put("mode", mode).put("delay", 60000), () -> {
+                });
+    }
+}
@@ -0,0 +1,66 @@
+package app.akiles.cordova;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class ProgressThrottleTest {
+    private static ProgressThrottle throttle(long interval, double delta) {
+        return ProgressThrottle.fromOptions(new JSONObject().put("progressInterval", interval).put("progressMinDelta", delta));
+    }
+
+    @Test
+    public void noOptionsNoThrottle() {
+        assertNull(ProgressThrottle.fromOptions(null));
+        assertNull(ProgressThrottle.fromOptions(new JSONObject()));
+    }
+
+    @Test
+    public void dropsTicksWithinDelta() {
+        ProgressThrottle p = throttle(0, 10);
+        assertTrue(p.accept(1));
+        assertFalse(p.accept(5));
+        assertTrue(p.accept(11));
+        assertTrue(p.accept(100));
+        assertFalse(p.accept(100));
+    }
+
+    @Test
+    public void dropsTicksWithinInterval() {
+        ProgressThrottle p = throttle(60000, 0);
+        assertTrue(p.accept(1));
+        assertFalse(p.accept(50));
+        assertTrue(p.accept(100));
+    }
+
+    @Test
+    public void completeLetsTheFinalTickThrough() {
+        ProgressThrottle p = throttle(0, 50);
+        assertTrue(p.accept(10));
+        assertFalse(p.accept(40));
+        // The caller sends the missing 100% through its progress callback.
+        assertTrue(p.complete());
+        assertTrue(p.accept(100));
+        assertFalse(p.complete());
+    }
+
+    @Test
+    public void completeAfterFinalTick() {
+        ProgressThrottle p = throttle(0, 50);
+        assertFalse(p.complete());
+        assertTrue(p.accept(10));
+        assertTrue(p.accept(100));
+        assertFalse(p.complete());
+    }
+
+    @Test
+    public void resetStartsNewPhase() {
+        ProgressThrottle p = throttle(60000, 0);
+        assertTrue(p.accept(30));
+        p.reset();
+        assertTrue(p.accept(5));
+    }
+}
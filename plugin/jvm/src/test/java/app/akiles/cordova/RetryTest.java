@@ -0,0 +1,123 @@
+package app.akiles.cordova;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import app.akiles.sdk.Akiles;
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Cancel;
+import app.akiles.sdk.ErrorCode;
+import app.akiles.sdk.SyncCallback;
+import app.akiles.sdk.SyncStatus;
+
+public class RetryTest {
+    private ScheduledExecutorService timer;
+    private List<SyncCallback> syncs;
+    private List<Integer> retries;
+    private Akiles ak;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        syncs = Collections.synchronizedList(new ArrayList<>());
+        retries = Collections.synchronizedList(new ArrayList<>());
+        ak = new Akiles(null) {
+            @Override
+            public Cancel sync(String sessionID, String hardwareID, SyncCallback callback) {
+                syncs.add(callback);
+                return () -> callback.onError(new AkilesException(ErrorCode.CANCELED, "canceled"));
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void preemptedAttemptIsNotCounted() throws Exception {
+        Retry retry = retry(2);
+        Recorder first = new Recorder();
+        Retry.Handle run = retry.sync(ak, "s1", "hw1", first);
+        run.preempt();
+        assertEquals(0, retry.attempts());
+        assertEquals(0, first.errors.size());
+
+        // The scheduler starts the sync over: both attempts are still available.
+        Recorder second = new Recorder();
+        retry.sync(ak, "s1", "hw1", second);
+        syncs.get(1).onError(new AkilesException(ErrorCode.BLUETOOTH_DEVICE_NOT_FOUND, "not found"));
+        waitForSyncs(3);
+        syncs.get(2).onError(new AkilesException(ErrorCode.BLUETOOTH_DEVICE_NOT_FOUND, "not found"));
+
+        assertTrue(second.done.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(2), retries);
+        assertEquals(2, retry.attempts());
+        assertEquals(0, first.errors.size());
+    }
+
+    @Test
+    public void canceledAttemptIsDelivered() throws Exception {
+        Retry retry = retry(3);
+        Recorder recorder = new Recorder();
+        retry.sync(ak, "s1", "hw1", recorder).cancel();
+
+        assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+        assertEquals(ErrorCode.CANCELED, recorder.errors.get(0).code);
+        assertEquals(1, retry.attempts());
+    }
+
+    private Retry retry(int maxAttempts) throws Exception {
+        JSONObject options = new JSONObject().put("retry", new JSONObject()
+                .put("maxAttempts", maxAttempts)
+                .put("initialDelay", 0)
+                .put("jitter", 0));
+        return Retry.fromOptions(options, timer, new Metrics(), (attempt, ex, delayMs) -> retries.add(attempt));
+    }
+
+    private void waitForSyncs(int n) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (syncs.size() < n && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(n, syncs.size());
+    }
+
+    private static class Recorder implements SyncCallback {
+        final List<AkilesException> errors = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public void onStatus(SyncStatus status) {
+        }
+
+        @Override
+        public void onStatusProgress(float percent) {
+        }
+
+        @Override
+        public void onSuccess() {
+            done.countDown();
+        }
+
+        @Override
+        public void onError(AkilesException e) {
+            errors.add(e);
+            done.countDown();
+        }
+    }
+}
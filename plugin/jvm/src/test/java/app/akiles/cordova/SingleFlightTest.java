@@ -0,0 +1,47 @@
+package app.akiles.cordova;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.cordova.CallbackContext;
+import org.junit.Test;
+
+public class SingleFlightTest {
+    private final SingleFlight flights = new SingleFlight();
+
+    @Test
+    public void callersJoinTheCallInFlight() {
+        CallbackContext a = new CallbackContext("a", null);
+        CallbackContext b = new CallbackContext("b", null);
+        assertTrue(flights.join("refresh:s1", a));
+        assertFalse(flights.join("refresh:s1", b));
+        assertEquals(2, flights.complete("refresh:s1", true).size());
+        assertTrue(flights.join("refresh:s1", a));
+    }
+
+    @Test
+    public void successIsFreshForMaxAge() {
+        flights.join("refresh:all", new CallbackContext("a", null));
+        flights.complete("refresh:all", true);
+        assertTrue(flights.isFresh(60000, "refresh:s1", "refresh:all"));
+        assertFalse(flights.isFresh(0, "refresh:all"));
+
+        flights.forget("refresh:all");
+        assertFalse(flights.isFresh(60000, "refresh:s1", "refresh:all"));
+    }
+
+    @Test
+    public void failureIsNotFresh() {
+        flights.join("refresh:s1", new CallbackContext("a", null));
+        flights.complete("refresh:s1", false);
+        assertFalse(flights.isFresh(60000, "refresh:s1"));
+    }
+
+    @Test
+    public void unrecordedCallLeavesNothingBehind() {
+        flights.join("add:token", new CallbackContext("a", null));
+        assertEquals(1, flights.complete("add:token").size());
+        assertFalse(flights.isFresh(60000, "add:token"));
+    }
+}
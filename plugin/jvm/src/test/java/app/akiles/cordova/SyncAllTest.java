@@ -0,0 +1,111 @@
+package app.akiles.cordova;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import app.akiles.sdk.Akiles;
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Cancel;
+import app.akiles.sdk.ErrorCode;
+import app.akiles.sdk.Hardware;
+import app.akiles.sdk.SyncCallback;
+
+public class SyncAllTest {
+    private ScheduledExecutorService timer;
+    private Metrics metrics;
+    private RadioScheduler scheduler;
+    private List<SyncCallback> running;
+    private List<Boolean> startedLocked;
+    private List<String> events;
+    private CountDownLatch done;
+    private SyncAll syncAll;
+    private Akiles ak;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        metrics = new Metrics();
+        scheduler = new RadioScheduler(2, 1, metrics);
+        running = Collections.synchronizedList(new ArrayList<>());
+        startedLocked = Collections.synchronizedList(new ArrayList<>());
+        events = Collections.synchronizedList(new ArrayList<>());
+        done = new CountDownLatch(1);
+        ak = new Akiles(null) {
+            @Override
+            public Cancel sync(String sessionID, String hardwareID, SyncCallback callback) {
+                startedLocked.add(Thread.holdsLock(syncAll));
+                running.add(callback);
+                return () -> callback.onError(new AkilesException(ErrorCode.CANCELED, "canceled"));
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void devicesStartOutsideTheLock() throws Exception {
+        syncAll = syncAll(3);
+        syncAll.start();
+        assertEquals(2, running.size());
+
+        // The third device starts from the completion of the first.
+        running.get(0).onSuccess();
+        assertEquals(3, running.size());
+        assertEquals(Collections.nCopies(3, false), startedLocked);
+
+        running.get(1).onSuccess();
+        running.get(2).onSuccess();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        JSONObject last = new JSONObject(events.get(events.size() - 1));
+        assertEquals(3, last.getJSONArray("succeeded").length());
+    }
+
+    @Test
+    public void cancelLeavesUnfinishedDevicesPending() throws Exception {
+        syncAll = syncAll(3);
+        syncAll.start();
+        running.get(0).onSuccess();
+        syncAll.cancel();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        JSONObject last = new JSONObject(events.get(events.size() - 1));
+        assertEquals(1, last.getJSONArray("succeeded").length());
+        assertEquals(2, last.getJSONArray("pending").length());
+        assertFalse(startedLocked.contains(true));
+    }
+
+    private SyncAll syncAll(int devices) throws Exception {
+        Hardware[] hardwares = new Hardware[devices];
+        for (int i = 0; i < devices; i++) {
+            hardwares[i] = new Hardware();
+            hardwares[i].id = "hw" + i;
+        }
+        CallbackContext callbackContext = new CallbackContext("cb", (result, callbackId) -> {
+            events.add(result.getMessage());
+            if (!result.getKeepCallback()) {
+                done.countDown();
+            }
+        });
+        return new SyncAll(ak, scheduler, metrics, timer, callbackContext, "s1", hardwares,
+                new JSONObject().put("parallelism", 2), () -> {
+                });
+    }
+}
@@ -0,0 +1,72 @@
+package app.akiles.cordova;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.ErrorCode;
+
+public class TransportHistoryTest {
+    private static final String PREFS = "akiles_transport_history";
+
+    private Context context;
+    private ScheduledExecutorService timer;
+
+    @Before
+    public void setUp() {
+        context = new Context(new File("."));
+        timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void recordsAreWrittenTogetherOnFlush() {
+        TransportHistory history = new TransportHistory(context.getSharedPreferences(PREFS, Context.MODE_PRIVATE), timer);
+        long started = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            history.record("gad_" + (i % 3), TransportHistory.BLUETOOTH, started, null);
+        }
+        assertEquals(0, context.preferenceWrites(PREFS));
+        history.flush();
+        assertEquals(1, context.preferenceWrites(PREFS));
+        history.flush();
+        assertEquals(1, context.preferenceWrites(PREFS));
+    }
+
+    @Test
+    public void flushedHistoryIsReadBack() {
+        TransportHistory history = new TransportHistory(context.getSharedPreferences(PREFS, Context.MODE_PRIVATE), timer);
+        long started = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            history.record("gad_1", TransportHistory.INTERNET, started, null);
+            history.record("gad_1", TransportHistory.BLUETOOTH, started, new AkilesException(ErrorCode.BLUETOOTH_DEVICE_NOT_FOUND, "not found"));
+        }
+        history.flush();
+        assertNotNull(context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).getString("gad_1", null));
+
+        TransportHistory reloaded = new TransportHistory(context.getSharedPreferences(PREFS, Context.MODE_PRIVATE), timer);
+        assertEquals("internet_first", reloaded.choose("gad_1", 1000).mode);
+    }
+
+    @Test
+    public void phoneErrorsAreNotRecorded() {
+        TransportHistory history = new TransportHistory(context.getSharedPreferences(PREFS, Context.MODE_PRIVATE), timer);
+        history.record("gad_1", TransportHistory.BLUETOOTH, System.nanoTime(), new AkilesException(ErrorCode.BLUETOOTH_DISABLED, "off"));
+        history.flush();
+        assertEquals(0, context.preferenceWrites(PREFS));
+    }
+}
@@ -0,0 +1,250 @@
+package app.akiles.cordova;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Schedule;
+
+/**
+ * Remembers why actions were denied, so later actions that would be denied
+ * again fail right away instead of after a Bluetooth connect or a server round
+ * trip.
+ *
+ * Learned from `PERMISSION_DENIED` errors, per session and gadget:
+ * - `MEMBER_NOT_STARTED`: denied until `startsAt`.
+ * - `MEMBER_ENDED`: denied from `endsAt` on.
+ * - `OUT_OF_SCHEDULE`: denied outside the schedule, evaluated in its timezone.
+ *   The schedule is kept as one sorted `[start, end, start, end, ...]` table
+ *   of seconds since midnight per weekday, Monday first.
+ *
+ * The rejection carries the same error as the one it was learned from, with
+ * `waitTime` recomputed. Entries are dropped after `maxAge`, when an action on
+ * the gadget succeeds, and when the session is refreshed or removed, since the
+ * organization may have changed the member in the meantime.
+ */
+class AccessPolicy {
+    static final long DEFAULT_MAX_AGE = 10 * 60 * 1000;
+
+    private static final int NOT_STARTED = 0;
+    private static final int ENDED = 1;
+    private static final int OUT_OF_SCHEDULE = 2;
+
+    private static final class Rule {
+        final int kind;
+        final long learnedNanos;
+        // NOT_STARTED, ENDED: the boundary, in milliseconds since the epoch.
+        long at;
+        // OUT_OF_SCHEDULE
+        TimeZone timezone;
+        int[][] ranges;
+        // The error, whole or up to and after `waitTime`.
+        String error;
+        String errorSuffix;
+
+        Rule(int kind) {
+            this.kind = kind;
+            this.learnedNanos = System.nanoTime();
+        }
+    }
+
+    private final Metrics metrics;
+    private final long maxAge;
+    private final ConcurrentHashMap<String, Rule> rules = new ConcurrentHashMap<>();
+
+    AccessPolicy(Metrics metrics, long maxAge) {
+        this.metrics = metrics;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Learn from the outcome of an action: `ex` is the error, or null if it succeeded.
+     */
+    void learn(String sessionID, String gadgetID, AkilesException ex) {
+        String key = key(sessionID, gadgetID);
+        if (ex == null) {
+            rules.remove(key);
+            return;
+        }
+        Rule rule = null;
+        if (ex instanceof AkilesException.PermissionDeniedNotStarted) {
+            long at = parseTime(((AkilesException.PermissionDeniedNotStarted) ex).startsAt);
+            if (at > 0) {
+                rule = new Rule(NOT_STARTED);
+                rule.at = at;
+                rule.error = EventEncoder.errorJson(ex);
+            }
+        } else if (ex instanceof AkilesException.PermissionDeniedEnded) {
+            long at = parseTime(((AkilesException.PermissionDeniedEnded) ex).endsAt);
+            if (at > 0) {
+                rule = new Rule(ENDED);
+                rule.at = at;
+                rule.error = EventEncoder.errorJson(ex);
+            }
+        } else if (ex instanceof AkilesException.PermissionDeniedOutOfSchedule) {
+            rule = scheduleRule((AkilesException.PermissionDeniedOutOfSchedule) ex);
+        }
+        if (rule != null) {
+            rules.put(key, rule);
+            metrics.count("policy.learned");
+        }
+    }
+
+    /**
+     * Returns the error an action on the gadget would fail with right now, or null
+     * if it isn't known to be denied.
+     */
+    String check(String sessionID, String gadgetID) {
+        String key = key(sessionID, gadgetID);
+        Rule rule = rules.get(key);
+        if (rule == null) {
+            return null;
+        }
+        if (System.nanoTime() - rule.learnedNanos > maxAge * 1000000L) {
+            rules.remove(key, rule);
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        String error = null;
+        switch (rule.kind) {
+            case NOT_STARTED:
+                error = now < rule.at ? rule.error : null;
+                break;
+            case ENDED:
+                error = now >= rule.at ? rule.error : null;
+                break;
+            case OUT_OF_SCHEDULE:
+                long wait = waitTime(rule.timezone, rule.ranges, now);
+                if (wait != 0) {
+                    // -1: the schedule never allows it.
+                    error = rule.error + (wait > 0 ? wait : 0) + rule.errorSuffix;
+                }
+                break;
+        }
+        if (error == null) {
+            // Allowed again; let the SDK have the final word.
+            rules.remove(key, rule);
+            return null;
+        }
+        metrics.count("policy.denied");
+        return error;
+    }
+
+    void forget(String sessionID) {
+        String prefix = sessionID + "/";
+        for (String key : rules.keySet()) {
+            if (key.startsWith(prefix)) {
+                rules.remove(key);
+            }
+        }
+    }
+
+    void clear() {
+        rules.clear();
+    }
+
+    private static Rule scheduleRule(AkilesException.PermissionDeniedOutOfSchedule ex) {
+        if (ex.schedule == null || ex.schedule.weekdays == null || ex.schedule.weekdays.length != 7 || ex.timezone == null) {
+            return null;
+        }
+        TimeZone tz = TimeZone.getTimeZone(ex.timezone);
+        if (!tz.getID().equals(ex.timezone)) {
+            // Unknown timezone: getTimeZone fell back to GMT.
+            return null;
+        }
+        int[][] ranges = new int[7][];
+        for (int d = 0; d < 7; d++) {
+            Schedule.Weekday weekday = ex.schedule.weekdays[d];
+            Schedule.Range[] rs = weekday != null && weekday.ranges != null ? weekday.ranges : new Schedule.Range[0];
+            Schedule.Range[] sorted = Arrays.copyOf(rs, rs.length);
+            Arrays.sort(sorted, (a, b) -> Integer.compare(a.start, b.start));
+            int[] table = new int[sorted.length * 2];
+            for (int i = 0; i < sorted.length; i++) {
+                table[i * 2] = sorted[i].start;
+                table[i * 2 + 1] = sorted[i].end;
+            }
+            ranges[d] = table;
+        }
+
+        // Same shape as EventEncoder.errorJson, with room for the current waitTime.
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"code\":");
+        EventEncoder.string(sb, ex.code.toString());
+        sb.append(",\"description\":");
+        EventEncoder.string(sb, ex.getMessage());
+        sb.append(",\"reason\":");
+        EventEncoder.string(sb, ex.reason.toString());
+        sb.append(",\"waitTime\":");
+        String prefix = sb.toString();
+        sb.setLength(0);
+        sb.append(",\"timezone\":");
+        EventEncoder.string(sb, ex.timezone);
+        sb.append(",\"schedule\":");
+        EventEncoder.schedule(sb, ex.schedule);
+        sb.append('}');
+
+        Rule rule = new Rule(OUT_OF_SCHEDULE);
+        rule.timezone = tz;
+        rule.ranges = ranges;
+        rule.error = prefix;
+        rule.errorSuffix = sb.toString();
+        return rule;
+    }
+
+    /**
+     * Seconds until the schedule allows access: 0 if it does now, -1 if it never does.
+     */
+    static long waitTime(TimeZone tz, int[][] ranges, long nowMillis) {
+        Calendar now = Calendar.getInstance(tz, Locale.US);
+        now.setTimeInMillis(nowMillis);
+        // Calendar weeks start on Sunday (1); the schedule's on Monday (0).
+        int today = (now.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+        int sec = now.get(Calendar.HOUR_OF_DAY) * 3600 + now.get(Calendar.MINUTE) * 60 + now.get(Calendar.SECOND);
+        for (int d = 0; d <= 7; d++) {
+            int[] table = ranges[(today + d) % 7];
+            for (int i = 0; i < table.length; i += 2) {
+                if (d == 0 && sec >= table[i] && sec < table[i + 1]) {
+                    return 0;
+                }
+                if (d > 0 || table[i] > sec) {
+                    Calendar start = (Calendar) now.clone();
+                    start.add(Calendar.DAY_OF_MONTH, d);
+                    start.set(Calendar.HOUR_OF_DAY, 0);
+                    start.set(Calendar.MINUTE, 0);
+                    start.set(Calendar.SECOND, 0);
+                    start.set(Calendar.MILLISECOND, 0);
+                    start.add(Calendar.SECOND, table[i]);
+                    return (start.getTimeInMillis() - nowMillis + 999) / 1000;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse an RFC3339 timestamp into milliseconds since the epoch, or 0 if it can't be.
+     */
+    static long parseTime(String s) {
+        if (s == null) {
+            return 0;
+        }
+        // SimpleDateFormat can't take more than millisecond precision, and the
+        // boundary doesn't need it: drop the fraction.
+        String t = s.replaceFirst("\\.\\d+", "");
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.US);
+        try {
+            return format.parse(t).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    private static String key(String sessionID, String gadgetID) {
+        return sessionID + "/" + gadgetID;
+    }
+}
@@ -0,0 +1,51 @@
+package app.akiles.cordova;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks when an action is complete: the global result plus the result of every
+ * transport that was enabled. SDK callbacks may arrive on different threads, so
+ * the state is a single atomic bitmask and `done()` returns true exactly once,
+ * to the caller that must release the callback.
+ */
+class ActionCompletion {
+    static final int GLOBAL = 0;
+    static final int INTERNET = 1;
+    static final int BLUETOOTH = 2;
+
+    private static final int RELEASED = 1 << 3;
+
+    private final int expected;
+    private final AtomicInteger state = new AtomicInteger();
+
+    ActionCompletion(boolean useInternet, boolean useBluetooth) {
+        int mask = 1 << GLOBAL;
+        if (useInternet) {
+            mask |= 1 << INTERNET;
+        }
+        if (useBluetooth) {
+            mask |= 1 << BLUETOOTH;
+        }
+        this.expected = mask;
+    }
+
+    /**
+     * Mark a part as done. Returns true if this call completed the action.
+     */
+    boolean done(int part) {
+        int bit = 1 << part;
+        while (true) {
+            int s = state.get();
+            if ((s & RELEASED) != 0) {
+                return false;
+            }
+            int n = s | bit;
+            if ((n & expected) == expected) {
+                n |= RELEASED;
+            }
+            if (state.compareAndSet(s, n)) {
+                return (n & RELEASED) != 0;
+            }
+        }
+    }
+}
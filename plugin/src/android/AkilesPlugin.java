@@ -1,9 +1,10 @@
 package app.akiles.cordova;
 
 import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
 import android.nfc.NfcAdapter;
 import android.os.Build;
-import android.util.Log;
 
 import androidx.annotation.NonNull;
 
@@ -18,34 +19,304 @@ import org.json.JSONObject;
 
 import app.akiles.sdk.Akiles;
 import app.akiles.sdk.AkilesException;
-import app.akiles.sdk.Cancel;
+import app.akiles.sdk.ErrorCode;
 import app.akiles.sdk.Gadget;
 import app.akiles.sdk.Hardware;
 import app.akiles.sdk.Card;
 import app.akiles.sdk.ActionOptions;
-import app.akiles.sdk.Schedule;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class AkilesPlugin extends CordovaPlugin {
     private static final String TAG = "AkilesPlugin";
+    private static final int DISPATCH_THREADS = 3;
+    // Long-running commands that take their opId as the first argument and send events.
+    private static final HashSet<String> ROUTED_ACTIONS = new HashSet<>(Arrays.asList(
+            "action", "batch_action", "scan", "sync", "sync_all", "scan_card", "provision_cards", "subscribe_catalog"));
 
-    private Akiles ak;
-    private Card card;
-    private final ConcurrentHashMap<String, Cancel> cancelTokens = new ConcurrentHashMap<>();
+    private volatile Akiles ak;
+    private final CardRegistry cards = new CardRegistry();
+    private final OperationRegistry operations = new OperationRegistry();
+    private final Metrics metrics = new Metrics();
+    private final AccessPolicy policy = new AccessPolicy(metrics, AccessPolicy.DEFAULT_MAX_AGE);
+    private final CommandDispatcher dispatcher = new CommandDispatcher(DISPATCH_THREADS);
+    private final CatalogCache catalogCache = new CatalogCache();
+    private final SingleFlight flights = new SingleFlight();
+    // Cache generation each session's snapshot was last saved at.
+    private final ConcurrentHashMap<String, Long> snapshotGenerations = new ConcurrentHashMap<>();
+    private CatalogSnapshot snapshot;
+    private final CatalogWatcher catalogWatcher = new CatalogWatcher();
+    private EventChannel events;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "akiles-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private Prewarm prewarm;
+    private NearbyIndex nearby;
+    private TransportHistory history;
+    private RadioScheduler scheduler;
+
+    private static final class PendingCommand {
+        final String action;
+        final CordovaArgs args;
+        final CallbackContext callbackContext;
+
+        PendingCommand(String action, CordovaArgs args, CallbackContext callbackContext) {
+            this.action = action;
+            this.args = args;
+            this.callbackContext = callbackContext;
+        }
+    }
+
+    // Commands received before the SDK is ready, in order.
+    private final ArrayList<PendingCommand> pending = new ArrayList<>();
+    private volatile boolean ready;
+    private boolean initStarted;
+    private String initError;
+    private long initRequestedNanos;
 
     @Override
     protected void pluginInitialize() {
-        Activity activity = cordova.getActivity();
-        ak = new Akiles(activity);
-        ak.setPermissionRequester((permissions, requestCode) -> {
-            LOG.i(TAG, "requestPermissions", requestCode);
-            cordova.requestPermissions(AkilesPlugin.this, requestCode, permissions);
-            return true;
+        long start = System.nanoTime();
+        initRequestedNanos = start;
+        scheduler = new RadioScheduler(preferences.getInteger("akiles_bluetooth_concurrency", 2), preferences.getInteger("akiles_nfc_concurrency", 1), metrics);
+        snapshot = new CatalogSnapshot(cordova.getActivity());
+        nearby = new NearbyIndex(scheduler, metrics, timer, operations);
+        events = new EventChannel(timer, metrics, preferences.getInteger("akiles_event_window", (int) EventChannel.DEFAULT_WINDOW));
+        // The SDK is built off the startup path: right away in the background
+        // if eager init is on, otherwise on the first command.
+        if (preferences.getBoolean("akiles_eager_init", false)) {
+            synchronized (pending) {
+                startInit();
+            }
+        }
+        metrics.record("init.plugin_initialize", (System.nanoTime() - start) / 1000000L);
+    }
+
+    /**
+     * Build the SDK on a background thread. Must be called with the `pending` lock held.
+     */
+    private void startInit() {
+        if (initStarted) {
+            return;
+        }
+        initStarted = true;
+        cordova.getThreadPool().execute(this::init);
+    }
+
+    private void init() {
+        long start = System.nanoTime();
+        try {
+            Activity activity = cordova.getActivity();
+            Akiles created = createAkiles(activity);
+            created.setPermissionRequester((permissions, requestCode) -> {
+                LOG.i(TAG, "requestPermissions", requestCode);
+                cordova.requestPermissions(AkilesPlugin.this, requestCode, permissions);
+                return true;
+            });
+            history = new TransportHistory(activity.getSharedPreferences("akiles_transport_history", Context.MODE_PRIVATE), timer);
+            prewarm = new Prewarm(created, scheduler, metrics, operations, timer);
+            ak = created;
+        } catch (RuntimeException e) {
+            LOG.e(TAG, "Error initializing Akiles", e);
+            synchronized (pending) {
+                initError = "Error initializing Akiles: " + e.getMessage();
+            }
+        }
+        long now = System.nanoTime();
+        metrics.record("init.akiles", (now - start) / 1000000L);
+        metrics.record("init.ready", (now - initRequestedNanos) / 1000000L);
+        LOG.i(TAG, "Akiles initialized in " + (now - start) / 1000000L + " ms");
+        drainPending();
+        if (ak != null) {
+            dispatcher.read(null, this::reconcileSnapshots);
+        }
+    }
+
+    /**
+     * Bring the catalog snapshots in line with the SDK: drop the ones of
+     * removed sessions and rewrite the others.
+     */
+    private void reconcileSnapshots() {
+        String[] sessionIDs;
+        try {
+            sessionIDs = ak.getSessionIDs();
+        } catch (AkilesException e) {
+            LOG.e(TAG, "Error getting session IDs", e);
+            return;
+        }
+        snapshot.retain(sessionIDs);
+        catalogWatcher.retain(sessionIDs);
+        for (String sessionID : sessionIDs) {
+            dispatcher.read(sessionID, () -> catalogChanged(sessionID));
+        }
+    }
+
+    /**
+     * Save the catalog snapshot of a session, unless it was already saved
+     * since the last cache invalidation.
+     */
+    private void saveSnapshot(String sessionID) {
+        long gen = catalogCache.generation();
+        Long saved = snapshotGenerations.get(sessionID);
+        if (saved != null && saved == gen) {
+            return;
+        }
+        try {
+            saveSnapshot(sessionID, gen, ak.getGadgets(sessionID), ak.getHardwares(sessionID));
+        } catch (AkilesException e) {
+            LOG.e(TAG, "Error saving catalog snapshot", e);
+        }
+    }
+
+    private void saveSnapshot(String sessionID, long gen, Gadget[] gadgets, Hardware[] hardwares) {
+        long start = System.nanoTime();
+        snapshot.save(sessionID, gadgets, hardwares);
+        snapshotGenerations.put(sessionID, gen);
+        metrics.record("snapshot.save", (System.nanoTime() - start) / 1000000L);
+    }
+
+    /**
+     * Called after a session was added or refreshed: saves its snapshot and
+     * pushes the changes to catalog subscribers.
+     */
+    private void catalogChanged(String sessionID) {
+        long gen = catalogCache.generation();
+        Gadget[] gadgets;
+        Hardware[] hardwares;
+        try {
+            gadgets = ak.getGadgets(sessionID);
+            hardwares = ak.getHardwares(sessionID);
+        } catch (AkilesException e) {
+            LOG.e(TAG, "Error reading catalog", e);
+            return;
+        }
+        saveSnapshot(sessionID, gen, gadgets, hardwares);
+        long start = System.nanoTime();
+        catalogWatcher.update(sessionID, gadgets, hardwares);
+        metrics.record("catalog.diff", (System.nanoTime() - start) / 1000000L);
+    }
+
+    private void subscribeCatalog(String opId, CallbackContext callbackContext) {
+        operations.start(opId, "subscribe_catalog");
+        catalogWatcher.subscribe(opId, callbackContext);
+        operations.attach(opId, () -> {
+            catalogWatcher.unsubscribe(opId);
+            operations.finish(opId);
+        });
+        // Record the current catalogs, so the first refresh has something to diff against.
+        dispatcher.read(null, () -> {
+            String[] sessionIDs;
+            try {
+                sessionIDs = ak.getSessionIDs();
+            } catch (AkilesException e) {
+                LOG.e(TAG, "Error getting session IDs", e);
+                return;
+            }
+            for (String sessionID : sessionIDs) {
+                dispatcher.read(sessionID, () -> {
+                    try {
+                        catalogWatcher.baseline(sessionID, ak.getGadgets(sessionID), ak.getHardwares(sessionID));
+                    } catch (AkilesException e) {
+                        LOG.e(TAG, "Error reading catalog", e);
+                    }
+                });
+            }
         });
     }
 
+    private void getCatalogSnapshot(CallbackContext callbackContext, String sessionID) {
+        long start = System.nanoTime();
+        String json = snapshot.load(sessionID);
+        metrics.record("snapshot.load", (System.nanoTime() - start) / 1000000L);
+        if (json == null) {
+            callbackContext.sendPluginResult(new EncodedResult(PluginResult.Status.OK, "null"));
+            return;
+        }
+        // Same fields as the saved object, plus the stale marker.
+        callbackContext.sendPluginResult(new EncodedResult(PluginResult.Status.OK, "{\"stale\":true," + json.substring(1)));
+    }
+
+    /**
+     * Run the commands received during init, in order. `ready` is only set once
+     * the queue is empty, so commands arriving meanwhile queue up behind.
+     */
+    private void drainPending() {
+        while (true) {
+            ArrayList<PendingCommand> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    ready = true;
+                    return;
+                }
+                batch = new ArrayList<>(pending);
+                pending.clear();
+            }
+            for (PendingCommand cmd : batch) {
+                try {
+                    if (!run(cmd.action, cmd.args, cmd.callbackContext)) {
+                        cmd.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+                    }
+                } catch (JSONException e) {
+                    LOG.e(TAG, "JSONException", e);
+                    cmd.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onReset() {
+        events.reset();
+        releasePrewarm();
+        operations.cancelAll();
+        cards.closeAll();
+    }
+
+    @Override
+    public void onPause(boolean multitasking) {
+        if (ak != null) {
+            history.flush();
+        }
+        // Off by default: runtime permission dialogs pause the activity too.
+        if (preferences.getBoolean("akiles_cancel_on_pause", false)) {
+            operations.cancelAll();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        releasePrewarm();
+        operations.cancelAll();
+        cards.closeAll();
+        if (ak != null) {
+            history.flush();
+        }
+        dispatcher.shutdown();
+        timer.shutdownNow();
+        super.onDestroy();
+    }
+
+    private void releasePrewarm() {
+        if (ak != null) {
+            prewarm.releaseAll();
+        }
+    }
+
+    /**
+     * Creates the SDK instance. Overridable so a harness can run the plugin against a scripted stand-in.
+     */
+    protected Akiles createAkiles(Activity activity) {
+        return new Akiles(activity);
+    }
+
     // Cordova says this is deprecated and to use onRequestPermissionResult instead,
     // but it seems it calls this method and not the new one.
     // This makes no sense.
@@ -57,15 +328,77 @@ public class AkilesPlugin extends CordovaPlugin {
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permissions, @NonNull int[] grantResults) {
         LOG.i(TAG, "onRequestPermissionsResult", requestCode);
-        ak.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (ak != null) {
+            ak.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        }
     }
 
     @Override
     public boolean execute(String action, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        if (action.equals("get_catalog_snapshot")) {
+            // Served from disk without waiting for the SDK, which this starts building.
+            String sessionID = args.getString(0);
+            cordova.getThreadPool().execute(() -> getCatalogSnapshot(callbackContext, sessionID));
+            synchronized (pending) {
+                if (!ready) {
+                    startInit();
+                }
+            }
+            return true;
+        }
+        if (capability(action, callbackContext)) {
+            return true;
+        }
+        if (action.equals("register_events")) {
+            events.register(callbackContext);
+            return true;
+        }
+        if (ROUTED_ACTIONS.contains(action) && OperationRegistry.isInternal(args.getString(0))) {
+            callbackContext.sendPluginResult(new EncodedResult(PluginResult.Status.ERROR,
+                    EventEncoder.errorJson("INVALID_PARAM", "Reserved operation ID")));
+            return true;
+        }
+        if (ROUTED_ACTIONS.contains(action) && events.isRegistered()) {
+            // Results go through the event channel. The call's own callback only
+            // reports failures of execute() itself, so once the command is
+            // dispatched it's released, or JS would keep it forever.
+            if (!submit(action, args, events.route(args.getString(0), callbackContext, webView))) {
+                return false;
+            }
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.NO_RESULT));
+            return true;
+        }
+        return submit(action, args, callbackContext);
+    }
+
+    /**
+     * Run a command, or queue it until the SDK is ready.
+     */
+    private boolean submit(String action, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        if (!ready) {
+            synchronized (pending) {
+                if (!ready) {
+                    if (initError == null) {
+                        metrics.count("init.queued");
+                        pending.add(new PendingCommand(action, args, callbackContext));
+                        startInit();
+                        return true;
+                    }
+                }
+            }
+        }
+        return run(action, args, callbackContext);
+    }
+
+    private boolean run(String action, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        if (initError != null) {
+            callbackContext.error(initError);
+            return true;
+        }
         String opId;
         switch (action) {
             case "get_session_ids":
-                getSessionIDs(callbackContext);
+                dispatcher.read(null, () -> getSessionIDs(callbackContext));
                 return true;
             case "get_version":
                 getVersion(callbackContext);
@@ -75,60 +408,140 @@ public class AkilesPlugin extends CordovaPlugin {
                 return true;
             case "add_session":
                 String token = args.getString(0);
-                addSession(callbackContext, token);
+                dispatcher.mutateAll(() -> addSession(callbackContext, token));
                 return true;
             case "remove_session":
-                String sessionID = args.getString(0);
-                removeSession(callbackContext, sessionID);
+                String removeID = args.getString(0);
+                dispatcher.mutate(removeID, () -> removeSession(callbackContext, removeID));
                 return true;
             case "remove_all_sessions":
-                removeAllSessions(callbackContext);
+                dispatcher.mutateAll(() -> removeAllSessions(callbackContext));
                 return true;
             case "refresh_session":
-                sessionID = args.getString(0);
-                refreshSession(callbackContext, sessionID);
+                String refreshID = args.getString(0);
+                long refreshMaxAge = maxAgeMillis(args.optJSONObject(1));
+                dispatcher.mutate(refreshID, () -> refreshSession(callbackContext, refreshID, refreshMaxAge));
                 return true;
             case "refresh_all_sessions":
-                refreshAllSessions(callbackContext);
+                long refreshAllMaxAge = maxAgeMillis(args.optJSONObject(0));
+                dispatcher.mutateAll(() -> refreshAllSessions(callbackContext, refreshAllMaxAge));
                 return true;
             case "get_gadgets":
-                sessionID = args.getString(0);
-                getGadgets(callbackContext, sessionID);
+                String gadgetsID = args.getString(0);
+                dispatcher.read(gadgetsID, () -> getGadgets(callbackContext, gadgetsID));
+                return true;
+            case "get_hardwares":
+                String hardwaresID = args.getString(0);
+                dispatcher.read(hardwaresID, () -> getHardwares(callbackContext, hardwaresID));
                 return true;
             case "action":
                 opId = args.getString(0);
-                sessionID = args.getString(1);
+                String sessionID = args.getString(1);
                 String gadgetID = args.getString(2);
                 String actionID = args.getString(3);
                 JSONObject optionsJson = args.optJSONObject(4);
                 action(opId, callbackContext, sessionID, gadgetID, actionID, optionsJson);
                 return true;
+            case "batch_action":
+                opId = args.getString(0);
+                JSONArray items = args.getJSONArray(1);
+                JSONObject batchOptions = args.optJSONObject(2);
+                batchAction(opId, callbackContext, items, batchOptions);
+                return true;
+            case "prepare":
+                sessionID = args.getString(0);
+                gadgetID = args.getString(1);
+                JSONObject prepareOptions = args.optJSONObject(2);
+                long ttl = prepareOptions != null ? prepareOptions.optLong("ttl", Prewarm.DEFAULT_TTL) : Prewarm.DEFAULT_TTL;
+                String prepareHardwareID = prepareOptions != null ? prepareOptions.optString("hardwareID", null) : null;
+                String prepareSessionID = sessionID;
+                String prepareGadgetID = gadgetID;
+                dispatcher.read(sessionID, () -> prewarm.prepare(callbackContext, prepareSessionID, prepareGadgetID, prepareHardwareID, ttl));
+                return true;
+            case "release":
+                prewarm.release(args.getString(0), args.getString(1));
+                callbackContext.success();
+                return true;
+            case "start_nearby_scan":
+                JSONObject nearbyOptions = args.optJSONObject(0);
+                startNearbyScan(nearbyOptions);
+                callbackContext.success();
+                return true;
+            case "stop_nearby_scan":
+                nearby.stop();
+                callbackContext.success();
+                return true;
+            case "get_nearby_hardware":
+                String nearbySessionID = args.isNull(0) ? null : args.getString(0);
+                callbackContext.sendPluginResult(new EncodedResult(PluginResult.Status.OK, nearby.query(nearbySessionID)));
+                return true;
             case "scan":
                 opId = args.getString(0);
-                scan(opId, callbackContext);
+                JSONObject scanOptions = args.optJSONObject(1);
+                scan(opId, callbackContext, scanOptions);
                 return true;
             case "sync":
                 opId = args.getString(0);
                 sessionID = args.getString(1);
                 String hardwareID = args.getString(2);
-                sync(opId, callbackContext, sessionID, hardwareID);
+                JSONObject syncOptions = args.optJSONObject(3);
+                sync(opId, callbackContext, sessionID, hardwareID, syncOptions);
+                return true;
+            case "sync_all":
+                opId = args.getString(0);
+                String syncAllID = args.getString(1);
+                JSONObject syncAllOptions = args.optJSONObject(2);
+                String syncAllOpId = opId;
+                // Registered right away so it can be canceled while the hardware list is read.
+                operations.start(opId, "sync_all");
+                dispatcher.read(syncAllID, () -> syncAll(syncAllOpId, callbackContext, syncAllID, syncAllOptions));
                 return true;
             case "scan_card":
                 opId = args.getString(0);
                 scanCard(opId, callbackContext);
                 return true;
             case "update_card":
-                updateCard(callbackContext);
+                updateCard(args.isNull(0) ? null : args.getString(0), callbackContext);
                 return true;
             case "close_card":
-                closeCard(callbackContext);
+                closeCard(args.isNull(0) ? null : args.getString(0), callbackContext);
+                return true;
+            case "provision_cards":
+                opId = args.getString(0);
+                provisionCards(opId, callbackContext, args.optJSONObject(1));
+                return true;
+            case "subscribe_catalog":
+                opId = args.getString(0);
+                subscribeCatalog(opId, callbackContext);
                 return true;
             case "cancel":
                 opId = args.getString(0);
                 cancel(opId, callbackContext);
                 return true;
+            case "cancel_all":
+                operations.cancelAll();
+                callbackContext.success();
+                return true;
+            case "list_operations":
+                listOperations(callbackContext);
+                return true;
+            case "get_metrics":
+                getMetrics(callbackContext);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Answer a capability check right away. They only query the system, so they
+     * neither wait for the SDK nor start building it. Returns false for other
+     * commands.
+     */
+    private boolean capability(String action, CallbackContext callbackContext) {
+        switch (action) {
             case "is_bluetooth_supported":
-                callbackContext.success(ak.isBluetoothSupported() ? 1 : 0);
+                callbackContext.success(isBluetoothSupported() ? 1 : 0);
                 return true;
             case "is_secure_nfc_supported":
                 try {
@@ -144,13 +557,33 @@ public class AkilesPlugin extends CordovaPlugin {
                 }
                 return true;
             case "is_card_emulation_supported":
-                callbackContext.success(ak.isCardEmulationSupported() ? 1 : 0);
+                callbackContext.success(isCardEmulationSupported() ? 1 : 0);
                 return true;
             default:
                 return false;
         }
     }
 
+    /**
+     * Asks the SDK once it's built, the system before.
+     */
+    private boolean isBluetoothSupported() {
+        Akiles a = ak;
+        if (a != null) {
+            return a.isBluetoothSupported();
+        }
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                && cordova.getActivity().getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE);
+    }
+
+    private boolean isCardEmulationSupported() {
+        Akiles a = ak;
+        if (a != null) {
+            return a.isCardEmulationSupported();
+        }
+        return cordova.getActivity().getPackageManager().hasSystemFeature(PackageManager.FEATURE_NFC_HOST_CARD_EMULATION);
+    }
+
     private void getSessionIDs(CallbackContext callbackContext) {
         try {
             String[] sessionIDs = ak.getSessionIDs();
@@ -158,7 +591,7 @@ public class AkilesPlugin extends CordovaPlugin {
             callbackContext.success(result);
         } catch (AkilesException e) {
             LOG.e(TAG, "Error getting session IDs", e);
-            callbackContext.error(akilesExceptionToJson(e));
+            sendError(callbackContext, e);
         }
     }
 
@@ -182,17 +615,39 @@ public class AkilesPlugin extends CordovaPlugin {
         }
     }
 
+    /**
+     * Reads the `maxAge` option of refresh calls, in seconds.
+     */
+    private static long maxAgeMillis(JSONObject options) {
+        return options != null ? (long) (options.optDouble("maxAge", 0) * 1000) : 0;
+    }
+
     private void addSession(CallbackContext callbackContext, String token) {
+        // Only kept while the call is in flight: the token isn't recorded once it's done.
+        String key = "add:" + token;
+        if (!flights.join(key, callbackContext)) {
+            metrics.count("dedup.add_session.joined");
+            return;
+        }
         ak.addSession(token, new app.akiles.sdk.Callback<String>() {
             @Override
             public void onSuccess(String sessionID) {
-                callbackContext.success(sessionID);
+                catalogCache.invalidateSession(sessionID);
+                policy.forget(sessionID);
+                // The last refresh of all sessions didn't include this one.
+                flights.forget("refresh:all");
+                dispatcher.read(sessionID, () -> catalogChanged(sessionID));
+                for (CallbackContext cc : flights.complete(key)) {
+                    cc.success(sessionID);
+                }
             }
 
             @Override
             public void onError(AkilesException e) {
                 LOG.e(TAG, "Error adding session", e);
-                callbackContext.error(akilesExceptionToJson(e));
+                for (CallbackContext cc : flights.complete(key)) {
+                    sendError(cc, e);
+                }
             }
         });
     }
@@ -200,430 +655,655 @@ public class AkilesPlugin extends CordovaPlugin {
     private void removeSession(CallbackContext callbackContext, String sessionID) {
         try {
             ak.removeSession(sessionID);
+            catalogCache.invalidateSession(sessionID);
+            flights.forget("refresh:" + sessionID);
+            policy.forget(sessionID);
+            snapshotGenerations.remove(sessionID);
+            snapshot.delete(sessionID);
+            catalogWatcher.remove(sessionID);
             callbackContext.success();
         } catch (AkilesException e) {
             LOG.e(TAG, "Error removing session", e);
-            callbackContext.error(akilesExceptionToJson(e));
+            sendError(callbackContext, e);
         }
     }
 
     private void removeAllSessions(CallbackContext callbackContext) {
         try {
             ak.removeAllSessions();
+            catalogCache.invalidateAll();
+            flights.forgetAll();
+            policy.clear();
+            snapshotGenerations.clear();
+            snapshot.retain(new String[0]);
+            catalogWatcher.retain(new String[0]);
             callbackContext.success();
         } catch (AkilesException e) {
             LOG.e(TAG, "Error removing all sessions", e);
-            callbackContext.error(akilesExceptionToJson(e));
+            sendError(callbackContext, e);
         }
     }
 
-    private void refreshSession(CallbackContext callbackContext, String sessionID) {
+    private void refreshSession(CallbackContext callbackContext, String sessionID, long maxAge) {
+        String key = "refresh:" + sessionID;
+        // A refresh of all sessions counts as a refresh of this one.
+        if (flights.isFresh(maxAge, key, "refresh:all")) {
+            metrics.count("dedup.refresh_session.fresh");
+            callbackContext.success();
+            return;
+        }
+        if (!flights.join(key, callbackContext)) {
+            metrics.count("dedup.refresh_session.joined");
+            return;
+        }
         ak.refreshSession(sessionID, new app.akiles.sdk.Callback<Void>() {
             @Override
             public void onSuccess(Void unused) {
-                callbackContext.success();
+                catalogCache.invalidateSession(sessionID);
+                policy.forget(sessionID);
+                dispatcher.read(sessionID, () -> catalogChanged(sessionID));
+                for (CallbackContext cc : flights.complete(key, true)) {
+                    cc.success();
+                }
             }
 
             @Override
             public void onError(AkilesException e) {
                 LOG.e(TAG, "Error refreshing session", e);
-                callbackContext.error(akilesExceptionToJson(e));
+                for (CallbackContext cc : flights.complete(key, false)) {
+                    sendError(cc, e);
+                }
             }
         });
     }
 
-    private void refreshAllSessions(CallbackContext callbackContext) {
+    private void refreshAllSessions(CallbackContext callbackContext, long maxAge) {
+        String key = "refresh:all";
+        if (flights.isFresh(maxAge, key)) {
+            metrics.count("dedup.refresh_all_sessions.fresh");
+            callbackContext.success();
+            return;
+        }
+        if (!flights.join(key, callbackContext)) {
+            metrics.count("dedup.refresh_all_sessions.joined");
+            return;
+        }
         ak.refreshAllSessions(new app.akiles.sdk.Callback<Void>() {
             @Override
             public void onSuccess(Void unused) {
-                callbackContext.success();
+                catalogCache.invalidateAll();
+                policy.clear();
+                dispatcher.read(null, AkilesPlugin.this::reconcileSnapshots);
+                for (CallbackContext cc : flights.complete(key, true)) {
+                    cc.success();
+                }
             }
 
             @Override
             public void onError(AkilesException e) {
                 LOG.e(TAG, "Error refreshing all sessions", e);
-                callbackContext.error(akilesExceptionToJson(e));
+                for (CallbackContext cc : flights.complete(key, false)) {
+                    sendError(cc, e);
+                }
             }
         });
     }
 
     private void getGadgets(CallbackContext callbackContext, String sessionID) {
+        String cached = catalogCache.getGadgets(sessionID);
+        if (cached != null) {
+            callbackContext.sendPluginResult(new EncodedResult(PluginResult.Status.OK, cached));
+            return;
+        }
+        long gen = catalogCache.generation();
         Gadget[] gadgets;
         try {
             gadgets = ak.getGadgets(sessionID);
         } catch (AkilesException e) {
             LOG.e(TAG, "Error getting gadgets", e);
-            callbackContext.error(akilesExceptionToJson(e));
+            sendError(callbackContext, e);
             return;
         }
-        try {
-            JSONArray result = new JSONArray();
-            for (Gadget gadget : gadgets) {
-                JSONObject obj = new JSONObject();
-                obj.put("id", gadget.id);
-                obj.put("name", gadget.name);
-                JSONArray actions = new JSONArray();
-                if (gadget.actions != null) {
-                    for (app.akiles.sdk.GadgetAction action : gadget.actions) {
-                        JSONObject actionObj = new JSONObject();
-                        actionObj.put("id", action.id);
-                        actionObj.put("name", action.name);
-                        actions.put(actionObj);
-                    }
-                }
-                obj.put("actions", actions);
-                result.put(obj);
-            }
-            callbackContext.success(result);
-        } catch (JSONException e) {
-            LOG.e(TAG, "Error encoding gadgets", e);
-            callbackContext.error("Error encoding gadgets: " + e.getMessage());
-        }
+        String json = EventEncoder.gadgetsJson(gadgets);
+        catalogCache.putGadgets(sessionID, gen, json);
+        callbackContext.sendPluginResult(new EncodedResult(PluginResult.Status.OK, json));
+        saveSnapshot(sessionID);
     }
 
     private void getHardwares(CallbackContext callbackContext, String sessionID) {
+        String cached = catalogCache.getHardwares(sessionID);
+        if (cached != null) {
+            callbackContext.sendPluginResult(new EncodedResult(PluginResult.Status.OK, cached));
+            return;
+        }
+        long gen = catalogCache.generation();
         Hardware[] hardwares;
         try {
             hardwares = ak.getHardwares(sessionID);
         } catch (AkilesException e) {
             LOG.e(TAG, "Error getting hardwares", e);
-            callbackContext.error(akilesExceptionToJson(e));
+            sendError(callbackContext, e);
             return;
         }
-        try {
-            JSONArray result = new JSONArray();
-            for (Hardware hw : hardwares) {
-                JSONObject obj = new JSONObject();
-                obj.put("id", hw.id);
-                obj.put("name", hw.name);
-                obj.put("productId", hw.productId);
-                obj.put("revisionId", hw.revisionId);
-                JSONArray sessions = new JSONArray();
-                if (hw.sessions != null) {
-                    for (String s : hw.sessions) {
-                        sessions.put(s);
-                    }
-                }
-                obj.put("sessions", sessions);
-                result.put(obj);
+        String json = EventEncoder.hardwaresJson(hardwares);
+        catalogCache.putHardwares(sessionID, gen, json);
+        callbackContext.sendPluginResult(new EncodedResult(PluginResult.Status.OK, json));
+        saveSnapshot(sessionID);
+    }
+
+    static ActionOptions parseActionOptions(JSONObject optionsJson) throws JSONException {
+        ActionOptions options = new ActionOptions();
+        if (optionsJson != null) {
+            if (optionsJson.has("requestBluetoothPermission")) {
+                options.requestBluetoothPermission = optionsJson.getBoolean("requestBluetoothPermission");
+            }
+            if (optionsJson.has("requestLocationPermission")) {
+                options.requestLocationPermission = optionsJson.getBoolean("requestLocationPermission");
+            }
+            if (optionsJson.has("useInternet")) {
+                options.useInternet = optionsJson.getBoolean("useInternet");
+            }
+            if (optionsJson.has("useBluetooth")) {
+                options.useBluetooth = optionsJson.getBoolean("useBluetooth");
             }
-            callbackContext.success(result);
-        } catch (JSONException e) {
-            LOG.e(TAG, "Error encoding hardwares", e);
-            callbackContext.error("Error encoding hardwares: " + e.getMessage());
         }
+        return options;
     }
 
     private void action(String opId, CallbackContext callbackContext, String sessionID, String gadgetID, String actionID, JSONObject optionsJson) {
-        ActionOptions options = new ActionOptions();
-          try {
-            if (optionsJson != null) {
-                if (optionsJson.has("requestBluetoothPermission")) {
-                    options.requestBluetoothPermission = optionsJson.getBoolean("requestBluetoothPermission");
-                }
-                if (optionsJson.has("requestLocationPermission")) {
-                    options.requestLocationPermission = optionsJson.getBoolean("requestLocationPermission");
-                }
-                if (optionsJson.has("useInternet")) {
-                    options.useInternet = optionsJson.getBoolean("useInternet");
-                }
-                if (optionsJson.has("useBluetooth")) {
-                    options.useBluetooth = optionsJson.getBoolean("useBluetooth");
-                }
-            }
+        ActionOptions options;
+        Retry retry;
+        try {
+            options = parseActionOptions(optionsJson);
+            retry = Retry.fromOptions(optionsJson, timer, metrics, retryListener(callbackContext));
         } catch (JSONException e) {
             LOG.e(TAG, "JSONException", e);
             callbackContext.error(e.getMessage());
             return;
         }
+        ProgressThrottle progress = ProgressThrottle.fromOptions(optionsJson);
+        // Known to be denied right now: fail without touching the radio or the network.
+        String denied = policy.check(sessionID, gadgetID);
+        if (denied != null) {
+            // Keep the callback sequence: each enabled transport ends, then the action.
+            if (options.useInternet) {
+                sendEvent(callbackContext, EventEncoder.event("internet_error").raw("error", denied).end());
+            }
+            if (options.useBluetooth) {
+                sendEvent(callbackContext, EventEncoder.event("bluetooth_error").raw("error", denied).end());
+            }
+            sendFinalEvent(callbackContext, EventEncoder.event("error").raw("error", denied).end());
+            return;
+        }
+        // Stop warming this gadget so it doesn't compete with the action for the radio.
+        prewarm.onAction(sessionID, gadgetID);
 
-        // Track completion of global, internet, and bluetooth
-        class ActionCompletion {
-            boolean globalDone = false;
-            boolean internetDone = false;
-            boolean bluetoothDone = false;
+        JSONObject hedge = optionsJson != null ? optionsJson.optJSONObject("hedge") : null;
+        if (hedge != null && options.useInternet && options.useBluetooth) {
+            hedgedAction(opId, callbackContext, sessionID, gadgetID, actionID, options, progress, hedge);
+            return;
+        }
 
-            void tryFinish() {
-                if (globalDone && internetDone && bluetoothDone) {
+        // Track completion of global and every enabled transport
+        ActionCompletion completion = new ActionCompletion(options.useInternet, options.useBluetooth);
+        Metrics.ActionMetrics actionMetrics = metrics.action("action", gadgetID);
+        long actionStarted = System.nanoTime();
+        // Internet-only actions don't need the radio.
+        RadioScheduler.Task task = options.useBluetooth ? scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_ACTION, false) : null;
+        operations.start(opId, "action");
+        if (retry != null) {
+            retry.armDeadline(() -> operations.cancel(opId));
+        }
+        app.akiles.sdk.ActionCallback actionCallback = new app.akiles.sdk.ActionCallback() {
+            private void done(int part) {
+                if (completion.done(part)) {
                     // All done, release callback
                     PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
                     pluginResult.setKeepCallback(false);
                     callbackContext.sendPluginResult(pluginResult);
+                    operations.finish(opId);
+                    if (task != null) {
+                        task.finish();
+                    }
                 }
             }
-        }
-        ActionCompletion completion = new ActionCompletion();
-        Cancel cancel = ak.action(sessionID, gadgetID, actionID, options, new app.akiles.sdk.ActionCallback() {
+
             @Override
             public void onSuccess() {
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "success");
-                    sendEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "JSONException", e);
-                    callbackContext.error(e.getMessage());
+                actionMetrics.done(true);
+                policy.learn(sessionID, gadgetID, null);
+                if (retry != null) {
+                    retry.finish();
+                    String report = retry.report();
+                    sendEvent(callbackContext, EventEncoder.event("success").raw("retry", report).end());
+                } else {
+                    sendEvent(callbackContext, EventEncoder.event("success").end());
                 }
-                completion.globalDone = true;
-                completion.tryFinish();
+                done(ActionCompletion.GLOBAL);
             }
 
             @Override
             public void onError(AkilesException ex) {
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "error");
-                    event.put("error", akilesExceptionToJson(ex));
-                    sendEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "JSONException", e);
-                    callbackContext.error(e.getMessage());
+                LOG.i(TAG, "exception", ex);
+                actionMetrics.done(false);
+                policy.learn(sessionID, gadgetID, ex);
+                if (retry != null) {
+                    retry.finish();
+                    String error = retryError(retry, ex);
+                    String report = retry.report();
+                    sendEvent(callbackContext, EventEncoder.event("error").raw("error", error).raw("retry", report).end());
+                } else {
+                    sendEvent(callbackContext, EventEncoder.event("error").error("error", ex).end());
                 }
-                completion.globalDone = true;
-                completion.tryFinish();
+                done(ActionCompletion.GLOBAL);
             }
 
             @Override
             public void onInternetStatus(app.akiles.sdk.ActionInternetStatus status) {
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "internet_status");
-                    event.put("status", status.toString());
-                    sendEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "Error sending action internet_status event", e);
-                }
+                actionMetrics.internetStatus(status.toString());
+                sendEvent(callbackContext, EventEncoder.event("internet_status").field("status", status.toString()).end());
             }
 
             @Override
             public void onInternetSuccess() {
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "internet_success");
-                    sendEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "Error sending action internet_success event", e);
-                }
-                completion.internetDone = true;
-                completion.tryFinish();
+                actionMetrics.internetDone(true);
+                history.record(gadgetID, TransportHistory.INTERNET, actionStarted, null);
+                sendEvent(callbackContext, EventEncoder.event("internet_success").end());
+                done(ActionCompletion.INTERNET);
             }
 
             @Override
             public void onInternetError(AkilesException ex) {
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "internet_error");
-                    event.put("error", akilesExceptionToJson(ex));
-                    sendEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "Error sending action internet_error event", e);
-                }
-                completion.internetDone = true;
-                completion.tryFinish();
+                LOG.i(TAG, "exception", ex);
+                actionMetrics.internetDone(false);
+                history.record(gadgetID, TransportHistory.INTERNET, actionStarted, ex);
+                policy.learn(sessionID, gadgetID, ex);
+                sendEvent(callbackContext, EventEncoder.event("internet_error").error("error", ex).end());
+                done(ActionCompletion.INTERNET);
             }
 
             @Override
             public void onBluetoothStatus(app.akiles.sdk.ActionBluetoothStatus status) {
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "bluetooth_status");
-                    event.put("status", status.toString());
-                    sendEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "Error sending action bluetooth_status event", e);
+                if (progress != null) {
+                    progress.reset();
                 }
+                actionMetrics.bluetoothStatus(status.toString());
+                sendEvent(callbackContext, EventEncoder.event("bluetooth_status").field("status", status.toString()).end());
             }
 
             @Override
             public void onBluetoothStatusProgress(float percent) {
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "bluetooth_status_progress");
-                    event.put("percent", percent);
-                    sendEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "Error sending action bluetooth_status_progress event", e);
+                if (progress != null && !progress.accept(percent)) {
+                    return;
                 }
+                sendEvent(callbackContext, EventEncoder.event("bluetooth_status_progress").field("percent", percent).end());
             }
 
             @Override
             public void onBluetoothSuccess() {
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "bluetooth_success");
-                    sendEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "Error sending action bluetooth_success event", e);
+                if (progress != null && progress.complete()) {
+                    onBluetoothStatusProgress(100);
                 }
-                completion.bluetoothDone = true;
-                completion.tryFinish();
+                actionMetrics.bluetoothDone(true);
+                history.record(gadgetID, TransportHistory.BLUETOOTH, actionStarted, null);
+                sendEvent(callbackContext, EventEncoder.event("bluetooth_success").end());
+                done(ActionCompletion.BLUETOOTH);
             }
 
             @Override
             public void onBluetoothError(AkilesException ex) {
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "bluetooth_error");
-                    event.put("error", akilesExceptionToJson(ex));
-                    sendEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "Error sending action bluetooth_error event", e);
-                }
-                completion.bluetoothDone = true;
-                completion.tryFinish();
+                LOG.i(TAG, "exception", ex);
+                actionMetrics.bluetoothDone(false);
+                history.record(gadgetID, TransportHistory.BLUETOOTH, actionStarted, ex);
+                policy.learn(sessionID, gadgetID, ex);
+                sendEvent(callbackContext, EventEncoder.event("bluetooth_error").error("error", ex).end());
+                done(ActionCompletion.BLUETOOTH);
+            }
+        };
+        RadioScheduler.Starter starter = attempt -> {
+            if (retry != null) {
+                return retry.action(ak, sessionID, gadgetID, actionID, options, actionCallback)::cancel;
+            }
+            return ak.action(sessionID, gadgetID, actionID, options, actionCallback)::cancel;
+        };
+        if (task == null) {
+            operations.attach(opId, starter.start(1));
+            return;
+        }
+        task.submit(starter, () -> {
+            operations.finish(opId);
+            actionMetrics.done(false);
+            if (retry != null) {
+                retry.finish();
             }
+            sendFinalEvent(callbackContext, EventEncoder.event("error").raw("error", canceledError(retry)).end());
         });
-        cancelTokens.put(opId, cancel);
+        operations.attach(opId, task::cancel);
     }
 
-    private void scan(String opId, CallbackContext callbackContext) {
-        Cancel cancel = ak.scan(new app.akiles.sdk.ScanCallback() {
+    private void hedgedAction(String opId, CallbackContext callbackContext, String sessionID, String gadgetID, String actionID, ActionOptions options, ProgressThrottle progress, JSONObject hedge) {
+        // The Bluetooth leg takes its radio slot itself, when it starts.
+        HedgedAction hedged;
+        try {
+            hedged = new HedgedAction(ak, scheduler, metrics, history, policy, timer, callbackContext, sessionID, gadgetID, actionID, options, progress, hedge, () -> operations.finish(opId));
+        } catch (JSONException e) {
+            LOG.e(TAG, "JSONException", e);
+            callbackContext.error(e.getMessage());
+            return;
+        }
+        operations.start(opId, "action");
+        hedged.start();
+        operations.attach(opId, hedged::cancel);
+    }
+
+    private void batchAction(String opId, CallbackContext callbackContext, JSONArray items, JSONObject batchOptions) {
+        BatchAction batch;
+        try {
+            // Items take radio slots one by one, as they start.
+            batch = new BatchAction(ak, scheduler, metrics, history, policy, callbackContext, items, batchOptions, () -> operations.finish(opId));
+        } catch (JSONException e) {
+            LOG.e(TAG, "JSONException", e);
+            callbackContext.error(e.getMessage());
+            return;
+        }
+        operations.start(opId, "batch_action");
+        batch.start();
+        operations.attach(opId, batch::cancel);
+    }
+
+    private void scan(String opId, CallbackContext callbackContext, JSONObject scanOptions) {
+        long coalesceWindow = scanOptions != null ? scanOptions.optLong("coalesceWindow", 0) : 0;
+        ScanCoalescer coalescer = coalesceWindow > 0 ? new ScanCoalescer(callbackContext, timer, coalesceWindow) : null;
+        operations.start(opId, "scan");
+        long scanStarted = System.nanoTime();
+        AtomicBoolean discovered = new AtomicBoolean();
+        // Scans give way to everything else, and restart once the radio is free again.
+        RadioScheduler.Task task = scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_SCAN, true);
+        task.submit(attempt -> ak.scan(new app.akiles.sdk.ScanCallback() {
             @Override
             public void onDiscover(Hardware hw) {
-                JSONObject object = new JSONObject();
-                try {
-                    object.put("id", hw.id);
-                    object.put("name", hw.name);
-                    object.put("productId", hw.productId);
-                    object.put("revisionId", hw.revisionId);
-                    JSONArray sessions = new JSONArray();
-                    if (hw.sessions != null) {
-                        for (String s : hw.sessions) {
-                            sessions.put(s);
-                        }
-                    }
-                    object.put("sessions", sessions);
-                    JSONObject event = new JSONObject();
-                    event.put("type", "discover");
-                    event.put("hardware", object);
-                    sendEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    Log.w(TAG, "scan failed to encode hardware (ignored)", e);
+                if (!task.isCurrent(attempt)) {
+                    return;
+                }
+                metrics.count("scan.discover");
+                nearby.discover(hw);
+                if (discovered.compareAndSet(false, true)) {
+                    metrics.record("scan.first_discover", (System.nanoTime() - scanStarted) / 1000000L);
+                }
+                if (coalescer != null) {
+                    coalescer.discover(hw.id, EventEncoder.hardwareJson(hw));
+                    return;
                 }
+                sendEvent(callbackContext, EventEncoder.event("discover").hardware("hardware", hw).end());
             }
 
             @Override
             public void onSuccess() {
-                cancelTokens.remove(opId);
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "success");
-                    sendFinalEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    Log.w(TAG, "scan success event error (ignored)", e);
+                if (!task.finish(attempt)) {
+                    return;
                 }
+                operations.finish(opId);
+                metrics.record("scan.total", (System.nanoTime() - scanStarted) / 1000000L);
+                if (coalescer != null) {
+                    coalescer.close();
+                }
+                sendFinalEvent(callbackContext, EventEncoder.event("success").end());
             }
 
             @Override
             public void onError(AkilesException ex) {
-                cancelTokens.remove(opId);
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "error");
-                    event.put("error", akilesExceptionToJson(ex));
-                    sendFinalEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "JSONException", e);
-                    callbackContext.error(e.getMessage());
+                if (!task.finish(attempt)) {
+                    return;
+                }
+                operations.finish(opId);
+                metrics.record("scan.total", (System.nanoTime() - scanStarted) / 1000000L);
+                if (coalescer != null) {
+                    coalescer.close();
                 }
+                LOG.i(TAG, "exception", ex);
+                sendFinalEvent(callbackContext, EventEncoder.event("error").error("error", ex).end());
+            }
+        })::cancel, () -> {
+            operations.finish(opId);
+            if (coalescer != null) {
+                coalescer.close();
             }
+            sendFinalEvent(callbackContext, EventEncoder.event("error").raw("error", EventEncoder.errorJson("CANCELED", "Canceled")).end());
         });
-        cancelTokens.put(opId, cancel);
+        operations.attach(opId, task::cancel);
     }
 
-    private void cancel(String opId, CallbackContext callbackContext) {
-        Cancel cancel = cancelTokens.remove(opId);
-        if (cancel != null) {
-            cancel.cancel();
+    private void startNearbyScan(JSONObject options) {
+        long ttl = NearbyIndex.DEFAULT_TTL;
+        long duration = NearbyIndex.DEFAULT_DURATION;
+        long interval = NearbyIndex.DEFAULT_INTERVAL;
+        if (options != null) {
+            ttl = options.optLong("ttl", ttl);
+            duration = options.optLong("duration", duration);
+            interval = options.optLong("interval", interval);
         }
+        nearby.start(ak, ttl, duration, interval);
+    }
+
+    private void cancel(String opId, CallbackContext callbackContext) {
+        operations.cancel(opId);
         callbackContext.success();
     }
 
-    private void sync(String opId, CallbackContext callbackContext, String sessionID, String hardwareID) {
-        Cancel cancel = ak.sync(sessionID, hardwareID, new app.akiles.sdk.SyncCallback() {
-            @Override
-            public void onStatus(app.akiles.sdk.SyncStatus status) {
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "status");
-                    event.put("status", status.toString());
-                    sendEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "Error sending sync status event", e);
+    private void listOperations(CallbackContext callbackContext) {
+        try {
+            callbackContext.success(operations.toJson());
+        } catch (JSONException e) {
+            LOG.e(TAG, "Error encoding operations", e);
+            callbackContext.error("Error encoding operations: " + e.getMessage());
+        }
+    }
+
+    private void getMetrics(CallbackContext callbackContext) {
+        try {
+            JSONObject result = metrics.toJson();
+            result.put("operations", operations.size());
+            result.put("operationsStarted", operations.started());
+            result.put("operationsFinished", operations.finished());
+            result.put("scheduler", scheduler.toJson());
+            callbackContext.success(result);
+        } catch (JSONException e) {
+            LOG.e(TAG, "Error encoding metrics", e);
+            callbackContext.error("Error encoding metrics: " + e.getMessage());
+        }
+    }
+
+    private void sync(String opId, CallbackContext callbackContext, String sessionID, String hardwareID, JSONObject syncOptions) {
+        Retry retry;
+        try {
+            retry = Retry.fromOptions(syncOptions, timer, metrics, retryListener(callbackContext));
+        } catch (JSONException e) {
+            LOG.e(TAG, "JSONException", e);
+            callbackContext.error(e.getMessage());
+            return;
+        }
+        ProgressThrottle progress = ProgressThrottle.fromOptions(syncOptions);
+        operations.start(opId, "sync");
+        if (retry != null) {
+            retry.armDeadline(() -> operations.cancel(opId));
+        }
+        long syncStarted = System.nanoTime();
+        Metrics.PhaseTracker phases = metrics.new PhaseTracker("sync.phase");
+        // Background syncs can be preempted, and start over once the radio is free again.
+        boolean background = syncOptions != null && "background".equals(syncOptions.optString("priority"));
+        RadioScheduler.Task task = background
+                ? scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_BACKGROUND_SYNC, true)
+                : scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_USER_SYNC, false);
+        task.submit(attempt -> {
+            app.akiles.sdk.SyncCallback syncCallback = new app.akiles.sdk.SyncCallback() {
+                private void syncDone(boolean success) {
+                    if (retry != null) {
+                        retry.finish();
+                    }
+                    phases.end();
+                    metrics.record("sync.total", (System.nanoTime() - syncStarted) / 1000000L);
+                    metrics.count(success ? "sync.success" : "sync.error");
                 }
-            }
 
-            @Override
-            public void onStatusProgress(float percent) {
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "status_progress");
-                    event.put("percent", percent);
-                    sendEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "Error sending sync status_progress event", e);
+                @Override
+                public void onStatus(app.akiles.sdk.SyncStatus status) {
+                    if (!task.isCurrent(attempt)) {
+                        return;
+                    }
+                    if (progress != null) {
+                        progress.reset();
+                    }
+                    phases.enter(status.toString());
+                    sendEvent(callbackContext, EventEncoder.event("status").field("status", status.toString()).end());
                 }
-            }
 
-            @Override
-            public void onSuccess() {
-                cancelTokens.remove(opId);
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "success");
-                    sendFinalEvent(callbackContext, event);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "Error sending sync success event", e);
+                @Override
+                public void onStatusProgress(float percent) {
+                    if (!task.isCurrent(attempt) || (progress != null && !progress.accept(percent))) {
+                        return;
+                    }
+                    sendEvent(callbackContext, EventEncoder.event("status_progress").field("percent", percent).end());
                 }
-            }
 
-            @Override
-            public void onError(AkilesException e) {
-                cancelTokens.remove(opId);
-                try {
-                    JSONObject event = new JSONObject();
-                    event.put("type", "error");
-                    event.put("error", akilesExceptionToJson(e));
-                    sendFinalEvent(callbackContext, event);
-                } catch (JSONException ex) {
-                    LOG.e(TAG, "JSONException", e);
-                    callbackContext.error(ex.getMessage());
+                @Override
+                public void onSuccess() {
+                    if (progress != null && progress.complete()) {
+                        onStatusProgress(100);
+                    }
+                    if (!task.finish(attempt)) {
+                        return;
+                    }
+                    operations.finish(opId);
+                    syncDone(true);
+                    if (retry != null) {
+                        String report = retry.report();
+                        sendFinalEvent(callbackContext, EventEncoder.event("success").raw("retry", report).end());
+                    } else {
+                        sendFinalEvent(callbackContext, EventEncoder.event("success").end());
+                    }
+                }
+
+                @Override
+                public void onError(AkilesException e) {
+                    if (!task.finish(attempt)) {
+                        return;
+                    }
+                    operations.finish(opId);
+                    syncDone(false);
+                    LOG.i(TAG, "exception", e);
+                    if (retry != null) {
+                        String error = retryError(retry, e);
+                        String report = retry.report();
+                        sendFinalEvent(callbackContext, EventEncoder.event("error").raw("error", error).raw("retry", report).end());
+                    } else {
+                        sendFinalEvent(callbackContext, EventEncoder.event("error").error("error", e).end());
+                    }
                 }
+            };
+            if (retry != null) {
+                Retry.Handle run = retry.sync(ak, sessionID, hardwareID, syncCallback);
+                // The scheduler takes the slot back before canceling a preempted attempt. It starts
+                // over later, so it mustn't count as a failed attempt.
+                return () -> {
+                    if (task.isCurrent(attempt)) {
+                        run.cancel();
+                    } else {
+                        run.preempt();
+                    }
+                };
+            }
+            return ak.sync(sessionID, hardwareID, syncCallback)::cancel;
+        }, () -> {
+            operations.finish(opId);
+            if (retry != null) {
+                retry.finish();
             }
+            sendFinalEvent(callbackContext, EventEncoder.event("error").raw("error", canceledError(retry)).end());
         });
-        cancelTokens.put(opId, cancel);
+        operations.attach(opId, task::cancel);
+    }
+
+    /**
+     * Sends a `retry` event before each retry of an action or sync.
+     */
+    private static Retry.Listener retryListener(CallbackContext callbackContext) {
+        return (attempt, ex, delayMs) -> {
+            String error = EventEncoder.errorJson(ex);
+            sendEvent(callbackContext, EventEncoder.event("retry").field("attempt", attempt).field("delay", delayMs).raw("error", error).end());
+        };
+    }
+
+    /**
+     * The error to report for the final failure of an operation with a retry policy:
+     * a cancel caused by the deadline is reported as `TIMEOUT`.
+     */
+    private static String retryError(Retry retry, AkilesException ex) {
+        if (retry.deadlineExceeded() && ex.code == ErrorCode.CANCELED) {
+            return EventEncoder.errorJson("TIMEOUT", "Deadline exceeded");
+        }
+        return EventEncoder.errorJson(ex);
+    }
+
+    /**
+     * The error to report for an operation canceled before it got the radio.
+     */
+    private static String canceledError(Retry retry) {
+        if (retry != null && retry.deadlineExceeded()) {
+            return EventEncoder.errorJson("TIMEOUT", "Deadline exceeded");
+        }
+        return EventEncoder.errorJson("CANCELED", "Canceled");
+    }
+
+    private void syncAll(String opId, CallbackContext callbackContext, String sessionID, JSONObject options) {
+        SyncAll syncAll;
+        try {
+            Hardware[] hardwares = ak.getHardwares(sessionID);
+            syncAll = new SyncAll(ak, scheduler, metrics, timer, callbackContext, sessionID, hardwares, options, () -> operations.finish(opId));
+        } catch (AkilesException e) {
+            operations.finish(opId);
+            LOG.e(TAG, "Error getting hardwares", e);
+            sendError(callbackContext, e);
+            return;
+        } catch (JSONException e) {
+            operations.finish(opId);
+            LOG.e(TAG, "JSONException", e);
+            callbackContext.error(e.getMessage());
+            return;
+        }
+        operations.attach(opId, syncAll::cancel);
+        syncAll.start();
     }
 
     private void scanCard(String opId, CallbackContext callbackContext) {
-        Cancel cancel = ak.scanCard(new app.akiles.sdk.Callback<Card>() {
+        operations.start(opId, "scan_card");
+        RadioScheduler.Task task = scheduler.new Task(RadioScheduler.NFC, RadioScheduler.PRIORITY_ACTION, false);
+        task.submit(attempt -> ak.scanCard(new app.akiles.sdk.Callback<Card>() {
             @Override
             public void onSuccess(Card cardResult) {
-                cancelTokens.remove(opId);
-                card = cardResult;
-                JSONObject object = new JSONObject();
-                try {
-                    object.put("isAkilesCard", card.isAkilesCard());
-                    object.put("uid", hex(card.getUid()));
-                    callbackContext.success(object);
-                } catch (JSONException e) {
-                    LOG.e(TAG, "JSONException", e);
-                    callbackContext.error(e.getMessage());
-                }
+                task.finish();
+                operations.finish(opId);
+                cards.put(cardResult);
+                callbackContext.sendPluginResult(new EncodedResult(PluginResult.Status.OK, EventEncoder.cardJson(cardResult)));
             }
 
             @Override
             public void onError(AkilesException e) {
-                cancelTokens.remove(opId);
+                task.finish();
+                operations.finish(opId);
                 LOG.e(TAG, "Error scanning card", e);
-                callbackContext.error(akilesExceptionToJson(e));
+                sendError(callbackContext, e);
             }
+        })::cancel, () -> {
+            operations.finish(opId);
+            callbackContext.sendPluginResult(new EncodedResult(PluginResult.Status.ERROR, EventEncoder.errorJson("CANCELED", "Canceled")));
         });
-        cancelTokens.put(opId, cancel);
+        operations.attach(opId, task::cancel);
     }
 
-    private void updateCard(CallbackContext callbackContext) {
+    private void updateCard(String uid, CallbackContext callbackContext) {
+        Card card = cards.get(uid);
         if (card == null) {
-            LOG.e(TAG, "Error updating card: no card");
+            LOG.e(TAG, "Error updating card: no card " + uid);
             callbackContext.error("Error updating card: no card");
             return;
         }
@@ -636,125 +1316,44 @@ public class AkilesPlugin extends CordovaPlugin {
             @Override
             public void onError(AkilesException e) {
                 LOG.e(TAG, "Error updating card", e);
-                callbackContext.error(akilesExceptionToJson(e));
+                sendError(callbackContext, e);
             }
         });
     }
 
-    private void closeCard(CallbackContext callbackContext) {
-        if (card == null) {
-            LOG.e(TAG, "Error closing card: no card");
+    private void closeCard(String uid, CallbackContext callbackContext) {
+        if (!cards.close(uid)) {
+            LOG.e(TAG, "Error closing card: no card " + uid);
             callbackContext.error("Error closing card: no card");
             return;
         }
-        card.close();
-        card = null;
         callbackContext.success();
     }
 
-    private static String hex(byte[] payload) {
-        if (payload == null)
-            return "";
-        StringBuilder stringBuilder = new StringBuilder(payload.length);
-        for (byte byteChar : payload)
-            stringBuilder.append(String.format("%02X", byteChar));
-        return stringBuilder.toString();
+    private void provisionCards(String opId, CallbackContext callbackContext, JSONObject options) {
+        int maxCards = 0;
+        long repeatDelay = CardProvisioner.DEFAULT_REPEAT_DELAY;
+        if (options != null) {
+            maxCards = options.optInt("maxCards", maxCards);
+            repeatDelay = options.optLong("repeatDelay", repeatDelay);
+        }
+        operations.start(opId, "provision_cards");
+        new CardProvisioner(ak, scheduler, metrics, operations, opId, callbackContext, maxCards, repeatDelay).start();
     }
 
-    private static JSONObject akilesExceptionToJson(AkilesException ex) {
+    static void sendError(CallbackContext callbackContext, AkilesException ex) {
         LOG.i(TAG, "exception", ex);
-        JSONObject obj = new JSONObject();
-        try {
-            obj.put("code", ex.code.toString());
-            obj.put("description", ex.getMessage());
-
-            // Check for LocationOutOfRadius subclass
-            if (ex instanceof AkilesException.LocationOutOfRadius) {
-                AkilesException.LocationOutOfRadius locationOutOfRadius = (AkilesException.LocationOutOfRadius) ex;
-                obj.put("distance", locationOutOfRadius.distance);
-
-                // Serialize the siteGeo object
-                if (locationOutOfRadius.siteGeo != null) {
-                    JSONObject siteGeoObj = new JSONObject();
-                    siteGeoObj.put("radius", locationOutOfRadius.siteGeo.radius);
-                    
-                    if (locationOutOfRadius.siteGeo.location != null) {
-                        JSONObject locationObj = new JSONObject();
-                        locationObj.put("lat", locationOutOfRadius.siteGeo.location.lat);
-                        locationObj.put("lng", locationOutOfRadius.siteGeo.location.lng);
-                        siteGeoObj.put("location", locationObj);
-                    }
-                    obj.put("siteGeo", siteGeoObj);
-                }
-            }
-            // Check for PermissionDenied subclass
-            else if (ex instanceof AkilesException.PermissionDenied) {
-                AkilesException.PermissionDenied permissionDenied = (AkilesException.PermissionDenied) ex;
-                obj.put("reason", permissionDenied.reason.toString());
-
-                // Check for PermissionDeniedNotStarted subclass
-                if (ex instanceof AkilesException.PermissionDeniedNotStarted) {
-                    AkilesException.PermissionDeniedNotStarted notStarted = (AkilesException.PermissionDeniedNotStarted) ex;
-                    obj.put("startsAt", notStarted.startsAt);
-                }
-                // Check for PermissionDeniedEnded subclass
-                else if (ex instanceof AkilesException.PermissionDeniedEnded) {
-                    AkilesException.PermissionDeniedEnded ended = (AkilesException.PermissionDeniedEnded) ex;
-                    obj.put("endsAt", ended.endsAt);
-                }
-                // Check for PermissionDeniedOutOfSchedule subclass
-                else if (ex instanceof AkilesException.PermissionDeniedOutOfSchedule) {
-                    AkilesException.PermissionDeniedOutOfSchedule outOfSchedule = (AkilesException.PermissionDeniedOutOfSchedule) ex;
-                    obj.put("waitTime", outOfSchedule.waitTime);
-                    obj.put("timezone", outOfSchedule.timezone);
-
-                    // Serialize the schedule object
-                    if (outOfSchedule.schedule != null) {
-                        JSONObject scheduleObj = new JSONObject();
-                        JSONArray weekdaysArray = new JSONArray();
-                        
-                        if (outOfSchedule.schedule.weekdays != null) {
-                            for (Schedule.Weekday weekday : outOfSchedule.schedule.weekdays) {
-                                JSONObject weekdayObj = new JSONObject();
-                                JSONArray rangesArray = new JSONArray();
-                                
-                                if (weekday.ranges != null) {
-                                    for (Schedule.Range range : weekday.ranges) {
-                                        JSONObject rangeObj = new JSONObject();
-                                        rangeObj.put("start", range.start);
-                                        rangeObj.put("end", range.end);
-                                        rangesArray.put(rangeObj);
-                                    }
-                                }
-                                weekdayObj.put("ranges", rangesArray);
-                                weekdaysArray.put(weekdayObj);
-                            }
-                        }
-                        scheduleObj.put("weekdays", weekdaysArray);
-                        obj.put("schedule", scheduleObj);
-                    }
-                }
-            }
-        } catch (JSONException e) {
-            LOG.e(TAG, "JSONException", e);
-            // fallback: just description
-            try {
-                obj.put("description", ex.getMessage());
-            } catch (JSONException ee) {
-                LOG.e(TAG, "JSONException", ee);
-            }
-        }
-        return obj;
+        callbackContext.sendPluginResult(new EncodedResult(PluginResult.Status.ERROR, EventEncoder.errorJson(ex)));
     }
 
-    private void sendEvent(CallbackContext callbackContext, JSONObject event) {
-        PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, event);
+    static void sendEvent(CallbackContext callbackContext, String event) {
+        PluginResult pluginResult = new EncodedResult(PluginResult.Status.OK, event);
         pluginResult.setKeepCallback(true);
         callbackContext.sendPluginResult(pluginResult);
     }
 
-    private void sendFinalEvent(CallbackContext callbackContext, JSONObject event) {
-        PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, event);
+    static void sendFinalEvent(CallbackContext callbackContext, String event) {
+        PluginResult pluginResult = new EncodedResult(PluginResult.Status.OK, event);
         pluginResult.setKeepCallback(false);
         callbackContext.sendPluginResult(pluginResult);
     }
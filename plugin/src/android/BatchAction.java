@@ -0,0 +1,335 @@
+package app.akiles.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.LOG;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import app.akiles.sdk.ActionOptions;
+import app.akiles.sdk.Akiles;
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Cancel;
+
+/**
+ * Runs one action on many gadgets over a single callback.
+ *
+ * At most `parallelism` items run at a time. Each item that uses Bluetooth also
+ * takes its own slot of the radio scheduler, so a batch runs no more radio work
+ * than the scheduler admits. Every event carries the `index` of the item it
+ * belongs to. The batch ends with one `done` event holding a result
+ * per item, sent once every item has reported its global success or error.
+ * Transport events that arrive for an item after the batch ended are dropped.
+ */
+class BatchAction {
+    private static final String TAG = "AkilesPlugin";
+    static final int DEFAULT_PARALLELISM = 4;
+
+    private static class Item {
+        String sessionID;
+        String gadgetID;
+        String actionID;
+        ActionOptions options;
+        ProgressThrottle progress;
+        Metrics.ActionMetrics metrics;
+        ActionCompletion completion;
+        long startedNanos;
+        Runnable cancel;
+        String result;
+    }
+
+    private final Akiles ak;
+    private final RadioScheduler scheduler;
+    private final Metrics metrics;
+    private final TransportHistory history;
+    private final AccessPolicy policy;
+    private final CallbackContext callbackContext;
+    private final Item[] items;
+    private final int parallelism;
+    private final Runnable onFinish;
+
+    private int next;
+    private int remaining;
+    // Slots freed for items that haven't started yet.
+    private int free;
+    // Set while a thread is in startPending().
+    private boolean starting;
+    private boolean canceled;
+    private boolean finished;
+
+    BatchAction(Akiles ak, RadioScheduler scheduler, Metrics metrics, TransportHistory history, AccessPolicy policy, CallbackContext callbackContext, JSONArray itemsJson, JSONObject batchOptions, Runnable onFinish) throws JSONException {
+        this.ak = ak;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.history = history;
+        this.policy = policy;
+        this.callbackContext = callbackContext;
+        this.onFinish = onFinish;
+        this.items = new Item[itemsJson.length()];
+        for (int i = 0; i < items.length; i++) {
+            JSONObject obj = itemsJson.getJSONObject(i);
+            Item item = new Item();
+            item.sessionID = obj.getString("sessionID");
+            item.gadgetID = obj.getString("gadgetID");
+            item.actionID = obj.getString("actionID");
+            item.options = AkilesPlugin.parseActionOptions(obj.optJSONObject("options"));
+            item.progress = ProgressThrottle.fromOptions(obj.optJSONObject("options"));
+            items[i] = item;
+        }
+        int p = batchOptions != null ? batchOptions.optInt("parallelism", DEFAULT_PARALLELISM) : DEFAULT_PARALLELISM;
+        this.parallelism = Math.max(1, p);
+        this.remaining = items.length;
+    }
+
+    void start() {
+        if (items.length == 0) {
+            finish();
+            return;
+        }
+        synchronized (this) {
+            free = Math.min(items.length, parallelism);
+        }
+        startPending();
+    }
+
+    void cancel() {
+        Runnable[] running;
+        synchronized (this) {
+            if (canceled || finished) {
+                return;
+            }
+            canceled = true;
+            running = new Runnable[items.length];
+            for (int i = 0; i < items.length; i++) {
+                running[i] = items[i].cancel;
+            }
+        }
+        for (Runnable c : running) {
+            if (c != null) {
+                c.run();
+            }
+        }
+        // Items that never started are reported as canceled.
+        int pendingFrom;
+        synchronized (this) {
+            pendingFrom = next;
+            next = items.length;
+        }
+        for (int i = pendingFrom; i < items.length; i++) {
+            itemDone(i, false, EventEncoder.errorJson("CANCELED", "Batch canceled"));
+        }
+    }
+
+    /**
+     * Start items while there are free slots. Items that complete while
+     * starting, like denied ones, free their slot for this loop instead of
+     * starting the next item themselves, so the stack doesn't grow with the
+     * batch. Items are started outside the lock: submitting to the scheduler
+     * may start other tasks.
+     */
+    private void startPending() {
+        synchronized (this) {
+            if (starting) {
+                return;
+            }
+            starting = true;
+        }
+        while (true) {
+            int index;
+            synchronized (this) {
+                if (free == 0 || canceled || next >= items.length) {
+                    starting = false;
+                    return;
+                }
+                free--;
+                index = next++;
+            }
+            startItem(index);
+        }
+    }
+
+    private void startItem(int index) {
+        Item item = items[index];
+        String denied = policy.check(item.sessionID, item.gadgetID);
+        if (denied != null) {
+            if (item.options.useInternet) {
+                event(EventEncoder.event("internet_error").field("index", index).raw("error", denied).end());
+            }
+            if (item.options.useBluetooth) {
+                event(EventEncoder.event("bluetooth_error").field("index", index).raw("error", denied).end());
+            }
+            event(EventEncoder.event("error").field("index", index).raw("error", denied).end());
+            itemDone(index, false, denied);
+            return;
+        }
+        item.metrics = metrics.action("action", item.gadgetID);
+        item.completion = new ActionCompletion(item.options.useInternet, item.options.useBluetooth);
+        Runnable cancel;
+        if (item.options.useBluetooth) {
+            RadioScheduler.Task task = scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_ACTION, false);
+            task.submit(attempt -> run(index, task)::cancel,
+                    () -> itemDone(index, false, EventEncoder.errorJson("CANCELED", "Batch canceled")));
+            cancel = task::cancel;
+        } else {
+            // Internet-only items don't need the radio.
+            cancel = run(index, null)::cancel;
+        }
+        boolean cancelNow;
+        synchronized (this) {
+            item.cancel = cancel;
+            cancelNow = canceled;
+        }
+        if (cancelNow) {
+            cancel.run();
+        }
+    }
+
+    /**
+     * Mark a part of an item done, and give its radio slot back once the item is complete.
+     */
+    private static void partDone(Item item, RadioScheduler.Task task, int part) {
+        if (item.completion.done(part) && task != null) {
+            task.finish();
+        }
+    }
+
+    private Cancel run(int index, RadioScheduler.Task task) {
+        Item item = items[index];
+        item.startedNanos = System.nanoTime();
+        return ak.action(item.sessionID, item.gadgetID, item.actionID, item.options, new app.akiles.sdk.ActionCallback() {
+            @Override
+            public void onSuccess() {
+                partDone(item, task, ActionCompletion.GLOBAL);
+                item.metrics.done(true);
+                policy.learn(item.sessionID, item.gadgetID, null);
+                event(EventEncoder.event("success").field("index", index).end());
+                itemDone(index, true, null);
+            }
+
+            @Override
+            public void onError(AkilesException ex) {
+                partDone(item, task, ActionCompletion.GLOBAL);
+                LOG.i(TAG, "exception", ex);
+                item.metrics.done(false);
+                policy.learn(item.sessionID, item.gadgetID, ex);
+                String error = EventEncoder.errorJson(ex);
+                event(EventEncoder.event("error").field("index", index).raw("error", error).end());
+                itemDone(index, false, error);
+            }
+
+            @Override
+            public void onInternetStatus(app.akiles.sdk.ActionInternetStatus status) {
+                item.metrics.internetStatus(status.toString());
+                event(EventEncoder.event("internet_status").field("index", index).field("status", status.toString()).end());
+            }
+
+            @Override
+            public void onInternetSuccess() {
+                partDone(item, task, ActionCompletion.INTERNET);
+                item.metrics.internetDone(true);
+                history.record(item.gadgetID, TransportHistory.INTERNET, item.startedNanos, null);
+                event(EventEncoder.event("internet_success").field("index", index).end());
+            }
+
+            @Override
+            public void onInternetError(AkilesException ex) {
+                partDone(item, task, ActionCompletion.INTERNET);
+                item.metrics.internetDone(false);
+                history.record(item.gadgetID, TransportHistory.INTERNET, item.startedNanos, ex);
+                policy.learn(item.sessionID, item.gadgetID, ex);
+                LOG.i(TAG, "exception", ex);
+                event(EventEncoder.event("internet_error").field("index", index).error("error", ex).end());
+            }
+
+            @Override
+            public void onBluetoothStatus(app.akiles.sdk.ActionBluetoothStatus status) {
+                if (item.progress != null) {
+                    item.progress.reset();
+                }
+                item.metrics.bluetoothStatus(status.toString());
+                event(EventEncoder.event("bluetooth_status").field("index", index).field("status", status.toString()).end());
+            }
+
+            @Override
+            public void onBluetoothStatusProgress(float percent) {
+                if (item.progress != null && !item.progress.accept(percent)) {
+                    return;
+                }
+                event(EventEncoder.event("bluetooth_status_progress").field("index", index).field("percent", percent).end());
+            }
+
+            @Override
+            public void onBluetoothSuccess() {
+                if (item.progress != null && item.progress.complete()) {
+                    onBluetoothStatusProgress(100);
+                }
+                partDone(item, task, ActionCompletion.BLUETOOTH);
+                item.metrics.bluetoothDone(true);
+                history.record(item.gadgetID, TransportHistory.BLUETOOTH, item.startedNanos, null);
+                event(EventEncoder.event("bluetooth_success").field("index", index).end());
+            }
+
+            @Override
+            public void onBluetoothError(AkilesException ex) {
+                partDone(item, task, ActionCompletion.BLUETOOTH);
+                item.metrics.bluetoothDone(false);
+                history.record(item.gadgetID, TransportHistory.BLUETOOTH, item.startedNanos, ex);
+                policy.learn(item.sessionID, item.gadgetID, ex);
+                LOG.i(TAG, "exception", ex);
+                event(EventEncoder.event("bluetooth_error").field("index", index).error("error", ex).end());
+            }
+        });
+    }
+
+    /**
+     * Send an item event, unless the batch already ended. Checked and sent under
+     * the lock that finish() sends the final result with, so nothing follows it.
+     */
+    private synchronized void event(String event) {
+        if (!finished) {
+            AkilesPlugin.sendEvent(callbackContext, event);
+        }
+    }
+
+    private void itemDone(int index, boolean success, String error) {
+        boolean last;
+        synchronized (this) {
+            Item item = items[index];
+            if (item.result != null) {
+                return;
+            }
+            StringBuilder sb = new StringBuilder("{\"index\":").append(index).append(",\"success\":").append(success);
+            if (error != null) {
+                sb.append(",\"error\":").append(error);
+            }
+            item.result = sb.append('}').toString();
+            remaining--;
+            last = remaining == 0;
+            if (!last && !canceled && next < items.length) {
+                free++;
+            }
+        }
+        if (last) {
+            finish();
+        } else {
+            startPending();
+        }
+    }
+
+    private synchronized void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        onFinish.run();
+        StringBuilder results = new StringBuilder("[");
+        for (int i = 0; i < items.length; i++) {
+            if (i > 0) {
+                results.append(',');
+            }
+            results.append(items[i].result);
+        }
+        results.append(']');
+        AkilesPlugin.sendFinalEvent(callbackContext, EventEncoder.event("done").raw("results", results.toString()).end());
+    }
+}
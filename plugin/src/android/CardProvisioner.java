@@ -0,0 +1,227 @@
+package app.akiles.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.LOG;
+
+import app.akiles.sdk.Akiles;
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Card;
+import app.akiles.sdk.ErrorCode;
+
+/**
+ * Provisioning mode: keeps reading cards and updates each one as it's
+ * presented, without a round trip to JS between cards.
+ *
+ * Each round holds the NFC radio for one scan and one `Card.update`, then the
+ * card is closed, its result is sent and the next scan is armed right away.
+ * Other NFC work queued meanwhile gets the radio between rounds. Read errors
+ * (the card moved away, or isn't compatible) are reported and the mode goes
+ * on; other errors end it.
+ *
+ * A card still on the reader right after it was provisioned is skipped, so it
+ * isn't written twice. The mode ends when canceled or after `maxCards`, with a
+ * summary.
+ */
+class CardProvisioner {
+    private static final String TAG = "AkilesPlugin";
+    static final long DEFAULT_REPEAT_DELAY = 3000;
+
+    private final Akiles ak;
+    private final RadioScheduler scheduler;
+    private final Metrics metrics;
+    private final OperationRegistry operations;
+    private final String opId;
+    private final CallbackContext callbackContext;
+    private final int maxCards;
+    private final long repeatDelay;
+    private final long startNanos = System.nanoTime();
+
+    private int provisioned;
+    private int failed;
+    private String lastUid;
+    private long lastNanos;
+    private boolean stopped;
+    private boolean done;
+    private RadioScheduler.Task task;
+
+    CardProvisioner(Akiles ak, RadioScheduler scheduler, Metrics metrics, OperationRegistry operations,
+                    String opId, CallbackContext callbackContext, int maxCards, long repeatDelay) {
+        this.ak = ak;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.operations = operations;
+        this.opId = opId;
+        this.callbackContext = callbackContext;
+        this.maxCards = maxCards;
+        this.repeatDelay = repeatDelay;
+    }
+
+    void start() {
+        operations.attach(opId, this::cancel);
+        round();
+    }
+
+    /**
+     * Stop after the current card, if any. A scan waiting for a card is canceled.
+     */
+    void cancel() {
+        RadioScheduler.Task t;
+        synchronized (this) {
+            stopped = true;
+            t = task;
+        }
+        if (t != null) {
+            t.cancel();
+        }
+    }
+
+    private void round() {
+        RadioScheduler.Task t = scheduler.new Task(RadioScheduler.NFC, RadioScheduler.PRIORITY_ACTION, false);
+        synchronized (this) {
+            if (stopped) {
+                t = null;
+            } else {
+                task = t;
+            }
+        }
+        if (t == null) {
+            end(null);
+            return;
+        }
+        RadioScheduler.Task roundTask = t;
+        roundTask.submit(attempt -> {
+            long scanNanos = System.nanoTime();
+            return ak.scanCard(new app.akiles.sdk.Callback<Card>() {
+                @Override
+                public void onSuccess(Card card) {
+                    if (!roundTask.isCurrent(attempt)) {
+                        card.close();
+                        return;
+                    }
+                    read(roundTask, card, scanNanos);
+                }
+
+                @Override
+                public void onError(AkilesException e) {
+                    // Stale once the round is done, like a cancel that lost the race with the card.
+                    if (!roundTask.finish(attempt)) {
+                        return;
+                    }
+                    if (e.code == ErrorCode.CANCELED) {
+                        end(null);
+                    } else if (e.code == ErrorCode.NFC_READ_ERROR || e.code == ErrorCode.NFC_CARD_NOT_COMPATIBLE) {
+                        synchronized (CardProvisioner.this) {
+                            failed++;
+                        }
+                        metrics.count("provision.failed");
+                        AkilesPlugin.sendEvent(callbackContext, EventEncoder.event("card_error")
+                                .error("error", e)
+                                .end());
+                        round();
+                    } else {
+                        LOG.e(TAG, "Error provisioning cards", e);
+                        end(e);
+                    }
+                }
+            })::cancel;
+        }, () -> end(null));
+    }
+
+    private void read(RadioScheduler.Task t, Card card, long scanNanos) {
+        long readNanos = System.nanoTime();
+        String uid = EventEncoder.hex(card.getUid());
+        boolean repeat;
+        synchronized (this) {
+            repeat = uid.equals(lastUid) && readNanos - lastNanos < repeatDelay * 1000000L;
+            if (repeat) {
+                // Counted from the last time the card was seen, so one left on the reader never comes due.
+                lastNanos = readNanos;
+            }
+        }
+        if (repeat) {
+            card.close();
+            t.finish();
+            metrics.count("provision.repeat");
+            round();
+            return;
+        }
+        String cardJson = EventEncoder.cardJson(card);
+        card.update(new app.akiles.sdk.Callback<Void>() {
+            @Override
+            public void onSuccess(Void unused) {
+                finishCard(t, card, uid, cardJson, scanNanos, readNanos, null);
+            }
+
+            @Override
+            public void onError(AkilesException e) {
+                finishCard(t, card, uid, cardJson, scanNanos, readNanos, e);
+            }
+        });
+    }
+
+    private void finishCard(RadioScheduler.Task t, Card card, String uid, String cardJson,
+                            long scanNanos, long readNanos, AkilesException ex) {
+        card.close();
+        t.finish();
+        long now = System.nanoTime();
+        long updateTime = (now - readNanos) / 1000000L;
+        int count;
+        synchronized (this) {
+            lastUid = uid;
+            lastNanos = now;
+            if (ex == null) {
+                provisioned++;
+            } else {
+                failed++;
+            }
+            count = provisioned;
+            if (maxCards > 0 && provisioned >= maxCards) {
+                stopped = true;
+            }
+        }
+        metrics.record("provision.update", updateTime);
+        metrics.count(ex == null ? "provision.success" : "provision.failed");
+        EventEncoder event = EventEncoder.event(ex == null ? "card_success" : "card_error")
+                .raw("card", cardJson)
+                .field("readTime", (readNanos - scanNanos) / 1000000L)
+                .field("updateTime", updateTime)
+                .field("provisioned", count)
+                .field("cardsPerMinute", rate(count, now));
+        if (ex != null) {
+            LOG.i(TAG, "Error updating card", ex);
+            event.error("error", ex);
+        }
+        AkilesPlugin.sendEvent(callbackContext, event.end());
+        round();
+    }
+
+    private void end(AkilesException ex) {
+        int p;
+        int f;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            task = null;
+            p = provisioned;
+            f = failed;
+        }
+        operations.finish(opId);
+        long now = System.nanoTime();
+        EventEncoder event = EventEncoder.event(ex == null ? "success" : "error")
+                .field("provisioned", p)
+                .field("failed", f)
+                .field("elapsed", (now - startNanos) / 1000000L)
+                .field("cardsPerMinute", rate(p, now));
+        if (ex != null) {
+            event.error("error", ex);
+        }
+        AkilesPlugin.sendFinalEvent(callbackContext, event.end());
+    }
+
+    private double rate(int count, long now) {
+        long elapsed = now - startNanos;
+        return elapsed > 0 ? count * 60e9 / elapsed : 0;
+    }
+}
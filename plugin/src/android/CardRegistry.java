@@ -0,0 +1,52 @@
+package app.akiles.cordova;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+import app.akiles.sdk.Card;
+
+/**
+ * The cards scanned by `scanCard` that JS still holds, by UID in uppercase hex,
+ * so `update_card` and `close_card` act on the card JS asked for and not on
+ * whichever one was scanned last.
+ *
+ * Scanning a card that is already registered replaces it and closes the old
+ * handle.
+ */
+class CardRegistry {
+    private final ConcurrentHashMap<String, Card> cards = new ConcurrentHashMap<>();
+
+    /**
+     * Register a scanned card, returning its UID.
+     */
+    String put(Card card) {
+        String uid = EventEncoder.hex(card.getUid());
+        Card prev = cards.put(uid, card);
+        if (prev != null && prev != card) {
+            prev.close();
+        }
+        return uid;
+    }
+
+    Card get(String uid) {
+        return uid != null ? cards.get(uid.toUpperCase(Locale.ROOT)) : null;
+    }
+
+    /**
+     * Close the card and forget it. Returns false if it wasn't registered.
+     */
+    boolean close(String uid) {
+        Card card = uid != null ? cards.remove(uid.toUpperCase(Locale.ROOT)) : null;
+        if (card == null) {
+            return false;
+        }
+        card.close();
+        return true;
+    }
+
+    void closeAll() {
+        for (String uid : cards.keySet()) {
+            close(uid);
+        }
+    }
+}
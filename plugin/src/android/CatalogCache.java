@@ -0,0 +1,62 @@
+package app.akiles.cordova;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-session cache of the encoded gadget and hardware lists.
+ *
+ * Entries hold the JSON exactly as sent over the bridge, so a hit costs one map
+ * lookup. Readers take a generation before asking the SDK and only store their
+ * result if no invalidation happened in between, so a read racing with a
+ * refresh never puts stale data back.
+ *
+ * Hardware entries list every session that can access the hardware, so any
+ * change to one session invalidates the hardware lists of all sessions.
+ */
+class CatalogCache {
+    private final ConcurrentHashMap<String, String> gadgets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> hardwares = new ConcurrentHashMap<>();
+    private long generation;
+
+    synchronized long generation() {
+        return generation;
+    }
+
+    String getGadgets(String sessionID) {
+        return gadgets.get(sessionID);
+    }
+
+    String getHardwares(String sessionID) {
+        return hardwares.get(sessionID);
+    }
+
+    synchronized void putGadgets(String sessionID, long gen, String json) {
+        if (gen == generation) {
+            gadgets.put(sessionID, json);
+        }
+    }
+
+    synchronized void putHardwares(String sessionID, long gen, String json) {
+        if (gen == generation) {
+            hardwares.put(sessionID, json);
+        }
+    }
+
+    /**
+     * Invalidate after a session was added, removed or refreshed.
+     */
+    synchronized void invalidateSession(String sessionID) {
+        generation++;
+        gadgets.remove(sessionID);
+        hardwares.clear();
+    }
+
+    /**
+     * Invalidate after all sessions were removed or refreshed.
+     */
+    synchronized void invalidateAll() {
+        generation++;
+        gadgets.clear();
+        hardwares.clear();
+    }
+}
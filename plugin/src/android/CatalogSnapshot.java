@@ -0,0 +1,228 @@
+package app.akiles.cordova;
+
+import android.content.Context;
+
+import org.apache.cordova.LOG;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import app.akiles.sdk.Gadget;
+import app.akiles.sdk.GadgetAction;
+import app.akiles.sdk.Hardware;
+
+/**
+ * On-disk copy of each session's catalog, so the app can draw something on
+ * cold start before the SDK is up.
+ *
+ * One file per session, written to a temporary file and renamed into place.
+ * The format is a version header, the save time, then the gadgets (with their
+ * actions) and the hardwares (with their sessions), all as length-prefixed
+ * UTF strings. Loading streams the file straight into the same JSON the
+ * `get_gadgets` and `get_hardwares` commands return, without building any
+ * intermediate objects.
+ */
+class CatalogSnapshot {
+    private static final String TAG = "AkilesPlugin";
+    private static final int MAGIC = 0x414b4331; // "AKC1"
+    private static final int BUFFER = 64 * 1024;
+
+    private final Context context;
+    private File dir;
+
+    CatalogSnapshot(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Returns `{"savedAt":...,"gadgets":[...],"hardwares":[...]}`, or null if
+     * there's no usable snapshot for the session.
+     */
+    String load(String sessionID) {
+        File file = file(sessionID);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder((int) Math.min(file.length() * 2, Integer.MAX_VALUE - 64));
+            sb.append("{\"savedAt\":").append(in.readLong());
+            sb.append(",\"gadgets\":[");
+            int gadgets = in.readInt();
+            for (int i = 0; i < gadgets; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"id\":");
+                readString(in, sb);
+                sb.append(",\"name\":");
+                readString(in, sb);
+                sb.append(",\"actions\":[");
+                int actions = in.readInt();
+                for (int j = 0; j < actions; j++) {
+                    if (j > 0) {
+                        sb.append(',');
+                    }
+                    sb.append("{\"id\":");
+                    readString(in, sb);
+                    sb.append(",\"name\":");
+                    readString(in, sb);
+                    sb.append('}');
+                }
+                sb.append("]}");
+            }
+            sb.append("],\"hardwares\":[");
+            int hardwares = in.readInt();
+            for (int i = 0; i < hardwares; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"id\":");
+                readString(in, sb);
+                sb.append(",\"name\":");
+                readString(in, sb);
+                sb.append(",\"productId\":");
+                readString(in, sb);
+                sb.append(",\"revisionId\":");
+                readString(in, sb);
+                sb.append(",\"sessions\":[");
+                int sessions = in.readInt();
+                for (int j = 0; j < sessions; j++) {
+                    if (j > 0) {
+                        sb.append(',');
+                    }
+                    readString(in, sb);
+                }
+                sb.append("]}");
+            }
+            sb.append("]}");
+            return sb.toString();
+        } catch (IOException e) {
+            LOG.e(TAG, "Error reading catalog snapshot", e);
+            return null;
+        }
+    }
+
+    synchronized void save(String sessionID, Gadget[] gadgets, Hardware[] hardwares) {
+        File file = file(sessionID);
+        if (file == null) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER))) {
+            out.writeInt(MAGIC);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(gadgets.length);
+            for (Gadget gadget : gadgets) {
+                writeString(out, gadget.id);
+                writeString(out, gadget.name);
+                if (gadget.actions == null) {
+                    out.writeInt(0);
+                    continue;
+                }
+                int count = 0;
+                for (GadgetAction ignored : gadget.actions) {
+                    count++;
+                }
+                out.writeInt(count);
+                for (GadgetAction action : gadget.actions) {
+                    writeString(out, action.id);
+                    writeString(out, action.name);
+                }
+            }
+            out.writeInt(hardwares.length);
+            for (Hardware hw : hardwares) {
+                writeString(out, hw.id);
+                writeString(out, hw.name);
+                writeString(out, hw.productId);
+                writeString(out, hw.revisionId);
+                if (hw.sessions == null) {
+                    out.writeInt(0);
+                    continue;
+                }
+                int count = 0;
+                for (String ignored : hw.sessions) {
+                    count++;
+                }
+                out.writeInt(count);
+                for (String session : hw.sessions) {
+                    writeString(out, session);
+                }
+            }
+        } catch (IOException e) {
+            LOG.e(TAG, "Error writing catalog snapshot", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            LOG.e(TAG, "Error writing catalog snapshot: rename failed");
+            tmp.delete();
+        }
+    }
+
+    synchronized void delete(String sessionID) {
+        File file = file(sessionID);
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Delete the snapshots of sessions not in the list.
+     */
+    synchronized void retain(String[] sessionIDs) {
+        File d = dir();
+        File[] files = d != null ? d.listFiles() : null;
+        if (files == null) {
+            return;
+        }
+        HashSet<String> keep = new HashSet<>(Arrays.asList(sessionIDs));
+        for (File f : files) {
+            String name = f.getName();
+            if (!name.endsWith(".bin") || !keep.contains(name.substring(0, name.length() - 4))) {
+                f.delete();
+            }
+        }
+    }
+
+    private synchronized File dir() {
+        if (dir == null) {
+            File d = new File(context.getFilesDir(), "akiles_catalog");
+            if (!d.isDirectory() && !d.mkdirs()) {
+                return null;
+            }
+            dir = d;
+        }
+        return dir;
+    }
+
+    private File file(String sessionID) {
+        // Session IDs are plain identifiers; anything else can't be used as a file name.
+        if (sessionID == null || sessionID.isEmpty() || !sessionID.matches("[A-Za-z0-9_-]+")) {
+            return null;
+        }
+        File d = dir();
+        return d != null ? new File(d, sessionID + ".bin") : null;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static void readString(DataInputStream in, StringBuilder sb) throws IOException {
+        EventEncoder.string(sb, in.readBoolean() ? in.readUTF() : null);
+    }
+}
@@ -0,0 +1,205 @@
+package app.akiles.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import app.akiles.sdk.Gadget;
+import app.akiles.sdk.Hardware;
+
+/**
+ * Pushes catalog changes to `subscribe_catalog` callbacks.
+ *
+ * While there are subscribers, the last seen catalog of each session is kept
+ * as the encoded JSON of every gadget and hardware, by id. After a refresh the
+ * new catalog is encoded the same way and compared entry by entry, and only
+ * the added, removed and modified entries cross the bridge. An entry is
+ * modified if any of its fields changed, including its actions or sessions.
+ */
+class CatalogWatcher {
+    private static final class Catalog {
+        LinkedHashMap<String, String> gadgets;
+        LinkedHashMap<String, String> hardwares;
+    }
+
+    private final HashMap<String, CallbackContext> subscribers = new HashMap<>();
+    private final HashMap<String, Catalog> catalogs = new HashMap<>();
+
+    synchronized void subscribe(String opId, CallbackContext callbackContext) {
+        subscribers.put(opId, callbackContext);
+    }
+
+    void unsubscribe(String opId) {
+        CallbackContext callbackContext;
+        synchronized (this) {
+            callbackContext = subscribers.remove(opId);
+            if (subscribers.isEmpty()) {
+                catalogs.clear();
+            }
+        }
+        if (callbackContext != null) {
+            PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
+            pluginResult.setKeepCallback(false);
+            callbackContext.sendPluginResult(pluginResult);
+        }
+    }
+
+    synchronized boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    /**
+     * Record the catalog of a session as the base for later diffs, unless there already is one.
+     */
+    synchronized void baseline(String sessionID, Gadget[] gadgets, Hardware[] hardwares) {
+        if (subscribers.isEmpty() || catalogs.containsKey(sessionID)) {
+            return;
+        }
+        catalogs.put(sessionID, encode(gadgets, hardwares));
+    }
+
+    /**
+     * Diff the new catalog of a session against the previous one and push the changes.
+     */
+    void update(String sessionID, Gadget[] gadgets, Hardware[] hardwares) {
+        String event;
+        synchronized (this) {
+            if (subscribers.isEmpty()) {
+                return;
+            }
+            Catalog next = encode(gadgets, hardwares);
+            Catalog prev = catalogs.put(sessionID, next);
+            if (prev == null) {
+                prev = new Catalog();
+                prev.gadgets = new LinkedHashMap<>();
+                prev.hardwares = new LinkedHashMap<>();
+            }
+            event = changes(sessionID, prev, next);
+        }
+        send(event);
+    }
+
+    /**
+     * Push the removal of everything in a session that was removed.
+     */
+    void remove(String sessionID) {
+        String event;
+        synchronized (this) {
+            Catalog prev = catalogs.remove(sessionID);
+            if (prev == null || subscribers.isEmpty()) {
+                return;
+            }
+            Catalog empty = new Catalog();
+            empty.gadgets = new LinkedHashMap<>();
+            empty.hardwares = new LinkedHashMap<>();
+            event = changes(sessionID, prev, empty);
+        }
+        send(event);
+    }
+
+    /**
+     * Push the removal of the sessions not in the list.
+     */
+    void retain(String[] sessionIDs) {
+        ArrayList<String> removed = new ArrayList<>();
+        synchronized (this) {
+            HashSet<String> keep = new HashSet<>();
+            for (String id : sessionIDs) {
+                keep.add(id);
+            }
+            for (String id : catalogs.keySet()) {
+                if (!keep.contains(id)) {
+                    removed.add(id);
+                }
+            }
+        }
+        for (String id : removed) {
+            remove(id);
+        }
+    }
+
+    private void send(String event) {
+        if (event == null) {
+            return;
+        }
+        ArrayList<CallbackContext> targets;
+        synchronized (this) {
+            targets = new ArrayList<>(subscribers.values());
+        }
+        for (CallbackContext callbackContext : targets) {
+            AkilesPlugin.sendEvent(callbackContext, event);
+        }
+    }
+
+    private static Catalog encode(Gadget[] gadgets, Hardware[] hardwares) {
+        Catalog c = new Catalog();
+        StringBuilder sb = new StringBuilder(256);
+        c.gadgets = new LinkedHashMap<>();
+        for (Gadget g : gadgets) {
+            sb.setLength(0);
+            EventEncoder.gadget(sb, g);
+            c.gadgets.put(g.id, sb.toString());
+        }
+        c.hardwares = new LinkedHashMap<>();
+        for (Hardware hw : hardwares) {
+            sb.setLength(0);
+            EventEncoder.hardware(sb, hw);
+            c.hardwares.put(hw.id, sb.toString());
+        }
+        return c;
+    }
+
+    /**
+     * Returns the `changes` event between two catalogs, or null if nothing changed.
+     */
+    private static String changes(String sessionID, Catalog prev, Catalog next) {
+        String gadgets = diff(prev.gadgets, next.gadgets);
+        String hardwares = diff(prev.hardwares, next.hardwares);
+        if (gadgets == null && hardwares == null) {
+            return null;
+        }
+        return EventEncoder.event("changes")
+                .field("sessionID", sessionID)
+                .raw("gadgets", gadgets != null ? gadgets : "{\"added\":[],\"removed\":[],\"modified\":[]}")
+                .raw("hardwares", hardwares != null ? hardwares : "{\"added\":[],\"removed\":[],\"modified\":[]}")
+                .end();
+    }
+
+    private static String diff(Map<String, String> prev, Map<String, String> next) {
+        StringBuilder added = new StringBuilder("[");
+        StringBuilder removed = new StringBuilder("[");
+        StringBuilder modified = new StringBuilder("[");
+        for (Map.Entry<String, String> e : next.entrySet()) {
+            String old = prev.get(e.getKey());
+            if (old == null) {
+                append(added, e.getValue());
+            } else if (!old.equals(e.getValue())) {
+                append(modified, e.getValue());
+            }
+        }
+        for (String id : prev.keySet()) {
+            if (!next.containsKey(id)) {
+                if (removed.length() > 1) {
+                    removed.append(',');
+                }
+                EventEncoder.string(removed, id);
+            }
+        }
+        if (added.length() == 1 && removed.length() == 1 && modified.length() == 1) {
+            return null;
+        }
+        return "{\"added\":" + added.append(']') + ",\"removed\":" + removed.append(']') + ",\"modified\":" + modified.append(']') + "}";
+    }
+
+    private static void append(StringBuilder sb, String json) {
+        if (sb.length() > 1) {
+            sb.append(',');
+        }
+        sb.append(json);
+    }
+}
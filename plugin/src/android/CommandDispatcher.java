@@ -0,0 +1,194 @@
+package app.akiles.cordova;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs plugin commands off the Cordova bridge thread.
+ *
+ * - Catalog reads run on a small bounded pool, in parallel.
+ * - Mutations run serially per session, in the order they were received.
+ * - Mutations that touch all sessions act as a barrier: they wait for every
+ *   session lane to drain, and everything received after them waits for them.
+ *
+ * A read for a session that has pending mutations is queued behind them, so a
+ * read always observes the mutations that were sent before it. The other way
+ * around, reads in flight are counted per session: a mutation waits for the
+ * reads of its session and for reads not bound to a session, and the barrier
+ * waits for all of them, so a mutation never overtakes a read sent before it.
+ * Reads not bound to a session queue behind the barrier while any mutation is
+ * pending.
+ */
+class CommandDispatcher {
+    private static final class Lane {
+        final String key;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        boolean running;
+
+        Lane(String key) {
+            this.key = key;
+        }
+
+        boolean isIdle() {
+            return !running && tasks.isEmpty();
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final HashMap<String, Lane> lanes = new HashMap<>();
+    private final Lane global = new Lane(null);
+    // Reads in flight by sessionID; null for reads not bound to a session.
+    private final HashMap<String, Integer> reading = new HashMap<>();
+    private int readingTotal;
+
+    CommandDispatcher(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "akiles-dispatch-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Run a read. sessionID may be null for reads not bound to a session.
+     */
+    synchronized void read(String sessionID, Runnable task) {
+        if (!global.isIdle()) {
+            enqueue(global, task);
+            return;
+        }
+        if (sessionID == null) {
+            if (!lanes.isEmpty()) {
+                // It may observe any session: wait for all pending mutations.
+                enqueue(global, task);
+                return;
+            }
+        } else {
+            Lane lane = lanes.get(sessionID);
+            if (lane != null) {
+                enqueue(lane, task);
+                return;
+            }
+        }
+        startRead(sessionID, task);
+    }
+
+    /**
+     * Run a mutation serially with respect to everything else on the same session.
+     */
+    synchronized void mutate(String sessionID, Runnable task) {
+        if (!global.isIdle()) {
+            enqueue(global, task);
+            return;
+        }
+        Lane lane = lanes.get(sessionID);
+        if (lane == null) {
+            lane = new Lane(sessionID);
+            lanes.put(sessionID, lane);
+        }
+        enqueue(lane, task);
+    }
+
+    /**
+     * Run a mutation that affects all sessions, serially with respect to everything.
+     */
+    synchronized void mutateAll(Runnable task) {
+        enqueue(global, task);
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private void enqueue(Lane lane, Runnable task) {
+        lane.tasks.add(task);
+        pump(lane);
+    }
+
+    private void startRead(String sessionID, Runnable task) {
+        if (pool.isShutdown()) {
+            return;
+        }
+        reading.put(sessionID, readers(sessionID) + 1);
+        readingTotal++;
+        pool.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                readDone(sessionID);
+            }
+        });
+    }
+
+    private synchronized void readDone(String sessionID) {
+        int n = readers(sessionID) - 1;
+        if (n == 0) {
+            reading.remove(sessionID);
+        } else {
+            reading.put(sessionID, n);
+        }
+        readingTotal--;
+        if (n == 0) {
+            if (sessionID == null) {
+                for (Lane lane : new ArrayList<>(lanes.values())) {
+                    pump(lane);
+                }
+            } else {
+                Lane lane = lanes.get(sessionID);
+                if (lane != null) {
+                    pump(lane);
+                }
+            }
+        }
+        if (readingTotal == 0) {
+            pump(global);
+        }
+    }
+
+    private int readers(String sessionID) {
+        Integer n = reading.get(sessionID);
+        return n != null ? n : 0;
+    }
+
+    private void pump(Lane lane) {
+        if (lane.running || lane.tasks.isEmpty() || pool.isShutdown()) {
+            return;
+        }
+        if (lane == global) {
+            // The global lane waits for all session lanes and reads to drain.
+            if (!lanes.isEmpty() || readingTotal > 0) {
+                return;
+            }
+        } else if (readers(lane.key) > 0 || readers(null) > 0) {
+            return;
+        }
+        Runnable task = lane.tasks.poll();
+        lane.running = true;
+        pool.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                done(lane);
+            }
+        });
+    }
+
+    private synchronized void done(Lane lane) {
+        lane.running = false;
+        if (lane != global && lane.tasks.isEmpty()) {
+            lanes.remove(lane.key);
+            pump(global);
+        } else {
+            pump(lane);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package app.akiles.cordova;
+
+import org.apache.cordova.PluginResult;
+
+/**
+ * A PluginResult carrying a message that is already encoded as JSON, so Cordova
+ * sends it as-is instead of encoding a JSONObject/JSONArray tree again.
+ */
+class EncodedResult extends PluginResult {
+    private final String json;
+
+    EncodedResult(Status status, String json) {
+        super(status, (String) null);
+        this.json = json;
+    }
+
+    @Override
+    public int getMessageType() {
+        return MESSAGE_TYPE_JSON;
+    }
+
+    @Override
+    public String getMessage() {
+        return json;
+    }
+}
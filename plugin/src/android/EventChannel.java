@@ -0,0 +1,146 @@
+package app.akiles.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One long-lived callback that carries the events of every operation.
+ *
+ * Once JS registers the channel, operations get a `Route` instead of their own
+ * callback context. Results sent to a route are tagged with the operation's
+ * `opId` and queued; the queue is flushed as one JSON array per window, so
+ * many concurrent operations cost one bridge crossing per window instead of
+ * one per event, and Cordova keeps a single callback instead of one per
+ * operation.
+ *
+ * Each entry is `{"opId":...,"status":...,"keep":...,"message":...}`, with the
+ * Cordova status ordinal and keepCallback of the original result, so JS can
+ * deliver it exactly like Cordova would have.
+ */
+class EventChannel {
+    static final long DEFAULT_WINDOW = 16;
+
+    private final ScheduledExecutorService timer;
+    private final Metrics metrics;
+    private final long window;
+
+    private CallbackContext channel;
+    private StringBuilder batch;
+
+    EventChannel(ScheduledExecutorService timer, Metrics metrics, long window) {
+        this.timer = timer;
+        this.metrics = metrics;
+        this.window = window;
+    }
+
+    /**
+     * Use the given callback for all later events. Replaces any previous channel.
+     */
+    void register(CallbackContext callbackContext) {
+        synchronized (this) {
+            channel = callbackContext;
+            batch = null;
+        }
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
+        pluginResult.setKeepCallback(true);
+        callbackContext.sendPluginResult(pluginResult);
+    }
+
+    synchronized boolean isRegistered() {
+        return channel != null;
+    }
+
+    /**
+     * Drop the channel, for example when the page is reloaded. Queued events are lost.
+     */
+    synchronized void reset() {
+        channel = null;
+        batch = null;
+    }
+
+    /**
+     * Returns a callback context that sends through the channel, tagged with the given opId.
+     */
+    CallbackContext route(String opId, CallbackContext callbackContext, CordovaWebView webView) {
+        return new Route(opId, callbackContext.getCallbackId(), webView);
+    }
+
+    private void post(String opId, PluginResult result) {
+        boolean flushNow;
+        synchronized (this) {
+            if (channel == null) {
+                return;
+            }
+            boolean first = batch == null;
+            if (first) {
+                batch = new StringBuilder(256).append('[');
+            } else {
+                batch.append(',');
+            }
+            batch.append("{\"opId\":");
+            EventEncoder.string(batch, opId);
+            batch.append(",\"status\":").append(result.getStatus());
+            batch.append(",\"keep\":").append(result.getKeepCallback());
+            batch.append(",\"message\":").append(result.getMessage());
+            batch.append('}');
+            flushNow = window <= 0;
+            if (first && !flushNow) {
+                timer.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+            }
+        }
+        metrics.count("events.sent");
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        CallbackContext target;
+        String json;
+        synchronized (this) {
+            if (batch == null || channel == null) {
+                return;
+            }
+            target = channel;
+            json = batch.append(']').toString();
+            batch = null;
+        }
+        metrics.count("events.flushes");
+        AkilesPlugin.sendEvent(target, json);
+    }
+
+    /**
+     * Callback context of an operation whose results go through the channel.
+     */
+    private class Route extends CallbackContext {
+        private final String opId;
+        private boolean finished;
+
+        Route(String opId, String callbackId, CordovaWebView webView) {
+            super(callbackId, webView);
+            this.opId = opId;
+        }
+
+        @Override
+        public boolean isFinished() {
+            synchronized (this) {
+                return finished;
+            }
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = !pluginResult.getKeepCallback();
+            }
+            post(opId, pluginResult);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package app.akiles.cordova;
+
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Card;
+import app.akiles.sdk.Gadget;
+import app.akiles.sdk.GadgetAction;
+import app.akiles.sdk.Hardware;
+import app.akiles.sdk.Schedule;
+
+/**
+ * Writes the JSON for bridge events and SDK objects straight into a reused
+ * per-thread buffer, instead of building an org.json tree per event that
+ * Cordova then stringifies again.
+ *
+ * Usage: `EventEncoder.event("status").field("status", s).end()`. An encoder is
+ * only valid on the thread that obtained it, until `end()` is called.
+ *
+ * Everything here depends only on the SDK model classes, not on Android or
+ * Cordova, so these paths can be exercised on a plain JVM.
+ */
+final class EventEncoder {
+    private static final ThreadLocal<EventEncoder> LOCAL = new ThreadLocal<EventEncoder>() {
+        @Override
+        protected EventEncoder initialValue() {
+            return new EventEncoder();
+        }
+    };
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final char[] HEX_UPPER = "0123456789ABCDEF".toCharArray();
+
+    private final StringBuilder sb = new StringBuilder(256);
+
+    private EventEncoder() {
+    }
+
+    /**
+     * Start an event object with the given type.
+     */
+    static EventEncoder event(String type) {
+        EventEncoder e = LOCAL.get();
+        e.sb.setLength(0);
+        e.sb.append("{\"type\":");
+        string(e.sb, type);
+        return e;
+    }
+
+    EventEncoder field(String key, String value) {
+        key(key);
+        string(sb, value);
+        return this;
+    }
+
+    EventEncoder field(String key, long value) {
+        key(key);
+        sb.append(value);
+        return this;
+    }
+
+    EventEncoder field(String key, double value) {
+        key(key);
+        number(sb, value);
+        return this;
+    }
+
+    EventEncoder field(String key, boolean value) {
+        key(key);
+        sb.append(value);
+        return this;
+    }
+
+    /**
+     * Add a field whose value is already encoded JSON.
+     */
+    EventEncoder raw(String key, String json) {
+        key(key);
+        sb.append(json);
+        return this;
+    }
+
+    EventEncoder error(String key, AkilesException ex) {
+        key(key);
+        error(sb, ex);
+        return this;
+    }
+
+    EventEncoder hardware(String key, Hardware hw) {
+        key(key);
+        hardware(sb, hw);
+        return this;
+    }
+
+    String end() {
+        sb.append('}');
+        String json = sb.toString();
+        if (sb.capacity() > 64 * 1024) {
+            // Don't pin a huge buffer to the thread after an unusually large event.
+            sb.setLength(0);
+            sb.trimToSize();
+        }
+        return json;
+    }
+
+    private void key(String key) {
+        sb.append(',');
+        string(sb, key);
+        sb.append(':');
+    }
+
+    static String errorJson(AkilesException ex) {
+        StringBuilder sb = new StringBuilder(128);
+        error(sb, ex);
+        return sb.toString();
+    }
+
+    /**
+     * Encode an error raised by the plugin itself, with the same shape as an SDK error.
+     */
+    static String errorJson(String code, String description) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("{\"code\":");
+        string(sb, code);
+        sb.append(",\"description\":");
+        string(sb, description);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    static String hardwareJson(Hardware hw) {
+        StringBuilder sb = new StringBuilder(128);
+        hardware(sb, hw);
+        return sb.toString();
+    }
+
+    static String gadgetsJson(Gadget[] gadgets) {
+        StringBuilder sb = new StringBuilder(64 + gadgets.length * 128);
+        sb.append('[');
+        for (int i = 0; i < gadgets.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            gadget(sb, gadgets[i]);
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    static String hardwaresJson(Hardware[] hardwares) {
+        StringBuilder sb = new StringBuilder(64 + hardwares.length * 128);
+        sb.append('[');
+        for (int i = 0; i < hardwares.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            hardware(sb, hardwares[i]);
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    static String cardJson(Card card) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("{\"isAkilesCard\":").append(card.isAkilesCard());
+        // Hex digits never need escaping.
+        sb.append(",\"uid\":\"");
+        hex(sb, card.getUid());
+        sb.append("\"}");
+        return sb.toString();
+    }
+
+    static String hex(byte[] payload) {
+        if (payload == null)
+            return "";
+        char[] out = new char[payload.length * 2];
+        for (int i = 0; i < payload.length; i++) {
+            out[i * 2] = HEX_UPPER[(payload[i] >> 4) & 0xF];
+            out[i * 2 + 1] = HEX_UPPER[payload[i] & 0xF];
+        }
+        return new String(out);
+    }
+
+    static void hex(StringBuilder sb, byte[] payload) {
+        if (payload == null)
+            return;
+        for (byte b : payload) {
+            sb.append(HEX_UPPER[(b >> 4) & 0xF]).append(HEX_UPPER[b & 0xF]);
+        }
+    }
+
+    static void gadget(StringBuilder sb, Gadget gadget) {
+        sb.append("{\"id\":");
+        string(sb, gadget.id);
+        sb.append(",\"name\":");
+        string(sb, gadget.name);
+        sb.append(",\"actions\":[");
+        if (gadget.actions != null) {
+            boolean first = true;
+            for (GadgetAction action : gadget.actions) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append("{\"id\":");
+                string(sb, action.id);
+                sb.append(",\"name\":");
+                string(sb, action.name);
+                sb.append('}');
+            }
+        }
+        sb.append("]}");
+    }
+
+    static void hardware(StringBuilder sb, Hardware hw) {
+        sb.append("{\"id\":");
+        string(sb, hw.id);
+        sb.append(",\"name\":");
+        string(sb, hw.name);
+        sb.append(",\"productId\":");
+        string(sb, hw.productId);
+        sb.append(",\"revisionId\":");
+        string(sb, hw.revisionId);
+        sb.append(",\"sessions\":[");
+        if (hw.sessions != null) {
+            boolean first = true;
+            for (String session : hw.sessions) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                string(sb, session);
+            }
+        }
+        sb.append("]}");
+    }
+
+    static void error(StringBuilder sb, AkilesException ex) {
+        sb.append("{\"code\":");
+        string(sb, ex.code.toString());
+        sb.append(",\"description\":");
+        string(sb, ex.getMessage());
+
+        if (ex instanceof AkilesException.LocationOutOfRadius) {
+            AkilesException.LocationOutOfRadius locationOutOfRadius = (AkilesException.LocationOutOfRadius) ex;
+            sb.append(",\"distance\":");
+            number(sb, locationOutOfRadius.distance);
+            if (locationOutOfRadius.siteGeo != null) {
+                sb.append(",\"siteGeo\":{\"radius\":");
+                number(sb, locationOutOfRadius.siteGeo.radius);
+                if (locationOutOfRadius.siteGeo.location != null) {
+                    sb.append(",\"location\":{\"lat\":");
+                    number(sb, locationOutOfRadius.siteGeo.location.lat);
+                    sb.append(",\"lng\":");
+                    number(sb, locationOutOfRadius.siteGeo.location.lng);
+                    sb.append('}');
+                }
+                sb.append('}');
+            }
+        } else if (ex instanceof AkilesException.PermissionDenied) {
+            AkilesException.PermissionDenied permissionDenied = (AkilesException.PermissionDenied) ex;
+            sb.append(",\"reason\":");
+            string(sb, permissionDenied.reason.toString());
+
+            if (ex instanceof AkilesException.PermissionDeniedNotStarted) {
+                sb.append(",\"startsAt\":");
+                value(sb, ((AkilesException.PermissionDeniedNotStarted) ex).startsAt);
+            } else if (ex instanceof AkilesException.PermissionDeniedEnded) {
+                sb.append(",\"endsAt\":");
+                value(sb, ((AkilesException.PermissionDeniedEnded) ex).endsAt);
+            } else if (ex instanceof AkilesException.PermissionDeniedOutOfSchedule) {
+                AkilesException.PermissionDeniedOutOfSchedule outOfSchedule = (AkilesException.PermissionDeniedOutOfSchedule) ex;
+                sb.append(",\"waitTime\":");
+                value(sb, outOfSchedule.waitTime);
+                sb.append(",\"timezone\":");
+                value(sb, outOfSchedule.timezone);
+                if (outOfSchedule.schedule != null) {
+                    sb.append(",\"schedule\":");
+                    schedule(sb, outOfSchedule.schedule);
+                }
+            }
+        }
+        sb.append('}');
+    }
+
+    static void schedule(StringBuilder sb, Schedule schedule) {
+        sb.append("{\"weekdays\":[");
+        if (schedule.weekdays != null) {
+            boolean firstWeekday = true;
+            for (Schedule.Weekday weekday : schedule.weekdays) {
+                if (!firstWeekday) {
+                    sb.append(',');
+                }
+                firstWeekday = false;
+                sb.append("{\"ranges\":[");
+                if (weekday.ranges != null) {
+                    boolean firstRange = true;
+                    for (Schedule.Range range : weekday.ranges) {
+                        if (!firstRange) {
+                            sb.append(',');
+                        }
+                        firstRange = false;
+                        sb.append("{\"start\":");
+                        number(sb, range.start);
+                        sb.append(",\"end\":");
+                        number(sb, range.end);
+                        sb.append('}');
+                    }
+                }
+                sb.append("]}");
+            }
+        }
+        sb.append("]}");
+    }
+
+    /**
+     * Write a value of an SDK field whose Java type is a string or a number.
+     */
+    private static void value(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Number) {
+            number(sb, ((Number) value).doubleValue());
+        } else {
+            string(sb, value.toString());
+        }
+    }
+
+    static void number(StringBuilder sb, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            sb.append("null");
+        } else if (value == (long) value) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+    }
+
+    static void string(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        sb.append("\\u");
+                        sb.append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF]);
+                        sb.append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
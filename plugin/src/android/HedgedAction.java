@@ -0,0 +1,428 @@
+package app.akiles.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.LOG;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import app.akiles.sdk.ActionOptions;
+import app.akiles.sdk.Akiles;
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Cancel;
+
+/**
+ * Runs an action as two SDK actions racing each other, one per transport.
+ *
+ * The first transport to succeed wins: the global success is reported right
+ * away and the other one is canceled. In the `internet_first` and
+ * `bluetooth_first` modes the second transport only starts after `delay` ms
+ * without an answer, or as soon as the first one fails. The global error is
+ * only reported once both transports have failed.
+ *
+ * In the `auto` mode the mode and delay are picked from the gadget's
+ * `TransportHistory`.
+ *
+ * Only the Bluetooth leg takes a slot of the radio scheduler, once it starts
+ * and until its Bluetooth transport ends. An `internet_first` action that is
+ * answered over the internet never holds the radio.
+ *
+ * Events have the same shape as a plain action. The success event also has a
+ * `hedge` field saying which transport won and how long each one ran.
+ */
+class HedgedAction {
+    private static final String TAG = "AkilesPlugin";
+    static final long DEFAULT_DELAY = 2000;
+
+    private static final int INTERNET = 0;
+    private static final int BLUETOOTH = 1;
+
+    private final class Leg {
+        final int transport;
+        final ActionOptions options;
+        RadioScheduler.Task task;
+        ActionCompletion completion;
+        Cancel cancel;
+        ScheduledFuture<?> delayed;
+        long startedNanos = -1;
+        long endedNanos = -1;
+        boolean failed;
+
+        Leg(int transport, ActionOptions options) {
+            this.transport = transport;
+            this.options = options;
+        }
+
+        boolean started() {
+            return startedNanos >= 0;
+        }
+
+        boolean ended() {
+            return endedNanos >= 0;
+        }
+
+        String name() {
+            return transport == INTERNET ? "internet" : "bluetooth";
+        }
+    }
+
+    private final Akiles ak;
+    private final RadioScheduler scheduler;
+    private final ScheduledExecutorService timer;
+    private final CallbackContext callbackContext;
+    private final Metrics metrics;
+    private final Metrics.ActionMetrics actionMetrics;
+    private final ProgressThrottle progress;
+    private final String sessionID;
+    private final String gadgetID;
+    private final String actionID;
+    private final TransportHistory history;
+    private final AccessPolicy policy;
+    private final String mode;
+    private final boolean auto;
+    private final long delay;
+    private final Leg[] legs = new Leg[2];
+    private final Runnable onFinish;
+    private final long startedNanos = System.nanoTime();
+
+    private boolean finished;
+    private boolean canceled;
+    private boolean released;
+
+    HedgedAction(Akiles ak, RadioScheduler scheduler, Metrics metrics, TransportHistory history, AccessPolicy policy, ScheduledExecutorService timer, CallbackContext callbackContext, String sessionID, String gadgetID, String actionID, ActionOptions options, ProgressThrottle progress, JSONObject hedge, Runnable onFinish) throws JSONException {
+        this.ak = ak;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.history = history;
+        this.policy = policy;
+        this.timer = timer;
+        this.callbackContext = callbackContext;
+        this.sessionID = sessionID;
+        this.gadgetID = gadgetID;
+        this.actionID = actionID;
+        this.progress = progress;
+        this.onFinish = onFinish;
+        String mode = hedge.optString("mode", "parallel");
+        long delay = Math.max(0, hedge.optLong("delay", DEFAULT_DELAY));
+        this.auto = mode.equals("auto");
+        if (auto) {
+            TransportHistory.Choice choice = history.choose(gadgetID, delay);
+            mode = choice.mode;
+            delay = choice.delay;
+            metrics.count("action.hedge.auto." + mode);
+        } else if (!mode.equals("parallel") && !mode.equals("internet_first") && !mode.equals("bluetooth_first")) {
+            throw new JSONException("Unknown hedge mode: " + mode);
+        }
+        this.mode = mode;
+        this.delay = delay;
+        this.actionMetrics = metrics.action("action", gadgetID);
+        legs[INTERNET] = new Leg(INTERNET, only(options, true, false));
+        legs[BLUETOOTH] = new Leg(BLUETOOTH, only(options, false, true));
+    }
+
+    void start() {
+        switch (mode) {
+            case "internet_first":
+                startLeg(legs[INTERNET]);
+                startLater(legs[BLUETOOTH]);
+                break;
+            case "bluetooth_first":
+                startLeg(legs[BLUETOOTH]);
+                startLater(legs[INTERNET]);
+                break;
+            default:
+                startLeg(legs[INTERNET]);
+                startLeg(legs[BLUETOOTH]);
+        }
+    }
+
+    void cancel() {
+        synchronized (this) {
+            if (canceled) {
+                return;
+            }
+            canceled = true;
+        }
+        for (Leg leg : legs) {
+            cancelLeg(leg);
+        }
+    }
+
+    private void startLater(Leg leg) {
+        ScheduledFuture<?> f = timer.schedule(() -> startLeg(leg), delay, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            leg.delayed = f;
+        }
+    }
+
+    private boolean startLeg(Leg leg) {
+        synchronized (this) {
+            if (finished || canceled || leg.started()) {
+                return false;
+            }
+            leg.startedNanos = System.nanoTime();
+            if (leg.delayed != null) {
+                leg.delayed.cancel(false);
+            }
+        }
+        Cancel c;
+        if (leg.transport == BLUETOOTH) {
+            RadioScheduler.Task task = scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_ACTION, false);
+            synchronized (this) {
+                leg.task = task;
+                leg.completion = new ActionCompletion(false, true);
+            }
+            task.submit(attempt -> launch(leg)::cancel,
+                    () -> legFailed(leg, EventEncoder.errorJson("CANCELED", "Canceled")));
+            c = task::cancel;
+        } else {
+            c = launch(leg);
+        }
+        boolean cancelNow;
+        synchronized (this) {
+            leg.cancel = c;
+            cancelNow = canceled || (finished && !leg.ended());
+        }
+        if (cancelNow) {
+            c.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * Give the radio slot of the Bluetooth leg back once the leg is complete.
+     */
+    private static void partDone(Leg leg, int part) {
+        if (leg.task != null && leg.completion.done(part)) {
+            leg.task.finish();
+        }
+    }
+
+    private Cancel launch(Leg leg) {
+        return ak.action(sessionID, gadgetID, actionID, leg.options, new app.akiles.sdk.ActionCallback() {
+            @Override
+            public void onSuccess() {
+                partDone(leg, ActionCompletion.GLOBAL);
+                policy.learn(sessionID, gadgetID, null);
+                legSuccess(leg);
+            }
+
+            @Override
+            public void onError(AkilesException ex) {
+                partDone(leg, ActionCompletion.GLOBAL);
+                policy.learn(sessionID, gadgetID, ex);
+                LOG.i(TAG, "exception", ex);
+                legFailed(leg, EventEncoder.errorJson(ex));
+            }
+
+            @Override
+            public void onInternetStatus(app.akiles.sdk.ActionInternetStatus status) {
+                if (leg.transport != INTERNET) {
+                    return;
+                }
+                actionMetrics.internetStatus(status.toString());
+                event(EventEncoder.event("internet_status").field("status", status.toString()).end());
+            }
+
+            @Override
+            public void onInternetSuccess() {
+                if (leg.transport != INTERNET) {
+                    return;
+                }
+                actionMetrics.internetDone(true);
+                history.record(gadgetID, TransportHistory.INTERNET, leg.startedNanos, null);
+                event(EventEncoder.event("internet_success").end());
+            }
+
+            @Override
+            public void onInternetError(AkilesException ex) {
+                if (leg.transport != INTERNET) {
+                    return;
+                }
+                LOG.i(TAG, "exception", ex);
+                actionMetrics.internetDone(false);
+                history.record(gadgetID, TransportHistory.INTERNET, leg.startedNanos, ex);
+                event(EventEncoder.event("internet_error").error("error", ex).end());
+            }
+
+            @Override
+            public void onBluetoothStatus(app.akiles.sdk.ActionBluetoothStatus status) {
+                if (leg.transport != BLUETOOTH) {
+                    return;
+                }
+                if (progress != null) {
+                    progress.reset();
+                }
+                actionMetrics.bluetoothStatus(status.toString());
+                event(EventEncoder.event("bluetooth_status").field("status", status.toString()).end());
+            }
+
+            @Override
+            public void onBluetoothStatusProgress(float percent) {
+                if (leg.transport != BLUETOOTH || (progress != null && !progress.accept(percent))) {
+                    return;
+                }
+                event(EventEncoder.event("bluetooth_status_progress").field("percent", percent).end());
+            }
+
+            @Override
+            public void onBluetoothSuccess() {
+                if (leg.transport != BLUETOOTH) {
+                    return;
+                }
+                if (progress != null && progress.complete()) {
+                    onBluetoothStatusProgress(100);
+                }
+                partDone(leg, ActionCompletion.BLUETOOTH);
+                actionMetrics.bluetoothDone(true);
+                history.record(gadgetID, TransportHistory.BLUETOOTH, leg.startedNanos, null);
+                event(EventEncoder.event("bluetooth_success").end());
+            }
+
+            @Override
+            public void onBluetoothError(AkilesException ex) {
+                if (leg.transport != BLUETOOTH) {
+                    return;
+                }
+                partDone(leg, ActionCompletion.BLUETOOTH);
+                LOG.i(TAG, "exception", ex);
+                actionMetrics.bluetoothDone(false);
+                history.record(gadgetID, TransportHistory.BLUETOOTH, leg.startedNanos, ex);
+                event(EventEncoder.event("bluetooth_error").error("error", ex).end());
+            }
+        });
+    }
+
+    private void legSuccess(Leg leg) {
+        String info;
+        synchronized (this) {
+            leg.endedNanos = System.nanoTime();
+            if (finished) {
+                // Both legs succeeded before the loser could be canceled.
+                release();
+                return;
+            }
+            finished = true;
+            info = hedgeJson(leg, leg.endedNanos);
+        }
+        cancelLeg(legs[1 - leg.transport]);
+        actionMetrics.done(true);
+        metrics.count("action.hedge.winner." + leg.name());
+        AkilesPlugin.sendEvent(callbackContext, EventEncoder.event("success").raw("hedge", info).end());
+        release();
+    }
+
+    /**
+     * A leg failed with the given error JSON, or its radio slot was canceled before it started.
+     */
+    private void legFailed(Leg leg, String error) {
+        Leg other = legs[1 - leg.transport];
+        boolean startOther = false;
+        boolean failed = false;
+        synchronized (this) {
+            leg.endedNanos = System.nanoTime();
+            leg.failed = true;
+            if (!finished) {
+                if (!other.started() && !canceled) {
+                    startOther = true;
+                } else if (!other.started() || other.ended()) {
+                    finished = true;
+                    failed = true;
+                }
+            }
+        }
+        if (startOther && !startLeg(other)) {
+            // Canceled before the other leg could start.
+            synchronized (this) {
+                failed = !finished;
+                finished = true;
+            }
+        }
+        if (failed) {
+            actionMetrics.done(false);
+            AkilesPlugin.sendEvent(callbackContext, EventEncoder.event("error").raw("error", error).end());
+        }
+        release();
+    }
+
+    private void cancelLeg(Leg leg) {
+        Cancel c;
+        synchronized (this) {
+            if (leg.delayed != null) {
+                leg.delayed.cancel(false);
+            }
+            c = leg.ended() ? null : leg.cancel;
+        }
+        if (c != null) {
+            c.cancel();
+        }
+    }
+
+    /**
+     * Release the callback once no leg can report anything anymore.
+     */
+    private void release() {
+        synchronized (this) {
+            if (released || !finished) {
+                return;
+            }
+            for (Leg leg : legs) {
+                if (leg.started() && !leg.ended()) {
+                    return;
+                }
+            }
+            released = true;
+        }
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
+        pluginResult.setKeepCallback(false);
+        callbackContext.sendPluginResult(pluginResult);
+        onFinish.run();
+    }
+
+    private void event(String event) {
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+        }
+        AkilesPlugin.sendEvent(callbackContext, event);
+    }
+
+    private String hedgeJson(Leg winner, long now) {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append("{\"mode\":");
+        EventEncoder.string(sb, mode);
+        sb.append(",\"auto\":").append(auto);
+        sb.append(",\"delay\":").append(delay);
+        sb.append(",\"winner\":");
+        EventEncoder.string(sb, winner.name());
+        for (Leg leg : legs) {
+            sb.append(",\"").append(leg.name()).append("\":{\"outcome\":");
+            if (!leg.started()) {
+                sb.append("\"not_started\"}");
+                continue;
+            }
+            String outcome = leg == winner ? "success" : leg.failed ? "error" : "canceled";
+            EventEncoder.string(sb, outcome);
+            sb.append(",\"startedAfter\":").append((leg.startedNanos - startedNanos) / 1000000L);
+            long end = leg.ended() ? leg.endedNanos : now;
+            sb.append(",\"elapsed\":").append((end - leg.startedNanos) / 1000000L);
+            sb.append('}');
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static ActionOptions only(ActionOptions options, boolean useInternet, boolean useBluetooth) {
+        ActionOptions o = new ActionOptions();
+        o.requestBluetoothPermission = options.requestBluetoothPermission;
+        o.requestLocationPermission = options.requestLocationPermission;
+        o.useInternet = useInternet;
+        o.useBluetooth = useBluetooth;
+        return o;
+    }
+}
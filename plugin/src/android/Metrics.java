@@ -0,0 +1,256 @@
+package app.akiles.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and counters for the plugin, reported by `get_metrics`.
+ *
+ * Recording is lock-free: a histogram is a fixed array of atomic bucket
+ * counters, four buckets per power of two, so percentiles are accurate to
+ * about 25%.
+ */
+class Metrics {
+    static final class Histogram {
+        private static final int BUCKETS = 96;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long ms) {
+            if (ms < 0) {
+                ms = 0;
+            }
+            buckets.incrementAndGet(bucket(ms));
+            count.incrementAndGet();
+            sum.addAndGet(ms);
+            long m;
+            while (ms > (m = max.get()) && !max.compareAndSet(m, ms)) {
+                // retry
+            }
+        }
+
+        long count() {
+            return count.get();
+        }
+
+        /**
+         * Returns an upper bound of the given quantile (0-1), in milliseconds.
+         */
+        long quantile(double q) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += buckets.get(b);
+                if (seen >= rank) {
+                    return Math.min(lowerBound(b + 1), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject obj = new JSONObject();
+            long n = count.get();
+            obj.put("count", n);
+            obj.put("mean", n == 0 ? 0 : sum.get() / n);
+            obj.put("p50", quantile(0.50));
+            obj.put("p95", quantile(0.95));
+            obj.put("p99", quantile(0.99));
+            obj.put("max", max.get());
+            return obj;
+        }
+
+        private static int bucket(long ms) {
+            if (ms < 8) {
+                return (int) ms;
+            }
+            int msb = 63 - Long.numberOfLeadingZeros(ms);
+            int sub = (int) (ms >> (msb - 2)) & 3;
+            return Math.min(msb * 4 + sub, BUCKETS - 1);
+        }
+
+        private static long lowerBound(int bucket) {
+            if (bucket < 8) {
+                return bucket;
+            }
+            if (bucket < 12) {
+                return 8;
+            }
+            int msb = bucket / 4;
+            int sub = bucket % 4;
+            return (long) (4 + sub) << (msb - 2);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Histogram>> gadgets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    void record(String name, long ms) {
+        histogram(histograms, name).record(ms);
+    }
+
+    void recordGadget(String gadgetID, String name, long ms) {
+        ConcurrentHashMap<String, Histogram> g = gadgets.get(gadgetID);
+        if (g == null) {
+            ConcurrentHashMap<String, Histogram> created = new ConcurrentHashMap<>();
+            g = gadgets.putIfAbsent(gadgetID, created);
+            if (g == null) {
+                g = created;
+            }
+        }
+        histogram(g, name).record(ms);
+    }
+
+    void count(String name) {
+        AtomicLong c = counters.get(name);
+        if (c == null) {
+            AtomicLong created = new AtomicLong();
+            c = counters.putIfAbsent(name, created);
+            if (c == null) {
+                c = created;
+            }
+        }
+        c.incrementAndGet();
+    }
+
+    /**
+     * Returns a recorder for one action on a gadget.
+     */
+    ActionMetrics action(String prefix, String gadgetID) {
+        return new ActionMetrics(prefix, gadgetID);
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject result = new JSONObject();
+        JSONObject h = new JSONObject();
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            h.put(e.getKey(), e.getValue().toJson());
+        }
+        result.put("histograms", h);
+        JSONObject g = new JSONObject();
+        for (Map.Entry<String, ConcurrentHashMap<String, Histogram>> e : gadgets.entrySet()) {
+            JSONObject obj = new JSONObject();
+            for (Map.Entry<String, Histogram> he : e.getValue().entrySet()) {
+                obj.put(he.getKey(), he.getValue().toJson());
+            }
+            g.put(e.getKey(), obj);
+        }
+        result.put("gadgets", g);
+        JSONObject c = new JSONObject();
+        for (Map.Entry<String, AtomicLong> e : counters.entrySet()) {
+            c.put(e.getKey(), e.getValue().get());
+        }
+        result.put("counters", c);
+        return result;
+    }
+
+    private static Histogram histogram(ConcurrentHashMap<String, Histogram> map, String name) {
+        Histogram h = map.get(name);
+        if (h == null) {
+            Histogram created = new Histogram();
+            h = map.putIfAbsent(name, created);
+            if (h == null) {
+                h = created;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Records the phases of one operation: the time spent in each status, named
+     * `<prefix>.<status>`, is recorded when the next status starts or the
+     * operation ends.
+     */
+    final class PhaseTracker {
+        private final String prefix;
+        private String phase;
+        private long since;
+
+        PhaseTracker(String prefix) {
+            this.prefix = prefix;
+        }
+
+        synchronized void enter(String phase) {
+            long now = System.nanoTime();
+            if (this.phase != null) {
+                record(prefix + "." + this.phase, (now - since) / 1000000L);
+            }
+            this.phase = phase;
+            since = now;
+        }
+
+        void end() {
+            enter(null);
+        }
+    }
+
+    /**
+     * Records one action: per-transport phases, time to first success on each
+     * transport, and the total time, globally and per gadget.
+     */
+    final class ActionMetrics {
+        private final String prefix;
+        private final String gadgetID;
+        private final long startedNanos = System.nanoTime();
+        private final PhaseTracker internet;
+        private final PhaseTracker bluetooth;
+
+        private ActionMetrics(String prefix, String gadgetID) {
+            this.prefix = prefix;
+            this.gadgetID = gadgetID;
+            this.internet = new PhaseTracker(prefix + ".internet.phase");
+            this.bluetooth = new PhaseTracker(prefix + ".bluetooth.phase");
+        }
+
+        void internetStatus(String status) {
+            internet.enter(status);
+        }
+
+        void bluetoothStatus(String status) {
+            bluetooth.enter(status);
+        }
+
+        void internetDone(boolean success) {
+            internet.end();
+            transportDone("internet", success);
+        }
+
+        void bluetoothDone(boolean success) {
+            bluetooth.end();
+            transportDone("bluetooth", success);
+        }
+
+        void done(boolean success) {
+            long ms = elapsed();
+            record(prefix + ".total", ms);
+            recordGadget(gadgetID, "total", ms);
+            count(prefix + (success ? ".success" : ".error"));
+        }
+
+        private void transportDone(String transport, boolean success) {
+            if (success) {
+                long ms = elapsed();
+                record(prefix + "." + transport + ".success", ms);
+                recordGadget(gadgetID, transport, ms);
+            }
+            count(prefix + "." + transport + (success ? ".success" : ".error"));
+        }
+
+        private long elapsed() {
+            return (System.nanoTime() - startedNanos) / 1000000L;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package app.akiles.cordova;
+
+import org.apache.cordova.LOG;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import app.akiles.sdk.Akiles;
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.ErrorCode;
+import app.akiles.sdk.Hardware;
+
+/**
+ * In-memory index of the hardware seen nearby, by id, with when it was last seen.
+ *
+ * Every scan feeds it: the ones started by JS, and, when background discovery
+ * is on, a loop of short scans separated by a pause. The scans go through the
+ * radio scheduler at scan priority, so they give way to actions and syncs.
+ * Entries not seen for longer than the TTL are dropped. Queries are answered
+ * from memory; the hardware JSON is encoded once, when it's discovered.
+ */
+class NearbyIndex {
+    private static final String TAG = "AkilesPlugin";
+    static final String OPERATION = OperationRegistry.internalId("nearby");
+    static final long DEFAULT_TTL = 30000;
+    static final long DEFAULT_DURATION = 10000;
+    static final long DEFAULT_INTERVAL = 5000;
+
+    private static final class Entry {
+        final Hardware hardware;
+        final String json;
+        final long seenNanos;
+        final long seenAt;
+        final int seen;
+
+        Entry(Hardware hardware, String json, long seenNanos, long seenAt, int seen) {
+            this.hardware = hardware;
+            this.json = json;
+            this.seenNanos = seenNanos;
+            this.seenAt = seenAt;
+            this.seen = seen;
+        }
+    }
+
+    private final RadioScheduler scheduler;
+    private final Metrics metrics;
+    private final ScheduledExecutorService timer;
+    private final OperationRegistry operations;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private volatile long ttl = DEFAULT_TTL;
+    private Akiles ak;
+    private long duration;
+    private long interval;
+    private boolean running;
+    private RadioScheduler.Task task;
+    private ScheduledFuture<?> next;
+
+    NearbyIndex(RadioScheduler scheduler, Metrics metrics, ScheduledExecutorService timer, OperationRegistry operations) {
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.timer = timer;
+        this.operations = operations;
+    }
+
+    void discover(Hardware hw) {
+        long now = System.nanoTime();
+        String json = EventEncoder.hardwareJson(hw);
+        Entry prev = entries.get(hw.id);
+        entries.put(hw.id, new Entry(hw, json, now, System.currentTimeMillis(), prev != null ? prev.seen + 1 : 1));
+    }
+
+    /**
+     * Start background discovery, or update its settings if it's already on.
+     */
+    void start(Akiles ak, long ttl, long duration, long interval) {
+        this.ttl = ttl;
+        synchronized (this) {
+            this.ak = ak;
+            this.duration = duration;
+            this.interval = interval;
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        operations.start(OPERATION, "nearby_scan");
+        operations.attach(OPERATION, this::stop);
+        round();
+    }
+
+    void stop() {
+        RadioScheduler.Task t;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            t = task;
+            task = null;
+            if (next != null) {
+                next.cancel(false);
+                next = null;
+            }
+        }
+        if (t != null) {
+            t.cancel();
+        }
+        operations.finish(OPERATION);
+    }
+
+    /**
+     * Returns the hardware seen within the TTL that the session can access, most
+     * recently seen first, or all of it if `sessionID` is null.
+     */
+    String query(String sessionID) {
+        evict();
+        ArrayList<Entry> found = new ArrayList<>();
+        for (Entry e : entries.values()) {
+            if (sessionID == null || hasSession(e.hardware, sessionID)) {
+                found.add(e);
+            }
+        }
+        Collections.sort(found, (a, b) -> Long.compare(b.seenNanos, a.seenNanos));
+        long now = System.nanoTime();
+        StringBuilder sb = new StringBuilder(64 + found.size() * 160).append('[');
+        for (int i = 0; i < found.size(); i++) {
+            Entry e = found.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"hardware\":").append(e.json);
+            sb.append(",\"lastSeen\":").append(e.seenAt);
+            sb.append(",\"age\":").append((now - e.seenNanos) / 1000000L);
+            sb.append(",\"seen\":").append(e.seen);
+            sb.append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    private void evict() {
+        long cutoff = System.nanoTime() - ttl * 1000000L;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (it.next().seenNanos - cutoff < 0) {
+                it.remove();
+            }
+        }
+    }
+
+    private void round() {
+        RadioScheduler.Task t = scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_SCAN, true);
+        Akiles sdk;
+        long d;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            task = t;
+            next = null;
+            sdk = ak;
+            d = duration;
+        }
+        metrics.count("nearby.round");
+        t.submit(attempt -> {
+            // Each round is a short scan; canceling it ends the round through onError.
+            ScheduledFuture<?> cap = timer.schedule(() -> {
+                if (t.isCurrent(attempt)) {
+                    t.cancel();
+                }
+            }, d, TimeUnit.MILLISECONDS);
+            return sdk.scan(new app.akiles.sdk.ScanCallback() {
+                @Override
+                public void onDiscover(Hardware hw) {
+                    if (t.isCurrent(attempt)) {
+                        discover(hw);
+                    }
+                }
+
+                @Override
+                public void onSuccess() {
+                    if (t.finish(attempt)) {
+                        cap.cancel(false);
+                        roundDone(t);
+                    }
+                }
+
+                @Override
+                public void onError(AkilesException e) {
+                    if (t.finish(attempt)) {
+                        cap.cancel(false);
+                        if (e.code != ErrorCode.CANCELED) {
+                            LOG.i(TAG, "nearby scan failed", e);
+                        }
+                        roundDone(t);
+                    }
+                }
+            })::cancel;
+        }, () -> {
+            // Dropped from the queue by stop(); nothing to report.
+        });
+    }
+
+    private void roundDone(RadioScheduler.Task t) {
+        evict();
+        synchronized (this) {
+            if (!running || task != t) {
+                return;
+            }
+            task = null;
+            next = timer.schedule(this::round, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static boolean hasSession(Hardware hw, String sessionID) {
+        if (hw.sessions == null) {
+            return false;
+        }
+        for (String s : hw.sessions) {
+            if (sessionID.equals(s)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,155 @@
+package app.akiles.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the long-running operations (action, scan, sync...) in flight.
+ *
+ * An operation is registered before it's handed to the SDK and removed on its
+ * terminal event, so nothing outlives the operation it belongs to. The cancel
+ * handle is attached once the SDK returns it; a cancel requested before that
+ * is applied as soon as it's attached.
+ */
+class OperationRegistry {
+    enum State {
+        RUNNING,
+        CANCELING,
+    }
+
+    static final class Operation {
+        final String id;
+        final String kind;
+        final long startedAt = System.currentTimeMillis();
+        final long startedNanos = System.nanoTime();
+        private State state = State.RUNNING;
+        private Runnable cancel;
+
+        Operation(String id, String kind) {
+            this.id = id;
+            this.kind = kind;
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        private void attach(Runnable cancel) {
+            boolean cancelNow;
+            synchronized (this) {
+                this.cancel = cancel;
+                cancelNow = state == State.CANCELING;
+            }
+            if (cancelNow) {
+                cancel.run();
+            }
+        }
+
+        private void cancel() {
+            Runnable c;
+            synchronized (this) {
+                if (state == State.CANCELING) {
+                    return;
+                }
+                state = State.CANCELING;
+                c = cancel;
+            }
+            if (c != null) {
+                c.run();
+            }
+        }
+    }
+
+    /**
+     * Prefix of the ids of operations the plugin starts on its own, like the
+     * nearby scan. Ids from JS are rejected if they start with it, so the two
+     * never collide.
+     */
+    static final String INTERNAL_PREFIX = "plugin:";
+
+    private final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<>();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong finished = new AtomicLong();
+
+    static String internalId(String name) {
+        return INTERNAL_PREFIX + name;
+    }
+
+    static boolean isInternal(String id) {
+        return id.startsWith(INTERNAL_PREFIX);
+    }
+
+    void start(String id, String kind) {
+        operations.put(id, new Operation(id, kind));
+        started.incrementAndGet();
+    }
+
+    /**
+     * Attach the cancel handle of an operation. Ignored if the operation already finished.
+     */
+    void attach(String id, Runnable cancel) {
+        Operation op = operations.get(id);
+        if (op != null) {
+            op.attach(cancel);
+        }
+    }
+
+    /**
+     * Remove an operation after its terminal event.
+     */
+    void finish(String id) {
+        if (operations.remove(id) != null) {
+            finished.incrementAndGet();
+        }
+    }
+
+    void cancel(String id) {
+        Operation op = operations.get(id);
+        if (op != null) {
+            op.cancel();
+        }
+    }
+
+    /**
+     * Cancel every operation in flight. Returns how many were canceled.
+     */
+    int cancelAll() {
+        ArrayList<Operation> ops = new ArrayList<>(operations.values());
+        for (Operation op : ops) {
+            op.cancel();
+        }
+        return ops.size();
+    }
+
+    int size() {
+        return operations.size();
+    }
+
+    long started() {
+        return started.get();
+    }
+
+    long finished() {
+        return finished.get();
+    }
+
+    JSONArray toJson() throws JSONException {
+        long now = System.nanoTime();
+        JSONArray result = new JSONArray();
+        for (Operation op : operations.values()) {
+            JSONObject obj = new JSONObject();
+            obj.put("opId", op.id);
+            obj.put("kind", op.kind);
+            obj.put("state", op.state().toString());
+            obj.put("startedAt", op.startedAt);
+            obj.put("elapsed", (now - op.startedNanos) / 1000000L);
+            result.put(obj);
+        }
+        return result;
+    }
+}
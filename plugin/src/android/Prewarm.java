@@ -0,0 +1,355 @@
+package app.akiles.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.LOG;
+import org.apache.cordova.PluginResult;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import app.akiles.sdk.Akiles;
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.ErrorCode;
+import app.akiles.sdk.Gadget;
+import app.akiles.sdk.Hardware;
+
+/**
+ * Speculatively gets a gadget ready before the user taps it.
+ *
+ * The SDK doesn't expose a way to hold a connection open, so `prepare` scans
+ * until the gadget's hardware is seen and syncs it. When the action comes, the
+ * device and server state is fresh and the SYNCING phases are short. The scan
+ * and the sync go through the radio scheduler at scan and background sync
+ * priority, so anything the user asked for preempts them, and the scan is
+ * stopped as soon as the sync succeeds.
+ *
+ * A gadget doesn't say which hardware drives it either. The hardware is the one
+ * JS names in `hardwareID`, or else the only hardware of the session's catalog
+ * (per `Hardware.sessions`). When the session has several and none was named,
+ * nothing is warmed rather than syncing a device the action won't use.
+ *
+ * A failed sync is retried on a later discovery, with a growing delay, and
+ * warming gives up after `MAX_SYNC_FAILURES`.
+ *
+ * An entry is dropped on `release`, when an action consumes it, or after the
+ * idle timeout. Outcomes are counted as `prewarm.hit` (action found the gadget
+ * warm), `prewarm.miss` (action came before it was warm) and `prewarm.expired`
+ * (never used). `prewarm.unresolved` counts gadgets whose hardware couldn't be
+ * told, and `prewarm.failed` the ones given up on.
+ */
+class Prewarm {
+    private static final String TAG = "AkilesPlugin";
+    static final long DEFAULT_TTL = 30000;
+    static final int MAX_SYNC_FAILURES = 3;
+    static final long SYNC_RETRY_DELAY = 2000;
+
+    private final class Entry {
+        final String key;
+        final String sessionID;
+        final String hardwareID;
+        RadioScheduler.Task scan;
+        RadioScheduler.Task sync;
+        ScheduledFuture<?> timeout;
+        boolean syncing;
+        boolean warm;
+        boolean closed;
+        int failures;
+        long retryAtNanos;
+
+        Entry(String key, String sessionID, String hardwareID) {
+            this.key = key;
+            this.sessionID = sessionID;
+            this.hardwareID = hardwareID;
+        }
+
+        void discover(Hardware hw) {
+            RadioScheduler.Task task = scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_BACKGROUND_SYNC, true);
+            synchronized (this) {
+                if (closed || syncing || warm || !hardwareID.equals(hw.id)
+                        || failures >= MAX_SYNC_FAILURES || System.nanoTime() - retryAtNanos < 0) {
+                    return;
+                }
+                syncing = true;
+                sync = task;
+            }
+            task.submit(attempt -> ak.sync(sessionID, hardwareID, new app.akiles.sdk.SyncCallback() {
+                @Override
+                public void onStatus(app.akiles.sdk.SyncStatus status) {
+                }
+
+                @Override
+                public void onStatusProgress(float percent) {
+                }
+
+                @Override
+                public void onSuccess() {
+                    if (!task.finish(attempt)) {
+                        return;
+                    }
+                    RadioScheduler.Task s;
+                    synchronized (Entry.this) {
+                        syncing = false;
+                        warm = true;
+                        s = scan;
+                        scan = null;
+                    }
+                    if (s != null) {
+                        s.cancel();
+                    }
+                }
+
+                @Override
+                public void onError(AkilesException e) {
+                    // A preempted attempt is restarted by the scheduler, it isn't a failure.
+                    if (!task.finish(attempt)) {
+                        return;
+                    }
+                    LOG.i(TAG, "prewarm sync failed", e);
+                    RadioScheduler.Task s = null;
+                    synchronized (Entry.this) {
+                        syncing = false;
+                        if (closed) {
+                            return;
+                        }
+                        failures++;
+                        if (failures < MAX_SYNC_FAILURES) {
+                            // Don't start another sync on every discovery of a device that just failed.
+                            retryAtNanos = System.nanoTime() + (SYNC_RETRY_DELAY << (failures - 1)) * 1000000L;
+                        } else {
+                            s = scan;
+                            scan = null;
+                        }
+                    }
+                    if (s != null) {
+                        metrics.count("prewarm.failed");
+                        s.cancel();
+                    }
+                }
+            })::cancel, () -> {
+                synchronized (Entry.this) {
+                    syncing = false;
+                }
+            });
+            boolean cancelNow;
+            synchronized (this) {
+                cancelNow = closed;
+            }
+            if (cancelNow) {
+                task.cancel();
+            }
+        }
+
+        void close() {
+            RadioScheduler.Task s1;
+            RadioScheduler.Task s2;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                s1 = scan;
+                s2 = syncing ? sync : null;
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+            }
+            if (s1 != null) {
+                s1.cancel();
+            }
+            if (s2 != null) {
+                s2.cancel();
+            }
+            operations.finish(key);
+        }
+    }
+
+    private final Akiles ak;
+    private final RadioScheduler scheduler;
+    private final Metrics metrics;
+    private final OperationRegistry operations;
+    private final ScheduledExecutorService timer;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    Prewarm(Akiles ak, RadioScheduler scheduler, Metrics metrics, OperationRegistry operations, ScheduledExecutorService timer) {
+        this.ak = ak;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.operations = operations;
+        this.timer = timer;
+    }
+
+    /**
+     * Start warming a gadget, or extend the idle timeout if it's already being
+     * warmed. Reads the session's catalog, so it must not run on the bridge thread.
+     */
+    void prepare(CallbackContext callbackContext, String sessionID, String gadgetID, String hardwareID, long ttlMs) {
+        String key = key(sessionID, gadgetID);
+        Entry existing = entries.get(key);
+        if (existing != null) {
+            schedule(existing, ttlMs);
+            callbackContext.success();
+            return;
+        }
+        String target;
+        try {
+            target = resolve(sessionID, gadgetID, hardwareID);
+        } catch (AkilesException e) {
+            AkilesPlugin.sendError(callbackContext, e);
+            return;
+        }
+        if (target == null) {
+            callbackContext.sendPluginResult(new EncodedResult(PluginResult.Status.ERROR,
+                    EventEncoder.errorJson("INVALID_PARAM", "Unknown gadget or hardware")));
+            return;
+        }
+        callbackContext.success();
+        if (target.isEmpty()) {
+            metrics.count("prewarm.unresolved");
+            return;
+        }
+        Entry entry = new Entry(key, sessionID, target);
+        existing = entries.putIfAbsent(key, entry);
+        if (existing != null) {
+            schedule(existing, ttlMs);
+            return;
+        }
+        metrics.count("prewarm.prepare");
+        operations.start(key, "prepare");
+        schedule(entry, ttlMs);
+        // The scan and the sync both give way to actions and user syncs.
+        RadioScheduler.Task scan = scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_SCAN, true);
+        synchronized (entry) {
+            entry.scan = scan;
+        }
+        scan.submit(attempt -> ak.scan(new app.akiles.sdk.ScanCallback() {
+            @Override
+            public void onDiscover(Hardware hw) {
+                if (scan.isCurrent(attempt)) {
+                    entry.discover(hw);
+                }
+            }
+
+            @Override
+            public void onSuccess() {
+                scan.finish(attempt);
+            }
+
+            @Override
+            public void onError(AkilesException e) {
+                if (scan.finish(attempt) && e.code != ErrorCode.CANCELED) {
+                    LOG.i(TAG, "prewarm scan failed", e);
+                }
+            }
+        })::cancel, () -> {
+        });
+        boolean cancelNow;
+        synchronized (entry) {
+            cancelNow = entry.closed || entry.scan != scan;
+        }
+        if (cancelNow) {
+            scan.cancel();
+        }
+        operations.attach(key, () -> release(sessionID, gadgetID));
+    }
+
+    void release(String sessionID, String gadgetID) {
+        Entry entry = entries.remove(key(sessionID, gadgetID));
+        if (entry != null) {
+            entry.close();
+        }
+    }
+
+    /**
+     * Called when an action starts: consumes the entry for the gadget, if any.
+     */
+    void onAction(String sessionID, String gadgetID) {
+        Entry entry = entries.remove(key(sessionID, gadgetID));
+        if (entry == null) {
+            return;
+        }
+        boolean warm;
+        synchronized (entry) {
+            warm = entry.warm;
+        }
+        metrics.count(warm ? "prewarm.hit" : "prewarm.miss");
+        entry.close();
+    }
+
+    void releaseAll() {
+        for (String key : entries.keySet()) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                entry.close();
+            }
+        }
+    }
+
+    private void schedule(Entry entry, long ttlMs) {
+        synchronized (entry) {
+            if (entry.closed) {
+                return;
+            }
+            if (entry.timeout != null) {
+                entry.timeout.cancel(false);
+            }
+            entry.timeout = timer.schedule(() -> {
+                if (entries.remove(entry.key, entry)) {
+                    metrics.count("prewarm.expired");
+                    entry.close();
+                }
+            }, ttlMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The ID of the hardware driving the gadget: the given one, or the only
+     * hardware of the session. Empty if the session has several and none was
+     * given, null if the session doesn't have the gadget or the given hardware.
+     */
+    private String resolve(String sessionID, String gadgetID, String hardwareID) throws AkilesException {
+        boolean found = false;
+        for (Gadget g : ak.getGadgets(sessionID)) {
+            if (gadgetID.equals(g.id)) {
+                found = true;
+                break;
+            }
+        }
+        if (!found) {
+            return null;
+        }
+        String only = null;
+        int count = 0;
+        for (Hardware hw : ak.getHardwares(sessionID)) {
+            if (!hasSession(hw, sessionID)) {
+                continue;
+            }
+            if (hw.id.equals(hardwareID)) {
+                return hw.id;
+            }
+            only = hw.id;
+            count++;
+        }
+        if (hardwareID != null) {
+            return null;
+        }
+        return count == 1 ? only : "";
+    }
+
+    private static boolean hasSession(Hardware hw, String sessionID) {
+        if (hw.sessions == null) {
+            return false;
+        }
+        for (String s : hw.sessions) {
+            if (sessionID.equals(s)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String key(String sessionID, String gadgetID) {
+        return OperationRegistry.internalId("prepare:" + sessionID + "/" + gadgetID);
+    }
+}
@@ -0,0 +1,65 @@
+package app.akiles.cordova;
+
+import org.json.JSONObject;
+
+/**
+ * Drops progress ticks so that at most one crosses the bridge per interval.
+ *
+ * A tick is emitted when at least `minInterval` ms have passed and the percent
+ * moved at least `minDelta` since the last emitted one. The first tick of a
+ * phase and 100% are always emitted, and `complete()` guarantees a final 100%
+ * if the operation finished before it was reported.
+ */
+class ProgressThrottle {
+    private final long minIntervalNanos;
+    private final float minDelta;
+
+    private long lastAt;
+    private float last = -1;
+
+    private ProgressThrottle(long minIntervalMs, float minDelta) {
+        this.minIntervalNanos = minIntervalMs * 1000000L;
+        this.minDelta = minDelta;
+    }
+
+    /**
+     * Returns a throttle configured from `progressInterval` and `progressMinDelta`,
+     * or null if neither is set.
+     */
+    static ProgressThrottle fromOptions(JSONObject options) {
+        if (options == null || !(options.has("progressInterval") || options.has("progressMinDelta"))) {
+            return null;
+        }
+        return new ProgressThrottle(options.optLong("progressInterval", 0), (float) options.optDouble("progressMinDelta", 0));
+    }
+
+    synchronized boolean accept(float percent) {
+        long now = System.nanoTime();
+        if (percent >= 100) {
+            if (last >= 100) {
+                return false;
+            }
+        } else if (last >= 0 && (now - lastAt < minIntervalNanos || Math.abs(percent - last) < minDelta)) {
+            return false;
+        }
+        last = percent;
+        lastAt = now;
+        return true;
+    }
+
+    /**
+     * Start a new phase, so the next tick is emitted regardless of the previous one.
+     */
+    synchronized void reset() {
+        last = -1;
+    }
+
+    /**
+     * Returns true if a final 100% must be emitted because the last emitted tick was lower.
+     * Doesn't record it: the caller reports it through its progress callback,
+     * where `accept(100)` lets it through once.
+     */
+    synchronized boolean complete() {
+        return last >= 0 && last < 100;
+    }
+}
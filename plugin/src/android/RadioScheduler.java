@@ -0,0 +1,263 @@
+package app.akiles.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+/**
+ * Admission control for operations that use a radio (Bluetooth or NFC).
+ *
+ * Each radio runs at most `limit` tasks at a time. Waiting tasks start in
+ * priority order, then in submission order. When a radio is full, a new task
+ * preempts the lowest-priority running task that is preemptible and has a lower
+ * priority: its current attempt is canceled and it's queued again, to be
+ * restarted from scratch when a slot frees up.
+ *
+ * Every start of a task is a new attempt. Callbacks of an attempt must check
+ * `isCurrent(attempt)` and report their terminal event only if
+ * `finish(attempt)` returns true, so the cancellation of a preempted attempt is
+ * never reported to the app.
+ */
+class RadioScheduler {
+    static final int BLUETOOTH = 0;
+    static final int NFC = 1;
+
+    static final int PRIORITY_ACTION = 0;
+    static final int PRIORITY_USER_SYNC = 1;
+    static final int PRIORITY_BACKGROUND_SYNC = 2;
+    static final int PRIORITY_SCAN = 3;
+
+    /**
+     * Starts one attempt of a task on the SDK, returning how to cancel it.
+     */
+    interface Starter {
+        Runnable start(int attempt);
+    }
+
+    private enum State {
+        NEW,
+        QUEUED,
+        RUNNING,
+        DONE,
+    }
+
+    final class Task {
+        private final int radio;
+        private final int priority;
+        private final boolean preemptible;
+        private long seq;
+        private long queuedNanos;
+        private State state = State.NEW;
+        private int attempt;
+        private Starter starter;
+        private Runnable onCanceled;
+        private Runnable cancel;
+        private boolean canceled;
+
+        Task(int radio, int priority, boolean preemptible) {
+            this.radio = radio;
+            this.priority = priority;
+            this.preemptible = preemptible;
+        }
+
+        /**
+         * Start the task now or when the radio allows it. `onCanceled` reports the
+         * cancellation of a task that was canceled while waiting.
+         */
+        void submit(Starter starter, Runnable onCanceled) {
+            synchronized (RadioScheduler.this) {
+                this.starter = starter;
+                this.onCanceled = onCanceled;
+                admit(this);
+            }
+            drain();
+        }
+
+        boolean isCurrent(int attempt) {
+            synchronized (RadioScheduler.this) {
+                return state == State.RUNNING && this.attempt == attempt;
+            }
+        }
+
+        /**
+         * Mark the task done after a terminal callback of the given attempt.
+         * Returns false if the attempt is stale and the callback must be ignored.
+         */
+        boolean finish(int attempt) {
+            synchronized (RadioScheduler.this) {
+                if (state != State.RUNNING || this.attempt != attempt) {
+                    return false;
+                }
+                state = State.DONE;
+                running[radio].remove(this);
+            }
+            drain();
+            return true;
+        }
+
+        /**
+         * Mark the task done, whatever its current attempt. For tasks that are never preempted.
+         */
+        void finish() {
+            int a;
+            synchronized (RadioScheduler.this) {
+                a = attempt;
+            }
+            finish(a);
+        }
+
+        void cancel() {
+            Runnable c = null;
+            Runnable dropped = null;
+            synchronized (RadioScheduler.this) {
+                if (state == State.QUEUED) {
+                    queue[radio].remove(this);
+                    state = State.DONE;
+                    dropped = onCanceled;
+                } else if (state == State.RUNNING) {
+                    // If the attempt is still starting, launch() cancels it.
+                    canceled = true;
+                    c = cancel;
+                }
+            }
+            if (dropped != null) {
+                dropped.run();
+            }
+            if (c != null) {
+                c.run();
+            }
+        }
+    }
+
+    private final int[] limits;
+    private final Metrics metrics;
+    @SuppressWarnings("unchecked")
+    private final ArrayList<Task>[] running = new ArrayList[] {new ArrayList<Task>(), new ArrayList<Task>()};
+    @SuppressWarnings("unchecked")
+    private final PriorityQueue<Task>[] queue = new PriorityQueue[] {newQueue(), newQueue()};
+    private final ArrayList<Task> toStart = new ArrayList<>();
+    private final ArrayList<Runnable> toCancel = new ArrayList<>();
+    private long seq;
+
+    RadioScheduler(int bluetoothLimit, int nfcLimit, Metrics metrics) {
+        this.limits = new int[] {Math.max(1, bluetoothLimit), Math.max(1, nfcLimit)};
+        this.metrics = metrics;
+    }
+
+    private static PriorityQueue<Task> newQueue() {
+        return new PriorityQueue<>(11, (a, b) -> a.priority != b.priority ? Integer.compare(a.priority, b.priority) : Long.compare(a.seq, b.seq));
+    }
+
+    synchronized JSONObject toJson() throws JSONException {
+        JSONObject result = new JSONObject();
+        String[] names = {"bluetooth", "nfc"};
+        for (int r = 0; r < names.length; r++) {
+            JSONObject obj = new JSONObject();
+            obj.put("limit", limits[r]);
+            obj.put("running", running[r].size());
+            obj.put("queued", queue[r].size());
+            result.put(names[r], obj);
+        }
+        return result;
+    }
+
+    private void admit(Task task) {
+        task.seq = seq++;
+        task.state = State.QUEUED;
+        task.queuedNanos = System.nanoTime();
+        queue[task.radio].add(task);
+        if (running[task.radio].size() >= limits[task.radio]) {
+            metrics.count("scheduler.queued");
+        }
+    }
+
+    /**
+     * Start as many queued tasks as the radios allow, preempting where needed.
+     * SDK calls are made outside the lock.
+     */
+    private void drain() {
+        while (true) {
+            synchronized (this) {
+                for (int r = 0; r < limits.length; r++) {
+                    schedule(r);
+                }
+                if (toStart.isEmpty() && toCancel.isEmpty()) {
+                    return;
+                }
+            }
+            ArrayList<Task> start;
+            ArrayList<Runnable> cancel;
+            synchronized (this) {
+                start = new ArrayList<>(toStart);
+                cancel = new ArrayList<>(toCancel);
+                toStart.clear();
+                toCancel.clear();
+            }
+            for (Runnable c : cancel) {
+                c.run();
+            }
+            for (Task task : start) {
+                launch(task);
+            }
+        }
+    }
+
+    private void schedule(int radio) {
+        PriorityQueue<Task> q = queue[radio];
+        ArrayList<Task> r = running[radio];
+        while (!q.isEmpty()) {
+            Task next = q.peek();
+            if (r.size() >= limits[radio]) {
+                Task victim = null;
+                for (Task t : r) {
+                    if (t.preemptible && !t.canceled && t.priority > next.priority && (victim == null || t.priority > victim.priority)) {
+                        victim = t;
+                    }
+                }
+                if (victim == null) {
+                    return;
+                }
+                r.remove(victim);
+                if (victim.cancel != null) {
+                    toCancel.add(victim.cancel);
+                }
+                victim.cancel = null;
+                victim.state = State.QUEUED;
+                victim.queuedNanos = System.nanoTime();
+                q.add(victim);
+                metrics.count("scheduler.preempted");
+            }
+            q.poll();
+            next.state = State.RUNNING;
+            next.attempt++;
+            next.cancel = null;
+            r.add(next);
+            metrics.record("scheduler.wait", (System.nanoTime() - next.queuedNanos) / 1000000L);
+            toStart.add(next);
+        }
+    }
+
+    private void launch(Task task) {
+        int attempt;
+        synchronized (this) {
+            if (task.state != State.RUNNING) {
+                return;
+            }
+            attempt = task.attempt;
+        }
+        Runnable c = task.starter.start(attempt);
+        boolean cancelNow;
+        synchronized (this) {
+            // Preempted while starting: cancel the attempt right away.
+            cancelNow = task.state != State.RUNNING || task.attempt != attempt || task.canceled;
+            if (!cancelNow) {
+                task.cancel = c;
+            }
+        }
+        if (cancelNow) {
+            c.run();
+        }
+    }
+}
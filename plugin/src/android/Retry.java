@@ -0,0 +1,592 @@
+package app.akiles.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import app.akiles.sdk.ActionOptions;
+import app.akiles.sdk.Akiles;
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Cancel;
+
+/**
+ * Deadline and retry policy of an action or sync, from its `deadline` and
+ * `retry` options.
+ *
+ * The operation is run through `action` or `sync`, which retry it on the
+ * configured error codes with exponential backoff and jitter, up to
+ * `maxAttempts`. The deadline covers the whole operation, from when it was
+ * requested: queueing for the radio, every attempt and every backoff. When it
+ * passes, the operation is canceled. A retry that can't start before the
+ * deadline isn't made.
+ *
+ * The callback sees a single attempt: status events of every attempt are
+ * forwarded, but an action's transport errors are held back until the attempt
+ * turns out to be the last one, so `onInternetError`/`onBluetoothError` still
+ * come exactly once.
+ *
+ * A run that the radio scheduler preempts is stopped with `preempt` instead of
+ * `cancel`: the attempt in progress isn't counted toward `maxAttempts` and
+ * nothing is delivered, since the scheduler starts the operation over with a
+ * new run of the same policy.
+ */
+class Retry {
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final long DEFAULT_INITIAL_DELAY = 500;
+    static final long DEFAULT_MAX_DELAY = 5000;
+    static final double DEFAULT_MULTIPLIER = 2;
+    static final double DEFAULT_JITTER = 0.2;
+    static final String[] DEFAULT_CODES = {"TIMEOUT", "BLUETOOTH_DEVICE_NOT_FOUND", "INTERNET_NOT_AVAILABLE"};
+
+    /**
+     * Told about each retry before it's made.
+     */
+    interface Listener {
+        void onRetry(int attempt, AkilesException ex, long delayMs);
+    }
+
+    /**
+     * Stops a run.
+     */
+    interface Handle {
+        /**
+         * Cancel the operation. The failure of the attempt in progress is delivered.
+         */
+        void cancel();
+
+        /**
+         * Stop the attempt in progress to give the radio to another task,
+         * without counting it or delivering anything.
+         */
+        void preempt();
+    }
+
+    private final ScheduledExecutorService timer;
+    private final Metrics metrics;
+    private final Listener listener;
+    private final long deadline;
+    private final int maxAttempts;
+    private final long initialDelay;
+    private final long maxDelay;
+    private final double multiplier;
+    private final double jitter;
+    private final HashSet<String> codes = new HashSet<>();
+    private final long startedNanos = System.nanoTime();
+
+    private int attempts;
+    private long backoffMs;
+    private final ArrayList<Long> attemptTimes = new ArrayList<>();
+    private boolean deadlineExceeded;
+    private ScheduledFuture<?> deadlineFuture;
+
+    private Retry(ScheduledExecutorService timer, Metrics metrics, Listener listener, long deadline, JSONObject retry) throws JSONException {
+        this.timer = timer;
+        this.metrics = metrics;
+        this.listener = listener;
+        this.deadline = deadline;
+        if (retry == null) {
+            this.maxAttempts = 1;
+            this.initialDelay = DEFAULT_INITIAL_DELAY;
+            this.maxDelay = DEFAULT_MAX_DELAY;
+            this.multiplier = DEFAULT_MULTIPLIER;
+            this.jitter = DEFAULT_JITTER;
+            return;
+        }
+        this.maxAttempts = Math.max(1, retry.optInt("maxAttempts", DEFAULT_MAX_ATTEMPTS));
+        this.initialDelay = Math.max(0, retry.optLong("initialDelay", DEFAULT_INITIAL_DELAY));
+        this.maxDelay = Math.max(initialDelay, retry.optLong("maxDelay", DEFAULT_MAX_DELAY));
+        this.multiplier = Math.max(1, retry.optDouble("multiplier", DEFAULT_MULTIPLIER));
+        this.jitter = Math.min(1, Math.max(0, retry.optDouble("jitter", DEFAULT_JITTER)));
+        JSONArray list = retry.optJSONArray("codes");
+        if (list == null) {
+            for (String code : DEFAULT_CODES) {
+                codes.add(code);
+            }
+        } else {
+            for (int i = 0; i < list.length(); i++) {
+                codes.add(list.getString(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the policy of the given options, or null if they set neither a deadline nor retries.
+     */
+    static Retry fromOptions(JSONObject options, ScheduledExecutorService timer, Metrics metrics, Listener listener) throws JSONException {
+        if (options == null) {
+            return null;
+        }
+        long deadline = options.optLong("deadline", 0);
+        JSONObject retry = options.optJSONObject("retry");
+        if (deadline <= 0 && retry == null) {
+            return null;
+        }
+        return new Retry(timer, metrics, listener, deadline, retry);
+    }
+
+    /**
+     * Cancel the operation through `cancel` once the deadline passes.
+     */
+    void armDeadline(Runnable cancel) {
+        if (deadline <= 0) {
+            return;
+        }
+        long remaining = deadline - elapsedMillis();
+        ScheduledFuture<?> f = timer.schedule(() -> {
+            synchronized (Retry.this) {
+                deadlineExceeded = true;
+            }
+            metrics.count("retry.deadline");
+            cancel.run();
+        }, Math.max(0, remaining), TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            deadlineFuture = f;
+        }
+    }
+
+    /**
+     * Stop the deadline timer. Call once the operation ended.
+     */
+    void finish() {
+        ScheduledFuture<?> f;
+        synchronized (this) {
+            f = deadlineFuture;
+            deadlineFuture = null;
+        }
+        if (f != null) {
+            f.cancel(false);
+        }
+    }
+
+    synchronized int attempts() {
+        return attempts;
+    }
+
+    synchronized boolean deadlineExceeded() {
+        return deadlineExceeded;
+    }
+
+    /**
+     * Returns `{"attempts":...,"elapsed":...,"backoff":...,"attemptTimes":[...],"deadlineExceeded":...}`,
+     * with times in milliseconds.
+     */
+    synchronized String report() {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("{\"attempts\":").append(attempts);
+        sb.append(",\"elapsed\":").append(elapsedMillis());
+        sb.append(",\"backoff\":").append(backoffMs);
+        sb.append(",\"attemptTimes\":[");
+        for (int i = 0; i < attemptTimes.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(attemptTimes.get(i));
+        }
+        sb.append("],\"deadlineExceeded\":").append(deadlineExceeded).append('}');
+        return sb.toString();
+    }
+
+    private long elapsedMillis() {
+        return (System.nanoTime() - startedNanos) / 1000000L;
+    }
+
+    /**
+     * Returns the delay before retrying after the given error, or -1 not to retry.
+     * Counts the attempt that just ended.
+     */
+    private synchronized long nextDelay(AkilesException ex, long attemptStartedNanos, boolean canceled) {
+        attempts++;
+        attemptTimes.add((System.nanoTime() - attemptStartedNanos) / 1000000L);
+        if (canceled || deadlineExceeded || ex == null || attempts >= maxAttempts || !codes.contains(ex.code.toString())) {
+            return -1;
+        }
+        double base = Math.min(maxDelay, initialDelay * Math.pow(multiplier, attempts - 1));
+        long delay = (long) (base * (1 - jitter + ThreadLocalRandom.current().nextDouble() * 2 * jitter));
+        if (deadline > 0 && elapsedMillis() + delay >= deadline) {
+            return -1;
+        }
+        backoffMs += delay;
+        return delay;
+    }
+
+    /**
+     * The attempts of one operation, and its cancel state.
+     *
+     * Events of an attempt are only delivered while it's live: it's the latest
+     * attempt and no retry of it has been decided. The failure of an attempt is
+     * held until it's known to be the last one, then delivered by `deliver`.
+     */
+    private abstract class Run implements Handle {
+        private int attempt;
+        private int last = -1;
+        private boolean retrying;
+        private boolean canceled;
+        private boolean preempted;
+        private long attemptStartedNanos;
+        private Cancel current;
+        private ScheduledFuture<?> backoff;
+
+        /**
+         * Start an attempt, returning its SDK cancel token.
+         */
+        abstract Cancel start(int attempt);
+
+        /**
+         * Drop the held outcome of the previous attempt.
+         */
+        abstract void reset();
+
+        /**
+         * Deliver the held outcome of the last attempt.
+         */
+        abstract void deliver();
+
+        synchronized boolean live(int attempt) {
+            return this.attempt == attempt && !retrying;
+        }
+
+        synchronized boolean isLast(int attempt) {
+            return last == attempt;
+        }
+
+        void next() {
+            int a;
+            synchronized (this) {
+                backoff = null;
+                if (preempted) {
+                    return;
+                }
+                if (canceled) {
+                    // Canceled while this attempt was about to start.
+                    last = attempt;
+                    a = -1;
+                } else {
+                    a = ++attempt;
+                    retrying = false;
+                    current = null;
+                    attemptStartedNanos = System.nanoTime();
+                }
+            }
+            if (a < 0) {
+                deliver();
+                return;
+            }
+            reset();
+            Cancel c = start(a);
+            boolean cancelNow;
+            synchronized (this) {
+                if (attempt == a) {
+                    current = c;
+                }
+                cancelNow = canceled;
+            }
+            if (cancelNow) {
+                c.cancel();
+            }
+        }
+
+        /**
+         * Called when an attempt failed: retries it, or delivers the failure if it's the last one.
+         */
+        void failed(int attempt, AkilesException ex) {
+            boolean wasCanceled;
+            long started;
+            synchronized (this) {
+                if (preempted) {
+                    return;
+                }
+                wasCanceled = canceled;
+                started = attemptStartedNanos;
+            }
+            long delay = nextDelay(ex, started, wasCanceled);
+            synchronized (this) {
+                if (delay < 0 || canceled) {
+                    last = attempt;
+                    delay = -1;
+                } else {
+                    retrying = true;
+                    current = null;
+                    backoff = timer.schedule(this::next, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (delay < 0) {
+                deliver();
+                return;
+            }
+            metrics.count("retry.attempt");
+            listener.onRetry(attempts() + 1, ex, delay);
+        }
+
+        /**
+         * Called when an attempt succeeded. It's the last one.
+         */
+        void succeeded(int attempt) {
+            long started;
+            synchronized (this) {
+                last = attempt;
+                started = attemptStartedNanos;
+            }
+            nextDelay(null, started, false);
+        }
+
+        @Override
+        public void cancel() {
+            Cancel c = null;
+            boolean deliverNow = false;
+            synchronized (this) {
+                if (canceled || last >= 0) {
+                    return;
+                }
+                canceled = true;
+                if (backoff != null) {
+                    if (backoff.cancel(false)) {
+                        // Between attempts: the last failure is the outcome.
+                        backoff = null;
+                        last = attempt;
+                        deliverNow = true;
+                    }
+                    // Otherwise the next attempt is already starting, and sees `canceled`.
+                } else {
+                    c = current;
+                }
+            }
+            if (deliverNow) {
+                deliver();
+            } else if (c != null) {
+                c.cancel();
+            }
+        }
+
+        @Override
+        public void preempt() {
+            Cancel c;
+            ScheduledFuture<?> b;
+            synchronized (this) {
+                if (canceled || last >= 0) {
+                    return;
+                }
+                canceled = true;
+                preempted = true;
+                b = backoff;
+                backoff = null;
+                c = current;
+            }
+            if (b != null) {
+                b.cancel(false);
+            }
+            if (c != null) {
+                c.cancel();
+            }
+        }
+    }
+
+    /**
+     * Run an action.
+     */
+    Handle action(Akiles ak, String sessionID, String gadgetID, String actionID, ActionOptions options, app.akiles.sdk.ActionCallback callback) {
+        Run run = new Run() {
+            // Failure of the latest attempt, held until it's known to be the last.
+            private AkilesException internetError;
+            private AkilesException bluetoothError;
+            private AkilesException error;
+
+            @Override
+            Cancel start(int attempt) {
+                Run self = this;
+                return ak.action(sessionID, gadgetID, actionID, options, new app.akiles.sdk.ActionCallback() {
+                    @Override
+                    public void onSuccess() {
+                        if (!live(attempt)) {
+                            return;
+                        }
+                        succeeded(attempt);
+                        deliver();
+                        callback.onSuccess();
+                    }
+
+                    @Override
+                    public void onError(AkilesException e) {
+                        if (!live(attempt)) {
+                            return;
+                        }
+                        synchronized (self) {
+                            error = e;
+                        }
+                        failed(attempt, e);
+                    }
+
+                    @Override
+                    public void onInternetStatus(app.akiles.sdk.ActionInternetStatus status) {
+                        if (live(attempt)) {
+                            callback.onInternetStatus(status);
+                        }
+                    }
+
+                    @Override
+                    public void onInternetSuccess() {
+                        if (live(attempt)) {
+                            callback.onInternetSuccess();
+                        }
+                    }
+
+                    @Override
+                    public void onInternetError(AkilesException e) {
+                        if (!live(attempt)) {
+                            return;
+                        }
+                        if (isLast(attempt)) {
+                            callback.onInternetError(e);
+                            return;
+                        }
+                        synchronized (self) {
+                            internetError = e;
+                        }
+                    }
+
+                    @Override
+                    public void onBluetoothStatus(app.akiles.sdk.ActionBluetoothStatus status) {
+                        if (live(attempt)) {
+                            callback.onBluetoothStatus(status);
+                        }
+                    }
+
+                    @Override
+                    public void onBluetoothStatusProgress(float percent) {
+                        if (live(attempt)) {
+                            callback.onBluetoothStatusProgress(percent);
+                        }
+                    }
+
+                    @Override
+                    public void onBluetoothSuccess() {
+                        if (live(attempt)) {
+                            callback.onBluetoothSuccess();
+                        }
+                    }
+
+                    @Override
+                    public void onBluetoothError(AkilesException e) {
+                        if (!live(attempt)) {
+                            return;
+                        }
+                        if (isLast(attempt)) {
+                            callback.onBluetoothError(e);
+                            return;
+                        }
+                        synchronized (self) {
+                            bluetoothError = e;
+                        }
+                    }
+                });
+            }
+
+            @Override
+            synchronized void reset() {
+                internetError = null;
+                bluetoothError = null;
+                error = null;
+            }
+
+            @Override
+            void deliver() {
+                AkilesException ie;
+                AkilesException be;
+                AkilesException e;
+                synchronized (this) {
+                    ie = internetError;
+                    be = bluetoothError;
+                    e = error;
+                    internetError = null;
+                    bluetoothError = null;
+                    error = null;
+                }
+                if (ie != null) {
+                    callback.onInternetError(ie);
+                }
+                if (be != null) {
+                    callback.onBluetoothError(be);
+                }
+                if (e != null) {
+                    callback.onError(e);
+                }
+            }
+        };
+        run.next();
+        return run;
+    }
+
+    /**
+     * Run a sync.
+     */
+    Handle sync(Akiles ak, String sessionID, String hardwareID, app.akiles.sdk.SyncCallback callback) {
+        Run run = new Run() {
+            private AkilesException error;
+
+            @Override
+            Cancel start(int attempt) {
+                Run self = this;
+                return ak.sync(sessionID, hardwareID, new app.akiles.sdk.SyncCallback() {
+                    @Override
+                    public void onStatus(app.akiles.sdk.SyncStatus status) {
+                        if (live(attempt)) {
+                            callback.onStatus(status);
+                        }
+                    }
+
+                    @Override
+                    public void onStatusProgress(float percent) {
+                        if (live(attempt)) {
+                            callback.onStatusProgress(percent);
+                        }
+                    }
+
+                    @Override
+                    public void onSuccess() {
+                        if (!live(attempt)) {
+                            return;
+                        }
+                        succeeded(attempt);
+                        callback.onSuccess();
+                    }
+
+                    @Override
+                    public void onError(AkilesException e) {
+                        if (!live(attempt)) {
+                            return;
+                        }
+                        synchronized (self) {
+                            error = e;
+                        }
+                        failed(attempt, e);
+                    }
+                });
+            }
+
+            @Override
+            synchronized void reset() {
+                error = null;
+            }
+
+            @Override
+            void deliver() {
+                AkilesException e;
+                synchronized (this) {
+                    e = error;
+                    error = null;
+                }
+                if (e != null) {
+                    callback.onError(e);
+                }
+            }
+        };
+        run.next();
+        return run;
+    }
+}
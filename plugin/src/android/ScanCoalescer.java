@@ -0,0 +1,81 @@
+package app.akiles.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches scan discoveries into one `discover_batch` event per window.
+ *
+ * Discoveries are deduplicated by hardware id: a hardware is only sent again if
+ * its encoded form changed since it was last sent. Windows with nothing new send
+ * no event at all.
+ */
+class ScanCoalescer {
+    private final CallbackContext callbackContext;
+    private final ScheduledExecutorService timer;
+    private final long windowMs;
+
+    private final HashMap<String, String> sent = new HashMap<>();
+    private final LinkedHashMap<String, String> pending = new LinkedHashMap<>();
+    private boolean scheduled;
+    private boolean closed;
+
+    ScanCoalescer(CallbackContext callbackContext, ScheduledExecutorService timer, long windowMs) {
+        this.callbackContext = callbackContext;
+        this.timer = timer;
+        this.windowMs = windowMs;
+    }
+
+    synchronized void discover(String id, String json) {
+        if (closed) {
+            return;
+        }
+        if (json.equals(sent.get(id))) {
+            pending.remove(id);
+            return;
+        }
+        pending.put(id, json);
+        if (!scheduled) {
+            scheduled = true;
+            timer.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Send pending discoveries and stop accepting new ones. Must be called before
+     * the final scan event.
+     */
+    synchronized void close() {
+        flush();
+        closed = true;
+    }
+
+    private synchronized void flush() {
+        scheduled = false;
+        if (closed || pending.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("{\"type\":\"discover_batch\",\"hardwares\":[");
+        boolean first = true;
+        for (Map.Entry<String, String> e : pending.entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(e.getValue());
+            sent.put(e.getKey(), e.getValue());
+        }
+        sb.append("]}");
+        pending.clear();
+
+        PluginResult pluginResult = new EncodedResult(PluginResult.Status.OK, sb.toString());
+        pluginResult.setKeepCallback(true);
+        callbackContext.sendPluginResult(pluginResult);
+    }
+}
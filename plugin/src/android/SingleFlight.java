@@ -0,0 +1,82 @@
+package app.akiles.cordova;
+
+import org.apache.cordova.CallbackContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Collapses concurrent identical calls into one SDK call per key.
+ *
+ * The first caller for a key becomes the leader and makes the call; callers
+ * that arrive while it's in flight just wait for its result, which is fanned
+ * out to all of them. For calls ended with `complete(key, success)`, the time
+ * of the last success of each key is kept, so callers that accept a recent
+ * enough result can skip the call entirely. Calls whose result can't be reused
+ * end with `complete(key)` and leave nothing behind.
+ */
+class SingleFlight {
+    private final HashMap<String, List<CallbackContext>> inFlight = new HashMap<>();
+    private final HashMap<String, Long> succeededAt = new HashMap<>();
+
+    /**
+     * Wait for the call of the given key. Returns true if the caller is the
+     * leader and must make the call, then report it with `complete`.
+     */
+    synchronized boolean join(String key, CallbackContext callbackContext) {
+        List<CallbackContext> waiters = inFlight.get(key);
+        if (waiters != null) {
+            waiters.add(callbackContext);
+            return false;
+        }
+        waiters = new ArrayList<>();
+        waiters.add(callbackContext);
+        inFlight.put(key, waiters);
+        return true;
+    }
+
+    /**
+     * End the call of the given key, returning every caller waiting for it.
+     * A success is recorded for `isFresh`.
+     */
+    synchronized List<CallbackContext> complete(String key, boolean success) {
+        if (success) {
+            succeededAt.put(key, System.nanoTime());
+        }
+        return complete(key);
+    }
+
+    /**
+     * End the call of the given key without recording it, returning every caller waiting for it.
+     */
+    synchronized List<CallbackContext> complete(String key) {
+        List<CallbackContext> waiters = inFlight.remove(key);
+        return waiters != null ? waiters : new ArrayList<>();
+    }
+
+    /**
+     * Whether any of the keys succeeded within the last `maxAgeMs` milliseconds.
+     */
+    synchronized boolean isFresh(long maxAgeMs, String... keys) {
+        if (maxAgeMs <= 0) {
+            return false;
+        }
+        long now = System.nanoTime();
+        for (String key : keys) {
+            Long at = succeededAt.get(key);
+            if (at != null && now - at <= maxAgeMs * 1000000L) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized void forget(String key) {
+        succeededAt.remove(key);
+    }
+
+    synchronized void forgetAll() {
+        succeededAt.clear();
+    }
+}
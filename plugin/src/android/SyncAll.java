@@ -0,0 +1,366 @@
+package app.akiles.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.LOG;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import app.akiles.sdk.Akiles;
+import app.akiles.sdk.AkilesException;
+import app.akiles.sdk.Hardware;
+import app.akiles.sdk.SyncStatus;
+
+/**
+ * Syncs every hardware of a session over a single callback.
+ *
+ * At most `parallelism` devices sync at a time, each through the radio
+ * scheduler and with its own timeout. Every event carries the `hardwareID` it
+ * belongs to, and a combined `progress` event reports how far the whole run
+ * is. The run ends with one `done` event listing the devices that succeeded,
+ * the ones that failed, and `pending`: every device that didn't succeed, which
+ * can be passed back as `hardwareIDs` to resume.
+ */
+class SyncAll {
+    private static final String TAG = "AkilesPlugin";
+    static final int DEFAULT_PARALLELISM = 2;
+    static final long DEFAULT_TIMEOUT = 60000;
+
+    private static final int PHASES = SyncStatus.values().length;
+
+    private static class Device {
+        final String id;
+        RadioScheduler.Task task;
+        ScheduledFuture<?> timeout;
+        boolean timedOut;
+        long startedNanos;
+        int phase = -1;
+        float percent;
+        boolean done;
+        boolean success;
+        String error;
+
+        Device(String id) {
+            this.id = id;
+        }
+
+        /**
+         * Fraction of this device's sync that is done, 0-1.
+         */
+        double fraction() {
+            if (done) {
+                return 1;
+            }
+            if (phase < 0) {
+                return 0;
+            }
+            return (phase + percent / 100.0) / PHASES;
+        }
+    }
+
+    private final Akiles ak;
+    private final RadioScheduler scheduler;
+    private final Metrics metrics;
+    private final ScheduledExecutorService timer;
+    private final CallbackContext callbackContext;
+    private final String sessionID;
+    private final Device[] devices;
+    private final int parallelism;
+    private final long timeout;
+    private final boolean background;
+    private final ProgressThrottle progress;
+    private final Runnable onFinish;
+    private final long startedNanos = System.nanoTime();
+
+    private int next;
+    private int remaining;
+    private int lastPercent = -1;
+    private boolean canceled;
+    private boolean finished;
+
+    SyncAll(Akiles ak, RadioScheduler scheduler, Metrics metrics, ScheduledExecutorService timer, CallbackContext callbackContext, String sessionID, Hardware[] hardwares, JSONObject options, Runnable onFinish) throws JSONException {
+        this.ak = ak;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.timer = timer;
+        this.callbackContext = callbackContext;
+        this.sessionID = sessionID;
+        this.onFinish = onFinish;
+
+        HashSet<String> only = null;
+        JSONArray ids = options != null ? options.optJSONArray("hardwareIDs") : null;
+        if (ids != null) {
+            only = new HashSet<>();
+            for (int i = 0; i < ids.length(); i++) {
+                only.add(ids.getString(i));
+            }
+        }
+        int count = 0;
+        for (Hardware hw : hardwares) {
+            if (only == null || only.contains(hw.id)) {
+                count++;
+            }
+        }
+        this.devices = new Device[count];
+        count = 0;
+        for (Hardware hw : hardwares) {
+            if (only == null || only.contains(hw.id)) {
+                devices[count++] = new Device(hw.id);
+            }
+        }
+
+        int p = options != null ? options.optInt("parallelism", DEFAULT_PARALLELISM) : DEFAULT_PARALLELISM;
+        this.parallelism = Math.max(1, p);
+        this.timeout = options != null ? options.optLong("timeout", DEFAULT_TIMEOUT) : DEFAULT_TIMEOUT;
+        this.background = options != null && "background".equals(options.optString("priority"));
+        this.progress = ProgressThrottle.fromOptions(options);
+        this.remaining = devices.length;
+    }
+
+    void start() {
+        if (devices.length == 0) {
+            finish();
+            return;
+        }
+        int first;
+        int end;
+        synchronized (this) {
+            first = next;
+            end = Math.min(devices.length, parallelism);
+            next = end;
+        }
+        // Started outside the lock: submitting to the scheduler may start or cancel other tasks.
+        for (int i = first; i < end; i++) {
+            startDevice(devices[i]);
+        }
+    }
+
+    void cancel() {
+        boolean last;
+        synchronized (this) {
+            if (canceled || finished) {
+                return;
+            }
+            canceled = true;
+            // Devices that never started stay pending.
+            remaining -= devices.length - next;
+            next = devices.length;
+            last = remaining == 0;
+        }
+        for (Device d : devices) {
+            RadioScheduler.Task task;
+            synchronized (this) {
+                task = d.done ? null : d.task;
+            }
+            if (task != null) {
+                task.cancel();
+            }
+        }
+        if (last) {
+            finish();
+        }
+    }
+
+    private void startDevice(Device d) {
+        RadioScheduler.Task task = background
+                ? scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_BACKGROUND_SYNC, true)
+                : scheduler.new Task(RadioScheduler.BLUETOOTH, RadioScheduler.PRIORITY_USER_SYNC, false);
+        synchronized (this) {
+            d.startedNanos = System.nanoTime();
+            d.task = task;
+        }
+        task.submit(attempt -> {
+            armTimeout(d, attempt);
+            return ak.sync(sessionID, d.id, new app.akiles.sdk.SyncCallback() {
+                @Override
+                public void onStatus(SyncStatus status) {
+                    if (!task.isCurrent(attempt)) {
+                        return;
+                    }
+                    synchronized (SyncAll.this) {
+                        d.phase = status.ordinal();
+                        d.percent = 0;
+                    }
+                    event(EventEncoder.event("status").field("hardwareID", d.id).field("status", status.toString()).end());
+                    progress();
+                }
+
+                @Override
+                public void onStatusProgress(float percent) {
+                    if (!task.isCurrent(attempt)) {
+                        return;
+                    }
+                    synchronized (SyncAll.this) {
+                        d.percent = percent;
+                    }
+                    progress();
+                }
+
+                @Override
+                public void onSuccess() {
+                    if (task.finish(attempt)) {
+                        deviceDone(d, true, null);
+                    }
+                }
+
+                @Override
+                public void onError(AkilesException e) {
+                    if (!task.finish(attempt)) {
+                        return;
+                    }
+                    LOG.i(TAG, "exception", e);
+                    boolean timedOut;
+                    synchronized (SyncAll.this) {
+                        timedOut = d.timedOut;
+                    }
+                    deviceDone(d, false, timedOut ? EventEncoder.errorJson("TIMEOUT", "Sync timed out") : EventEncoder.errorJson(e));
+                }
+            })::cancel;
+        }, () -> deviceDone(d, false, EventEncoder.errorJson("CANCELED", "Canceled")));
+        // A cancel that came before the task was submitted didn't reach it.
+        boolean cancelNow;
+        synchronized (this) {
+            cancelNow = canceled;
+        }
+        if (cancelNow) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * Cancel the given attempt of a device if it runs for longer than the timeout.
+     */
+    private void armTimeout(Device d, int attempt) {
+        if (timeout <= 0) {
+            return;
+        }
+        ScheduledFuture<?> f = timer.schedule(() -> {
+            if (!d.task.isCurrent(attempt)) {
+                return;
+            }
+            synchronized (SyncAll.this) {
+                d.timedOut = true;
+            }
+            d.task.cancel();
+        }, timeout, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            if (d.timeout != null) {
+                d.timeout.cancel(false);
+            }
+            d.timeout = f;
+        }
+    }
+
+    private void deviceDone(Device d, boolean success, String error) {
+        boolean last;
+        Device start = null;
+        synchronized (this) {
+            if (d.done) {
+                return;
+            }
+            d.done = true;
+            d.success = success;
+            d.error = error;
+            if (d.timeout != null) {
+                d.timeout.cancel(false);
+            }
+            remaining--;
+            last = remaining == 0;
+            if (!last && !canceled && next < devices.length) {
+                start = devices[next++];
+            }
+        }
+        if (start != null) {
+            startDevice(start);
+        }
+        metrics.record("sync_all.device", (System.nanoTime() - d.startedNanos) / 1000000L);
+        metrics.count(success ? "sync_all.success" : "sync_all.error");
+        if (success) {
+            event(EventEncoder.event("device_success").field("hardwareID", d.id).end());
+        } else {
+            event(EventEncoder.event("device_error").field("hardwareID", d.id).raw("error", error).end());
+        }
+        progress();
+        if (last) {
+            finish();
+        }
+    }
+
+    private void progress() {
+        float percent;
+        synchronized (this) {
+            if (finished || devices.length == 0) {
+                return;
+            }
+            double sum = 0;
+            for (Device d : devices) {
+                sum += d.fraction();
+            }
+            percent = (float) (sum * 100 / devices.length);
+            if (progress != null) {
+                if (!progress.accept(percent)) {
+                    return;
+                }
+            } else if ((int) percent == lastPercent) {
+                return;
+            }
+            lastPercent = (int) percent;
+        }
+        event(EventEncoder.event("progress").field("percent", percent).end());
+    }
+
+    private void event(String event) {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+        }
+        AkilesPlugin.sendEvent(callbackContext, event);
+    }
+
+    private void finish() {
+        StringBuilder succeeded = new StringBuilder("[");
+        StringBuilder failed = new StringBuilder("[");
+        StringBuilder pending = new StringBuilder("[");
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            for (Device d : devices) {
+                if (d.done && d.success) {
+                    append(succeeded, d.id);
+                    continue;
+                }
+                append(pending, d.id);
+                if (d.done) {
+                    if (failed.length() > 1) {
+                        failed.append(',');
+                    }
+                    failed.append("{\"hardwareID\":");
+                    EventEncoder.string(failed, d.id);
+                    failed.append(",\"error\":").append(d.error).append('}');
+                }
+            }
+        }
+        onFinish.run();
+        metrics.record("sync_all.total", (System.nanoTime() - startedNanos) / 1000000L);
+        AkilesPlugin.sendFinalEvent(callbackContext, EventEncoder.event("done")
+                .raw("succeeded", succeeded.append(']').toString())
+                .raw("failed", failed.append(']').toString())
+                .raw("pending", pending.append(']').toString())
+                .end());
+    }
+
+    private static void append(StringBuilder sb, String id) {
+        if (sb.length() > 1) {
+            sb.append(',');
+        }
+        EventEncoder.string(sb, id);
+    }
+}
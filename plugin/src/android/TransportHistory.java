@@ -0,0 +1,238 @@
+package app.akiles.cordova;
+
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import app.akiles.sdk.AkilesException;
+
+/**
+ * Per-gadget history of how each transport did, used by the `auto` hedge mode.
+ *
+ * For each gadget and transport we keep an exponentially weighted success rate,
+ * the weighted latency of successes, and a sample weight that halves every
+ * `HALF_LIFE` ms without new samples, so the history of a gadget that changed
+ * (moved out of range, came back online...) is forgotten over time.
+ *
+ * Errors caused by the phone rather than the gadget (permissions, radio off,
+ * cancellation...) aren't recorded. Entries are persisted to SharedPreferences
+ * as a short comma-separated string per gadget. Writes are batched: changed
+ * gadgets are written together `FLUSH_DELAY` ms after the first change, or
+ * when `flush` is called as the app goes to the background.
+ */
+class TransportHistory {
+    static final int INTERNET = 0;
+    static final int BLUETOOTH = 1;
+
+    static final long HALF_LIFE = 3L * 24 * 3600 * 1000;
+    private static final double ALPHA = 0.25;
+    private static final double MAX_WEIGHT = 20;
+    private static final double MIN_WEIGHT = 2;
+    private static final long MIN_DELAY = 250;
+    private static final long MAX_DELAY = 5000;
+    static final long FLUSH_DELAY = 5000;
+
+    /**
+     * A hedge mode and delay picked from the history.
+     */
+    static final class Choice {
+        final String mode;
+        final long delay;
+
+        Choice(String mode, long delay) {
+            this.mode = mode;
+            this.delay = delay;
+        }
+    }
+
+    private static final class Stats {
+        double rate;
+        double latency;
+        double weight;
+        long updatedAt;
+
+        double weightAt(long now) {
+            if (weight == 0) {
+                return 0;
+            }
+            return weight * Math.pow(0.5, (double) Math.max(0, now - updatedAt) / HALF_LIFE);
+        }
+    }
+
+    private final SharedPreferences prefs;
+    private final ScheduledExecutorService timer;
+    private final ConcurrentHashMap<String, Stats[]> gadgets = new ConcurrentHashMap<>();
+    private final HashSet<String> dirty = new HashSet<>();
+    private boolean flushScheduled;
+
+    TransportHistory(SharedPreferences prefs, ScheduledExecutorService timer) {
+        this.prefs = prefs;
+        this.timer = timer;
+    }
+
+    /**
+     * Record the outcome of one transport of an action. `ex` is null on success.
+     */
+    void record(String gadgetID, int transport, long startedNanos, AkilesException ex) {
+        if (ex != null && !isGadgetError(ex)) {
+            return;
+        }
+        long ms = (System.nanoTime() - startedNanos) / 1000000L;
+        long now = System.currentTimeMillis();
+        Stats[] stats = stats(gadgetID);
+        synchronized (stats) {
+            Stats s = stats[transport];
+            double weight = s.weightAt(now);
+            // Move fast while there are few samples, then settle to ALPHA.
+            double alpha = Math.max(ALPHA, 1 / (weight + 1));
+            s.rate += alpha * ((ex == null ? 1 : 0) - s.rate);
+            if (ex == null) {
+                s.latency = s.latency == 0 ? ms : s.latency + ALPHA * (ms - s.latency);
+            }
+            s.weight = Math.min(weight + 1, MAX_WEIGHT);
+            s.updatedAt = now;
+        }
+        boolean schedule;
+        synchronized (dirty) {
+            dirty.add(gadgetID);
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (schedule) {
+            if (timer.isShutdown()) {
+                // A late callback after onDestroy: nothing is going to flush it.
+                flush();
+            } else {
+                timer.schedule(this::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Write the gadgets changed since the last flush, in one edit.
+     */
+    void flush() {
+        ArrayList<String> changed;
+        synchronized (dirty) {
+            flushScheduled = false;
+            if (dirty.isEmpty()) {
+                return;
+            }
+            changed = new ArrayList<>(dirty);
+            dirty.clear();
+        }
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String gadgetID : changed) {
+            Stats[] stats = gadgets.get(gadgetID);
+            synchronized (stats) {
+                editor.putString(gadgetID, encode(stats));
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Pick how to race the transports for a gadget.
+     *
+     * Without enough history both run in parallel. Otherwise the transport that
+     * succeeds more often goes first, or the faster one if both are about as
+     * reliable, and the other one starts after 1.5x the typical latency of the
+     * first. Transports with similar reliability and latency run in parallel.
+     */
+    Choice choose(String gadgetID, long defaultDelay) {
+        long now = System.currentTimeMillis();
+        Stats[] stats = stats(gadgetID);
+        double ri, rb, li, lb;
+        boolean ki, kb;
+        synchronized (stats) {
+            ki = stats[INTERNET].weightAt(now) >= MIN_WEIGHT;
+            kb = stats[BLUETOOTH].weightAt(now) >= MIN_WEIGHT;
+            ri = ki ? stats[INTERNET].rate : 0.5;
+            rb = kb ? stats[BLUETOOTH].rate : 0.5;
+            li = ki ? stats[INTERNET].latency : 0;
+            lb = kb ? stats[BLUETOOTH].latency : 0;
+        }
+        if (!ki && !kb) {
+            return new Choice("parallel", defaultDelay);
+        }
+        int first;
+        if (Math.abs(ri - rb) >= 0.2) {
+            first = ri > rb ? INTERNET : BLUETOOTH;
+        } else if (li > 0 && lb > 0) {
+            if (Math.max(li, lb) < Math.min(li, lb) * 1.25) {
+                return new Choice("parallel", defaultDelay);
+            }
+            first = li < lb ? INTERNET : BLUETOOTH;
+        } else {
+            return new Choice("parallel", defaultDelay);
+        }
+        double latency = first == INTERNET ? li : lb;
+        long delay = latency > 0 ? Math.max(MIN_DELAY, Math.min(MAX_DELAY, (long) (latency * 1.5))) : defaultDelay;
+        return new Choice(first == INTERNET ? "internet_first" : "bluetooth_first", delay);
+    }
+
+    private Stats[] stats(String gadgetID) {
+        Stats[] stats = gadgets.get(gadgetID);
+        if (stats == null) {
+            Stats[] loaded = decode(prefs.getString(gadgetID, null));
+            stats = gadgets.putIfAbsent(gadgetID, loaded);
+            if (stats == null) {
+                stats = loaded;
+            }
+        }
+        return stats;
+    }
+
+    private static boolean isGadgetError(AkilesException ex) {
+        switch (ex.code) {
+            case INTERNET_DEVICE_OFFLINE:
+            case INTERNET_NOT_PERMITTED:
+            case BLUETOOTH_DEVICE_NOT_FOUND:
+            case TIMEOUT:
+            case INTERNAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static String encode(Stats[] stats) {
+        StringBuilder sb = new StringBuilder(96);
+        for (Stats s : stats) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(Math.round(s.rate * 1000) / 1000.0).append(',');
+            sb.append(Math.round(s.latency)).append(',');
+            sb.append(Math.round(s.weight * 100) / 100.0).append(',');
+            sb.append(s.updatedAt);
+        }
+        return sb.toString();
+    }
+
+    private static Stats[] decode(String value) {
+        Stats[] stats = new Stats[] {new Stats(), new Stats()};
+        if (value == null) {
+            return stats;
+        }
+        String[] parts = value.split(",");
+        if (parts.length != 8) {
+            return stats;
+        }
+        try {
+            for (int i = 0; i < 2; i++) {
+                stats[i].rate = Double.parseDouble(parts[i * 4]);
+                stats[i].latency = Double.parseDouble(parts[i * 4 + 1]);
+                stats[i].weight = Double.parseDouble(parts[i * 4 + 2]);
+                stats[i].updatedAt = Long.parseLong(parts[i * 4 + 3]);
+            }
+        } catch (NumberFormatException e) {
+            return new Stats[] {new Stats(), new Stats()};
+        }
+        return stats;
+    }
+}
@@ -380,8 +380,12 @@ export enum SyncStatus {
  * Callback used by the `action` method.
  */
 export interface ActionCallback {
-    /** Called when the action operation succeeds. */
-    onSuccess(): void;
+    /**
+     * Called when the action operation succeeds.
+     *
+     * @param hedge - Which transport won and how long each one ran. Only set if `options.hedge` was used.
+     */
+    onSuccess(hedge?: HedgeResult): void;
 
     /** Called when the operation fails. */
     onError(e: AkilesError): void;
@@ -406,6 +410,18 @@ export interface ActionCallback {
 
     /** Called when the operation fails via the Bluetooth method. */
     onBluetoothError?(e: AkilesError): void;
+
+    /**
+     * Called before a retry, when `options.retry` is set.
+     *
+     * @param attempt - Number of the attempt about to start, from 2.
+     * @param delay - Time until it starts, in milliseconds.
+     * @param e - Why the previous attempt failed.
+     */
+    onRetry?(attempt: number, delay: number, e: AkilesError): void;
+
+    /** Called right before `onSuccess` or `onError` when `options.deadline` or `options.retry` is set. */
+    onAttempts?(report: AttemptsReport): void;
 }
 
 /**
@@ -415,6 +431,13 @@ export interface ScanCallback {
     /** Called when a hardware is discovered by scanning. */
     onDiscover(hw: Hardware): void;
 
+    /**
+     * Called with the new or changed hardware of one coalescing window, when `coalesceWindow` is set.
+     *
+     * If not provided, `onDiscover` is called once for each hardware in the batch.
+     */
+    onDiscoverBatch?(hws: Hardware[]): void;
+
     /** Called when the operation succeeds. */
     onSuccess(): void;
 
@@ -437,6 +460,88 @@ export interface SyncCallback {
 
     /** Called when the operation fails. */
     onError(e: AkilesError): void;
+
+    /**
+     * Called before a retry, when `options.retry` is set.
+     *
+     * @param attempt - Number of the attempt about to start, from 2.
+     * @param delay - Time until it starts, in milliseconds.
+     * @param e - Why the previous attempt failed.
+     */
+    onRetry?(attempt: number, delay: number, e: AkilesError): void;
+
+    /** Called right before `onSuccess` or `onError` when `options.deadline` or `options.retry` is set. */
+    onAttempts?(report: AttemptsReport): void;
+}
+
+/**
+ * How the attempts of an action or sync with a deadline or retry policy went.
+ */
+export interface AttemptsReport {
+    /** Number of attempts made. */
+    attempts: number;
+
+    /** Time from the call until the result, in milliseconds. */
+    elapsed: number;
+
+    /** Time spent waiting between attempts, in milliseconds. */
+    backoff: number;
+
+    /** Duration of each attempt, in milliseconds. */
+    attemptTimes: number[];
+
+    /** Whether the deadline passed. The operation then fails with `TIMEOUT`. */
+    deadlineExceeded: boolean;
+}
+
+/**
+ * When and how to retry a failed action or sync.
+ *
+ * The delay before attempt `n + 1` is `initialDelay * multiplier^(n - 1)`, capped at `maxDelay`, then
+ * randomly spread by `jitter`. The callback only sees the last attempt's transport errors and result.
+ */
+export interface RetryPolicy {
+    /**
+     * Error codes worth retrying.
+     *
+     * Default: `['TIMEOUT', 'BLUETOOTH_DEVICE_NOT_FOUND', 'INTERNET_NOT_AVAILABLE']`.
+     */
+    codes?: ErrorCode[];
+
+    /**
+     * Maximum number of attempts, including the first.
+     *
+     * Default: `3`.
+     */
+    maxAttempts?: number;
+
+    /**
+     * Delay before the first retry, in milliseconds.
+     *
+     * Default: `500`.
+     */
+    initialDelay?: number;
+
+    /**
+     * Maximum delay between attempts, in milliseconds.
+     *
+     * Default: `5000`.
+     */
+    maxDelay?: number;
+
+    /**
+     * Factor the delay grows by after each attempt.
+     *
+     * Default: `2`.
+     */
+    multiplier?: number;
+
+    /**
+     * Random spread of each delay, as a fraction of it: `0.2` means ±20%.
+     *
+     * Default: `0.2`.
+     */
+    jitter?: number;
 }
 
 /**
@@ -450,6 +555,177 @@ export interface ScanCardCallback {
     onError(e: AkilesError): void;
 }
 
+/**
+ * Options used to configure the behavior of the `provisionCards` method.
+ */
+export interface ProvisionCardsOptions {
+    /**
+     * Stop after this many cards were updated successfully.
+     *
+     * Default: `0` (no limit, run until canceled).
+     */
+    maxCards?: number;
+
+    /**
+     * Time during which a card that was just provisioned is skipped if it's read again, in milliseconds.
+     *
+     * Default: `3000`.
+     */
+    repeatDelay?: number;
+}
+
+/**
+ * Result for one card in a `provisionCards` call.
+ */
+export interface ProvisionedCard {
+    /** The card. Not set if it couldn't be read. */
+    card?: { uid: string; isAkilesCard: boolean };
+
+    /** Time from arming the read until the card was read, in milliseconds. Includes waiting for the card. */
+    readTime?: number;
+
+    /** Time taken by the update, in milliseconds. */
+    updateTime?: number;
+
+    /** Number of cards updated successfully so far. */
+    provisioned?: number;
+
+    /** Cards updated successfully per minute since the start. */
+    cardsPerMinute?: number;
+}
+
+/**
+ * Summary of a `provisionCards` call.
+ */
+export interface ProvisionCardsSummary {
+    /** Number of cards updated successfully. */
+    provisioned: number;
+
+    /** Number of cards that couldn't be read or updated. */
+    failed: number;
+
+    /** Total time, in milliseconds. */
+    elapsed: number;
+
+    /** Cards updated successfully per minute. */
+    cardsPerMinute: number;
+}
+
+/**
+ * Callback used by the `provisionCards` method.
+ */
+export interface ProvisionCardsCallback {
+    /** Called when a card was updated. */
+    onCard?(result: ProvisionedCard): void;
+
+    /** Called when a card couldn't be read or updated. Provisioning goes on. */
+    onCardError?(e: AkilesError, result: ProvisionedCard): void;
+
+    /** Called when provisioning ends because it was canceled or reached `maxCards`. */
+    onEnd?(summary: ProvisionCardsSummary): void;
+
+    /** Called when provisioning ends because of an error, for example NFC being disabled. */
+    onError?(e: AkilesError, summary?: ProvisionCardsSummary): void;
+}
+
+/**
+ * One item of a `batchAction` call.
+ */
+export interface BatchActionItem {
+    /** ID for the session to use. */
+    sessionID: string;
+
+    /** Gadget ID, in the format "gad_3vms1xqucnus4ppfnl9h". */
+    gadgetID: string;
+
+    /** Action ID. */
+    actionID: string;
+
+    /** Options customizing the action. */
+    options?: ActionOptions | null;
+}
+
+/**
+ * Options used to configure the behavior of the `batchAction` method.
+ */
+export interface BatchActionOptions {
+    /**
+     * Maximum number of actions running at the same time.
+     *
+     * Default: `4`.
+     */
+    parallelism?: number;
+}
+
+/**
+ * Result of one item of a `batchAction` call.
+ */
+export interface BatchActionResult {
+    /** Index of the item in the `items` array. */
+    index: number;
+
+    /** Whether the action succeeded. */
+    success: boolean;
+
+    /** The error, if the action failed. */
+    error?: AkilesError;
+}
+
+/**
+ * Callback used by the `batchAction` method.
+ *
+ * Every per-item callback receives the index of the item in the `items` array.
+ */
+export interface BatchActionCallback {
+    /** Called once every item has succeeded or failed. */
+    onComplete(results: BatchActionResult[]): void;
+
+    /** Called when the batch can't be started, for example because an item is invalid. */
+    onError(e: AkilesError): void;
+
+    /** Called when an item succeeds. */
+    onItemSuccess?(index: number): void;
+
+    /** Called when an item fails. */
+    onItemError?(index: number, e: AkilesError): void;
+
+    /** Called when there's a status update for the internet method of an item. */
+    onItemInternetStatus?(index: number, status: ActionInternetStatus): void;
+
+    /** Called when an item succeeds via the internet method. */
+    onItemInternetSuccess?(index: number): void;
+
+    /** Called when an item fails via the internet method. */
+    onItemInternetError?(index: number, e: AkilesError): void;
+
+    /** Called when there's a status update for the Bluetooth method of an item. */
+    onItemBluetoothStatus?(index: number, status: ActionBluetoothStatus): void;
+
+    /** Called when there's progress for the Bluetooth method of an item. */
+    onItemBluetoothStatusProgress?(index: number, percent: number): void;
+
+    /** Called when an item succeeds via the Bluetooth method. */
+    onItemBluetoothSuccess?(index: number): void;
+
+    /** Called when an item fails via the Bluetooth method. */
+    onItemBluetoothError?(index: number, e: AkilesError): void;
+}
+
+/**
+ * Options used to configure the behavior of the `scan` method.
+ */
+export interface ScanOptions {
+    /**
+     * Coalescing window, in milliseconds.
+     *
+     * If set, discoveries are deduplicated by hardware ID and delivered at most once per window,
+     * containing only hardware that is new or changed since it was last reported.
+     *
+     * Default: `0` (every discovery is reported as it happens).
+     */
+    coalesceWindow?: number;
+}
+
 /**
  * Options used to configure the behavior of the `action` method.
  */
@@ -497,10 +773,507 @@ export interface ActionOptions {
      * Default: `true`.
      */
     useBluetooth?: boolean;
+
+    /**
+     * Minimum time between two `onBluetoothStatusProgress` calls, in milliseconds.
+     *
+     * Progress is always reported at the start of each status and at 100%, and a final 100% is
+     * reported before `onBluetoothSuccess` if it was skipped.
+     *
+     * Default: `0` (no throttling).
+     */
+    progressInterval?: number;
+
+    /**
+     * Minimum change in percent between two `onBluetoothStatusProgress` calls.
+     *
+     * Default: `0` (no throttling).
+     */
+    progressMinDelta?: number;
+
+    /**
+     * Race the internet and Bluetooth methods instead of running them side by side.
+     *
+     * The first method to succeed wins: `onSuccess` is called right away and the other method is
+     * canceled. `onError` is only called once both have failed. Ignored unless both `useInternet`
+     * and `useBluetooth` are enabled.
+     *
+     * Default: not set (both methods run to completion).
+     */
+    hedge?: HedgeOptions;
+
+    /**
+     * Time budget for the whole operation, in milliseconds, including waiting for the radio, every
+     * attempt and every wait between attempts. Once it passes, the operation is canceled and fails with
+     * `TIMEOUT`. No retry is started if it couldn't begin before the deadline.
+     *
+     * Default: not set (no deadline).
+     */
+    deadline?: number;
+
+    /**
+     * Retry the operation natively when it fails with one of the given error codes.
+     *
+     * Default: not set (no retries).
+     */
+    retry?: RetryPolicy;
+}
+
+/**
+ * How to race the internet and Bluetooth methods of an action.
+ */
+export interface HedgeOptions {
+    /**
+     * - `parallel`: start both methods at once.
+     * - `internet_first`: start the internet method, and the Bluetooth one after `delay` ms without an answer, or as soon as the internet method fails.
+     * - `bluetooth_first`: the reverse.
+     * - `auto`: pick one of the above and the delay from how each method did on this gadget recently.
+     *   Without enough history, both methods start at once.
+     *
+     * Default: `parallel`.
+     */
+    mode?: 'parallel' | 'internet_first' | 'bluetooth_first' | 'auto';
+
+    /**
+     * Delay before starting the second method, in milliseconds.
+     *
+     * Default: `2000`.
+     */
+    delay?: number;
+}
+
+/**
+ * How one method did in a hedged action.
+ */
+export interface HedgeTransportResult {
+    /** `canceled` means it was canceled because the other method won. */
+    outcome: 'success' | 'error' | 'canceled' | 'not_started';
+
+    /** Time from the start of the action to the start of this method, in milliseconds. */
+    startedAfter?: number;
+
+    /** Time this method ran, in milliseconds. */
+    elapsed?: number;
+}
+
+/**
+ * Result of a hedged action.
+ */
+export interface HedgeResult {
+    /** The mode used. With `auto`, the mode that was picked. */
+    mode: 'parallel' | 'internet_first' | 'bluetooth_first';
+
+    /** Whether the mode and delay were picked automatically. */
+    auto: boolean;
+
+    /** Delay before starting the second method, in milliseconds. */
+    delay: number;
+
+    /** The method that succeeded first. */
+    winner: 'internet' | 'bluetooth';
+
+    internet: HedgeTransportResult;
+
+    bluetooth: HedgeTransportResult;
+}
+
+/**
+ * A session's catalog as last saved on the device, returned by `getCatalogSnapshot`.
+ */
+export interface CatalogSnapshot {
+    /** Always `true`: the data may be out of date. */
+    stale: boolean;
+
+    /** When the snapshot was saved, in milliseconds since the epoch. */
+    savedAt: number;
+
+    gadgets: Gadget[];
+
+    hardwares: Hardware[];
+}
+
+/**
+ * Changes to one kind of catalog entry.
+ */
+export interface CatalogEntryChanges<T> {
+    /** Entries that weren't there before. */
+    added: T[];
+
+    /** IDs of the entries that are gone. */
+    removed: string[];
+
+    /** Entries that changed, in their new form. */
+    modified: T[];
+}
+
+/**
+ * Changes to a session's catalog, delivered by `subscribeCatalog`.
+ */
+export interface CatalogChanges {
+    sessionID: string;
+
+    /** Gadget changes. A gadget is modified if its name or any of its actions changed. */
+    gadgets: CatalogEntryChanges<Gadget>;
+
+    /** Hardware changes. A hardware is modified if any of its fields changed, including `sessions`. */
+    hardwares: CatalogEntryChanges<Hardware>;
+}
+
+/**
+ * Callback used by the `subscribeCatalog` method.
+ */
+export interface CatalogCallback {
+    /** Called after a session is added, refreshed or removed, if its catalog changed. */
+    onChanges(changes: CatalogChanges): void;
+
+    /** Called if the subscription can't be set up. */
+    onError?(e: AkilesError): void;
+}
+
+/**
+ * Options used to configure the behavior of the `refreshSession` and `refreshAllSessions` methods.
+ */
+export interface RefreshOptions {
+    /**
+     * Skip the refresh if the data was successfully refreshed less than this many seconds ago.
+     *
+     * Default: `0` (always refresh).
+     */
+    maxAge?: number;
+}
+
+/**
+ * Options used to configure the behavior of the `sync` method.
+ */
+export interface SyncOptions {
+    /**
+     * Priority of the sync when the Bluetooth radio is busy.
+     *
+     * Operations using Bluetooth share a limited number of slots, and wait in priority order: actions,
+     * then `user` syncs, then `background` syncs, then scans. A `background` sync is paused to make
+     * room for actions and `user` syncs, and starts over once there's room again.
+     *
+     * Default: `user`.
+     */
+    priority?: 'user' | 'background';
+
+    /**
+     * Minimum time between two `onStatusProgress` calls, in milliseconds.
+     *
+     * Progress is always reported at the start of each status and at 100%, and a final 100% is
+     * reported before `onSuccess` if it was skipped.
+     *
+     * Default: `0` (no throttling).
+     */
+    progressInterval?: number;
+
+    /**
+     * Minimum change in percent between two `onStatusProgress` calls.
+     *
+     * Default: `0` (no throttling).
+     */
+    progressMinDelta?: number;
+
+    /**
+     * Time budget for the whole operation, in milliseconds, including waiting for the radio, every
+     * attempt and every wait between attempts. Once it passes, the operation is canceled and fails with
+     * `TIMEOUT`. No retry is started if it couldn't begin before the deadline.
+     *
+     * Default: not set (no deadline).
+     */
+    deadline?: number;
+
+    /**
+     * Retry the operation natively when it fails with one of the given error codes.
+     *
+     * Default: not set (no retries).
+     */
+    retry?: RetryPolicy;
+}
+
+/**
+ * Options used to configure the behavior of the `prepare` method.
+ */
+export interface PrepareOptions {
+    /**
+     * How long to keep the gadget warm if no action comes, in milliseconds.
+     *
+     * Default: `30000`.
+     */
+    ttl?: number;
+
+    /**
+     * The hardware that drives the gadget. Needed when the session has more than one hardware,
+     * otherwise nothing is warmed.
+     *
+     * Default: the only hardware of the session.
+     */
+    hardwareID?: string;
+}
+
+/**
+ * Options used to configure the behavior of the `startNearbyScan` method.
+ */
+export interface NearbyScanOptions {
+    /**
+     * Drop hardware not seen for this long, in milliseconds.
+     *
+     * Default: `30000`.
+     */
+    ttl?: number;
+
+    /**
+     * Length of each background scan, in milliseconds.
+     *
+     * Default: `10000`.
+     */
+    duration?: number;
+
+    /**
+     * Pause between background scans, in milliseconds.
+     *
+     * Default: `5000`.
+     */
+    interval?: number;
+}
+
+/**
+ * A hardware seen nearby, as returned by `getNearbyHardware`.
+ */
+export interface NearbyHardware {
+    hardware: Hardware;
+
+    /** When it was last seen, in milliseconds since the epoch. */
+    lastSeen: number;
+
+    /** Milliseconds since it was last seen. */
+    age: number;
+
+    /** Number of times it was discovered since it entered the index. */
+    seen: number;
+}
+
+/**
+ * Options used to configure the behavior of the `syncAll` method.
+ */
+export interface SyncAllOptions {
+    /**
+     * Maximum number of devices syncing at the same time.
+     *
+     * Default: `2`.
+     */
+    parallelism?: number;
+
+    /**
+     * Maximum time a device can take to sync, in milliseconds. A device that takes longer fails with `TIMEOUT`.
+     *
+     * Default: `60000`. `0` disables the timeout.
+     */
+    timeout?: number;
+
+    /**
+     * Only sync these devices. Pass the `pending` list of a previous run to resume it.
+     *
+     * Default: every hardware of the session.
+     */
+    hardwareIDs?: string[];
+
+    /**
+     * Priority of the syncs when the Bluetooth radio is busy. See `SyncOptions.priority`.
+     *
+     * Default: `user`.
+     */
+    priority?: 'user' | 'background';
+
+    /**
+     * Minimum time between two `onProgress` calls, in milliseconds.
+     *
+     * Default: `0`: `onProgress` is called every time the whole percent changes.
+     */
+    progressInterval?: number;
+
+    /**
+     * Minimum change in percent between two `onProgress` calls.
+     *
+     * Default: `0`.
+     */
+    progressMinDelta?: number;
+}
+
+/**
+ * Result of a `syncAll` call.
+ */
+export interface SyncAllResult {
+    /** Devices that synced successfully. */
+    succeeded: string[];
+
+    /** Devices that failed, with the error. */
+    failed: { hardwareID: string; error: AkilesError }[];
+
+    /** Devices that didn't sync successfully, either because they failed or because the run was canceled first. */
+    pending: string[];
+}
+
+/**
+ * Callback used by the `syncAll` method.
+ *
+ * Every per-device callback receives the hardware ID of the device.
+ */
+export interface SyncAllCallback {
+    /** Called once every device has succeeded or failed, or after the run is canceled. */
+    onComplete(result: SyncAllResult): void;
+
+    /** Called when the run can't be started, for example because the session is invalid. */
+    onError(e: AkilesError): void;
+
+    /** Called when there's a status update for a device. */
+    onDeviceStatus?(hardwareID: string, status: SyncStatus): void;
+
+    /** Called when a device syncs successfully. */
+    onDeviceSuccess?(hardwareID: string): void;
+
+    /** Called when a device fails to sync. */
+    onDeviceError?(hardwareID: string, e: AkilesError): void;
+
+    /** Called with the combined progress of all devices, from 0 to 100. */
+    onProgress?(percent: number): void;
+}
+
+/**
+ * An operation in flight, as reported by `listOperations`.
+ */
+export interface OperationInfo {
+    /**
+     * ID of the operation. Operations the plugin runs on its own, like `prepare` and background
+     * nearby discovery, have IDs starting with `plugin:`.
+     */
+    opId: string;
+
+    /**
+     * Kind of operation: `action`, `batch_action`, `scan`, `sync`, `sync_all`, `scan_card`,
+     * `provision_cards`, `subscribe_catalog`, `prepare` or `nearby_scan`.
+     */
+    kind: string;
+
+    /** `RUNNING`, or `CANCELING` if a cancel was requested and the operation hasn't finished yet. */
+    state: 'RUNNING' | 'CANCELING';
+
+    /** When the operation started, in milliseconds since the Unix epoch. */
+    startedAt: number;
+
+    /** Time since the operation started, in milliseconds. */
+    elapsed: number;
+}
+
+/**
+ * Latency summary of a histogram, in milliseconds.
+ *
+ * Percentiles are upper bounds with a resolution of about 25%.
+ */
+export interface LatencySummary {
+    /** Number of samples. */
+    count: number;
+
+    /** Mean. */
+    mean: number;
+
+    /** 50th percentile. */
+    p50: number;
+
+    /** 95th percentile. */
+    p95: number;
+
+    /** 99th percentile. */
+    p99: number;
+
+    /** Maximum. */
+    max: number;
+}
+
+/**
+ * Metrics collected by the plugin since it was loaded, as reported by `getMetrics`.
+ */
+export interface Metrics {
+    /**
+     * Latency histograms by name. Names include:
+     * - `action.total`, `action.internet.success`, `action.bluetooth.success`: time from the start of the
+     *   action to the global result and to the first success on each transport.
+     * - `action.internet.phase.<ActionInternetStatus>`, `action.bluetooth.phase.<ActionBluetoothStatus>`:
+     *   time spent in each status.
+     * - `sync.total`, `sync.phase.<SyncStatus>`.
+     * - `sync_all.total`, `sync_all.device`.
+     * - `scan.total`, `scan.first_discover`.
+     * - `init.plugin_initialize`: time spent in plugin startup; `init.akiles`: time to build the native SDK;
+     *   `init.ready`: time from startup until commands are served (Android).
+     * - `scheduler.wait`: time operations waited for the radio.
+     * - `catalog.diff`: time spent comparing a refreshed catalog with the previous one.
+     */
+    histograms: { [name: string]: LatencySummary };
+
+    /**
+     * Latency histograms by gadget ID, with keys `total`, `internet` and `bluetooth`.
+     */
+    gadgets: { [gadgetID: string]: { [name: string]: LatencySummary } };
+
+    /**
+     * Counters by name, for example `action.success` or `action.bluetooth.error`.
+     *
+     * `dedup.<method>.joined` counts calls that waited for an identical call in flight, and
+     * `dedup.<method>.fresh` counts refreshes skipped because of `maxAge`.
+     *
+     * `policy.denied` counts actions failed right away because they were known to be denied, and
+     * `policy.learned` counts the denials remembered.
+     *
+     * `retry.attempt` counts retries started, and `retry.deadline` counts operations that ran out of time.
+     *
+     * `provision.success` and `provision.failed` count the cards handled by `provisionCards`, and
+     * `provision.repeat` the reads skipped because the card was just provisioned.
+     *
+     * On Android, `events.sent` counts operation events and `events.flushes` the batches they were
+     * sent to JS in.
+     */
+    counters: { [name: string]: number };
+
+    /** Number of operations in flight. */
+    operations: number;
+
+    /** Number of operations started since the plugin was loaded. */
+    operationsStarted: number;
+
+    /**
+     * Number of operations that reached their terminal event since the plugin was loaded.
+     *
+     * `operationsStarted - operationsFinished - operations` is always zero; anything else means an
+     * operation, and the callback it holds, was leaked.
+     */
+    operationsFinished: number;
+
+    /** Bluetooth and NFC usage: the concurrency limit and how many operations are running and waiting. */
+    scheduler: {
+        bluetooth: RadioUsage;
+        nfc: RadioUsage;
+    };
+}
+
+/**
+ * How a radio is used, as reported by `getMetrics`.
+ */
+export interface RadioUsage {
+    /** Maximum number of operations using the radio at once. */
+    limit: number;
+
+    /** Number of operations using the radio. */
+    running: number;
+
+    /** Number of operations waiting for the radio. */
+    queued: number;
 }
 
 /**
  * Cordova global akiles object.
+ *
+ * Methods marked **Android ONLY** aren't implemented by the iOS plugin. On other platforms their
+ * promise rejects, or their callback's `onError` is called, right away with an `INTERNAL` error.
  */
 export interface Akiles {
     /**
@@ -524,6 +1297,8 @@ export interface Akiles {
      * This does a network call to the server to check the session token, and to cache the
      * session data into local storage.
      *
+     * Concurrent calls with the same token share a single network call.
+     *
      * @param token - The session token.
      * @returns A promise that resolves to the session ID.
      */
@@ -546,14 +1321,21 @@ export interface Akiles {
     /**
      * Refresh the cached session data.
      *
+     * Concurrent calls for the same session share a single network call.
+     *
      * @param id - The session ID.
+     * @param options - Options customizing the refresh.
      */
-    refreshSession(id: string): Promise<void>;
+    refreshSession(id: string, options?: RefreshOptions | null): Promise<void>;
 
     /**
      * Refresh the cached session data for all sessions.
+     *
+     * Concurrent calls share a single network call.
+     *
+     * @param options - Options customizing the refresh.
      */
-    refreshAllSessions(): Promise<void>;
+    refreshAllSessions(options?: RefreshOptions | null): Promise<void>;
 
     /**
      * Get the gadgets for a session.
@@ -571,6 +1353,18 @@ export interface Akiles {
      */
     getHardwares(sessionID: string): Promise<Hardware[]>;
 
+    /**
+     * **Android ONLY** - Get the catalog of a session as it was last saved on the device, without waiting for the SDK.
+     *
+     * The plugin saves each session's gadgets and hardware to app storage whenever they are read or
+     * refreshed, and rewrites the snapshots in the background once the SDK is up. Use this to draw
+     * something right away on cold start, then replace it with `getGadgets` and `getHardwares`.
+     *
+     * @param sessionID - The session ID.
+     * @returns A promise that resolves to the snapshot, or `null` if there is none.
+     */
+    getCatalogSnapshot(sessionID: string): Promise<CatalogSnapshot | null>;
+
     /**
      * Scan a card using NFC.
      *
@@ -583,6 +1377,19 @@ export interface Akiles {
      */
     scanCard(callback: ScanCardCallback): () => void;
 
+    /**
+     * **Android ONLY** - Keep reading cards with NFC and update each one with the Akiles server as it's presented.
+     *
+     * Each card is read, updated and closed natively, and the next read is armed right away, so
+     * encoding a stack of cards needs no calls between cards. Results are streamed per card.
+     * Provisioning goes on until canceled or until `maxCards` cards were updated.
+     *
+     * @param callback - The callback that will be called for each card and at the end.
+     * @param options - Options.
+     * @returns A function that stops provisioning. The card being updated, if any, is finished first.
+     */
+    provisionCards(callback: ProvisionCardsCallback, options?: ProvisionCardsOptions): () => void;
+
     /**
      * Do an action on a gadget.
      *
@@ -598,6 +1405,11 @@ export interface Akiles {
      *
      * For Bluetooth, the SDK does some high-priority syncing before the action and some low-priority syncing after, so after the global `onSuccess` or `onError` is called you may still receive Bluetooth status updates. In this case, we recommend you show the success/failure to the user immediately to not make them wait, but still show a Bluetooth icon with a spinning indicator to convey there's still Bluetooth activity.
      *
+     * On Android, when an action fails with `PERMISSION_DENIED` because the member hasn't started, has ended or
+     * is out of schedule, the plugin remembers it for the session and gadget. Until the member could be allowed
+     * again, actions on that gadget fail right away with the same error and an up-to-date `waitTime`, without
+     * using Bluetooth or the network. This is forgotten when the session is refreshed or an action on the gadget succeeds.
+     *
      * @param sessionID - ID for the session to use.
      * @param gadgetID - Gadget ID, in the format "gad_3vms1xqucnus4ppfnl9h".
      * @param actionID - Action ID.
@@ -613,15 +1425,88 @@ export interface Akiles {
         callback: ActionCallback
     ): () => void;
 
+    /**
+     * **Android ONLY** - Do an action on many gadgets with a single call.
+     *
+     * Items run with bounded parallelism. Per-item events are reported with the index of the item,
+     * and `onComplete` is called once every item has succeeded or failed. Bluetooth status updates
+     * that arrive for an item after `onComplete` are not reported.
+     *
+     * Canceling stops the running items, and reports items that haven't started yet as `CANCELED`.
+     *
+     * @param items - The actions to do.
+     * @param options - Options customizing the batch.
+     * @param callback - The callback that will be called with per-item events and the aggregated result.
+     * @returns A function that cancels the whole batch.
+     */
+    batchAction(
+        items: BatchActionItem[],
+        options: BatchActionOptions | undefined | null,
+        callback: BatchActionCallback
+    ): () => void;
+
+    /**
+     * **Android ONLY** - Get a gadget ready for an action the user is likely to do soon, for example when a door screen is opened.
+     *
+     * This scans for the hardware that drives the gadget and syncs it, so a following `action` on the
+     * gadget spends less time scanning and connecting. Warming stops when `action` is called on
+     * the gadget, when `release` is called, or after `options.ttl` milliseconds. Calling `prepare` again
+     * on a gadget that is already being warmed extends the timeout.
+     *
+     * The resulting hit and miss counts are reported by `getMetrics` as `prewarm.hit`, `prewarm.miss`
+     * and `prewarm.expired`.
+     *
+     * Rejects with `INVALID_PARAM` if the session doesn't have the gadget or `options.hardwareID`.
+     *
+     * @param sessionID - ID for the session to use.
+     * @param gadgetID - Gadget ID, in the format "gad_3vms1xqucnus4ppfnl9h".
+     * @param options - Options customizing the warm-up.
+     * @returns A promise that resolves once warming has started.
+     */
+    prepare(sessionID: string, gadgetID: string, options?: PrepareOptions | null): Promise<void>;
+
+    /**
+     * **Android ONLY** - Stop warming a gadget started with `prepare`. Does nothing if it isn't being warmed.
+     *
+     * @param sessionID - ID for the session.
+     * @param gadgetID - Gadget ID.
+     */
+    release(sessionID: string, gadgetID: string): Promise<void>;
+
+    /**
+     * **Android ONLY** - Start background discovery of nearby hardware.
+     *
+     * Runs short Bluetooth scans in a loop, giving way to actions and syncs, and keeps an index of the
+     * hardware seen with when it was last seen. Hardware found by `scan` is indexed too. Calling it
+     * again updates the options. Stopped by `stopNearbyScan` and `cancelAll`.
+     *
+     * @param options - Options customizing the discovery.
+     */
+    startNearbyScan(options?: NearbyScanOptions | null): Promise<void>;
+
+    /**
+     * **Android ONLY** - Stop background discovery. The index is kept and still expires.
+     */
+    stopNearbyScan(): Promise<void>;
+
+    /**
+     * **Android ONLY** - Get the hardware seen nearby recently, most recently seen first, without scanning.
+     *
+     * @param sessionID - Only return hardware accessible by this session. If `null`, return all of it.
+     * @returns A promise that resolves to the hardware seen within the TTL.
+     */
+    getNearbyHardware(sessionID: string | null): Promise<NearbyHardware[]>;
+
     /**
      * Scan using Bluetooth for nearby Akiles devices.
      *
-     * The sequence of callbacks is guaranteed to be zero or more `onDiscover`, then exactly one of `onSuccess` or `onError`.
+     * The sequence of callbacks is guaranteed to be zero or more `onDiscover` (or `onDiscoverBatch`), then exactly one of `onSuccess` or `onError`.
      *
      * @param callback - The callback that will be called on success or error.
+     * @param options - Options customizing the scan.
      * @returns A function that cancels the ongoing scan operation.
      */
-    scan(callback: ScanCallback): () => void;
+    scan(callback: ScanCallback, options?: ScanOptions | null): () => void;
 
     /**
      * Synchronize state of hardware.
@@ -631,14 +1516,65 @@ export interface Akiles {
      * @param sessionID - ID for the session to use.
      * @param hardwareID - Hardware ID, in the format "hw_3vms1xqucnus4ppfnl9h".
      * @param callback - The callback that will be called on success or error.
+     * @param options - Options customizing the sync.
      * @returns A function that cancels the ongoing sync operation.
      */
     sync(
         sessionID: string,
         hardwareID: string,
-        callback: SyncCallback
+        callback: SyncCallback,
+        options?: SyncOptions | null
     ): () => void;
 
+    /**
+     * **Android ONLY** - Synchronize the state of every hardware of a session.
+     *
+     * Devices sync with bounded parallelism and a per-device timeout. `onComplete` is called once at
+     * the end with the devices that succeeded, the ones that failed, and the ones still pending.
+     * Canceling stops the running syncs and leaves the remaining devices pending. To resume, pass
+     * `pending` as `options.hardwareIDs`.
+     *
+     * @param sessionID - ID for the session to use.
+     * @param callback - The callback that will be called with per-device events and the summary.
+     * @param options - Options customizing the run.
+     * @returns A function that cancels the whole run.
+     */
+    syncAll(sessionID: string, callback: SyncAllCallback, options?: SyncAllOptions | null): () => void;
+
+    /**
+     * **Android ONLY** - Subscribe to catalog changes.
+     *
+     * After each session add, refresh or removal, the new gadgets and hardwares are compared with
+     * the previous ones and only the entries that were added, removed or modified are delivered.
+     * Sessions whose catalog didn't change deliver nothing. Use `getGadgets` and `getHardwares`
+     * for the initial state.
+     *
+     * @param callback - The callback that will be called with the changes.
+     * @returns A function that ends the subscription.
+     */
+    subscribeCatalog(callback: CatalogCallback): () => void;
+
+    /**
+     * **Android ONLY** - Cancel every operation in flight.
+     *
+     * Each canceled operation still reports its final callback, usually an error with code `CANCELED`.
+     */
+    cancelAll(): Promise<void>;
+
+    /**
+     * **Android ONLY** - List the operations in flight.
+     *
+     * @returns A promise that resolves to an array with one entry per operation.
+     */
+    listOperations(): Promise<OperationInfo[]>;
+
+    /**
+     * **Android ONLY** - Get the latency and outcome metrics collected since the plugin was loaded.
+     *
+     * @returns A promise that resolves to the metrics.
+     */
+    getMetrics(): Promise<Metrics>;
+
     /**
      * Returns whether Bluetooth is supported on this phone.
      *
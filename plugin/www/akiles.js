@@ -1,7 +1,26 @@
 'use strict';
 
+// Commands only the Android plugin implements. Elsewhere Cordova would just
+// log them as undefined and never answer, so they fail here right away.
+const ANDROID_ONLY = [
+    'get_catalog_snapshot', 'batch_action', 'prepare', 'release', 'start_nearby_scan', 'stop_nearby_scan',
+    'get_nearby_hardware', 'sync_all', 'subscribe_catalog', 'provision_cards', 'cancel_all', 'list_operations',
+    'get_metrics',
+];
+
+function unsupportedError(action) {
+    if (cordova.platformId === 'android' || ANDROID_ONLY.indexOf(action) < 0) {
+        return null;
+    }
+    return new AkilesError('INTERNAL', `${action} is only supported on Android`);
+}
+
 // Promisified helpers for Cordova exec
 function execPromise(action, args = []) {
+    const unsupported = unsupportedError(action);
+    if (unsupported) {
+        return Promise.reject(unsupported);
+    }
     return new Promise((resolve, reject) => {
         cordova.exec(resolve, function (err) { reject(toAkilesError(err)); }, 'AKILES', action, args);
     });
@@ -51,6 +70,62 @@ function cancelFunc(opId) {
     }
 }
 
+// On Android, long-running operations don't get a Cordova callback each.
+// Their results come tagged with the opId through one event channel, in
+// batches, and are delivered here to the callbacks registered for the opId.
+const opHandlers = {};
+let eventChannelRegistered = false;
+
+function onEventBatch(batch) {
+    if (!Array.isArray(batch)) {
+        return;
+    }
+    batch.forEach(function (e) {
+        const handler = opHandlers[e.opId];
+        if (!handler) {
+            return;
+        }
+        if (!e.keep) {
+            delete opHandlers[e.opId];
+        }
+        // Same as Cordova: 1 is OK, 0 is NO_RESULT, anything else is an error.
+        if (e.status === 1) {
+            handler.success && handler.success(e.message);
+        } else if (e.status !== 0) {
+            handler.fail && handler.fail(e.message);
+        }
+    });
+}
+
+function execOp(success, fail, action, args) {
+    if (cordova.platformId !== 'android') {
+        const unsupported = unsupportedError(action);
+        if (unsupported) {
+            // Asynchronously, like any other result, after the caller got its cancel function.
+            setTimeout(function () { fail(unsupported); }, 0);
+            return;
+        }
+        cordova.exec(success, fail, 'AKILES', action, args);
+        return;
+    }
+    if (!eventChannelRegistered) {
+        eventChannelRegistered = true;
+        cordova.exec(onEventBatch, null, 'AKILES', 'register_events', []);
+    }
+    const opId = args[0];
+    opHandlers[opId] = { success: success, fail: fail };
+    // Failures of the call itself (bad arguments, an unknown action) come back
+    // on this call's own callback rather than through the channel.
+    cordova.exec(null, function (err) {
+        const handler = opHandlers[opId];
+        if (!handler) {
+            return;
+        }
+        delete opHandlers[opId];
+        handler.fail && handler.fail(err);
+    }, 'AKILES', action, args);
+}
+
 module.exports = {
     getSessionIDs: function () {
         return execPromise('get_session_ids');
@@ -70,11 +145,11 @@ module.exports = {
     removeAllSessions: function () {
         return execPromise('remove_all_sessions');
     },
-    refreshSession: function (id) {
-        return execPromise('refresh_session', [id]);
+    refreshSession: function (id, options) {
+        return execPromise('refresh_session', [id, options]);
     },
-    refreshAllSessions: function () {
-        return execPromise('refresh_all_sessions');
+    refreshAllSessions: function (options) {
+        return execPromise('refresh_all_sessions', [options]);
     },
     getGadgets: function (sessionID) {
         return execPromise('get_gadgets', [sessionID]);
@@ -82,18 +157,26 @@ module.exports = {
     getHardwares: function (sessionID) {
         return execPromise('get_hardwares', [sessionID]);
     },
+    getCatalogSnapshot: function (sessionID) {
+        return execPromise('get_catalog_snapshot', [sessionID]);
+    },
     action: function (sessionID, gadgetID, actionID, options, callback) {
         const opId = generateOpId();
-        cordova.exec(
+        execOp(
             function (result) {
                 if (result && result.type) {
                     switch (result.type) {
                         case 'success':
-                            callback.onSuccess && callback.onSuccess();
+                            result.retry && callback.onAttempts && callback.onAttempts(result.retry);
+                            callback.onSuccess && callback.onSuccess(result.hedge);
                             break;
                         case 'error':
+                            result.retry && callback.onAttempts && callback.onAttempts(result.retry);
                             callback.onError && callback.onError(toAkilesError(result.error));
                             break;
+                        case 'retry':
+                            callback.onRetry && callback.onRetry(result.attempt, result.delay, toAkilesError(result.error));
+                            break;
                         case 'internet_status':
                             callback.onInternetStatus && callback.onInternetStatus(result.status);
                             break;
@@ -121,21 +204,92 @@ module.exports = {
             function (err) {
                 callback.onError && callback.onError(toAkilesError(err));
             },
-            'AKILES',
             'action',
             [opId, sessionID, gadgetID, actionID, options]
         );
         return cancelFunc(opId);
     },
-    scan: function (callback) {
+    batchAction: function (items, options, callback) {
         const opId = generateOpId();
-        cordova.exec(
+        execOp(
+            function (result) {
+                if (result && result.type) {
+                    const i = result.index;
+                    switch (result.type) {
+                        case 'done':
+                            callback.onComplete && callback.onComplete(result.results.map(function (r) {
+                                return r.error ? { ...r, error: toAkilesError(r.error) } : r;
+                            }));
+                            break;
+                        case 'success':
+                            callback.onItemSuccess && callback.onItemSuccess(i);
+                            break;
+                        case 'error':
+                            callback.onItemError && callback.onItemError(i, toAkilesError(result.error));
+                            break;
+                        case 'internet_status':
+                            callback.onItemInternetStatus && callback.onItemInternetStatus(i, result.status);
+                            break;
+                        case 'internet_success':
+                            callback.onItemInternetSuccess && callback.onItemInternetSuccess(i);
+                            break;
+                        case 'internet_error':
+                            callback.onItemInternetError && callback.onItemInternetError(i, toAkilesError(result.error));
+                            break;
+                        case 'bluetooth_status':
+                            callback.onItemBluetoothStatus && callback.onItemBluetoothStatus(i, result.status);
+                            break;
+                        case 'bluetooth_status_progress':
+                            callback.onItemBluetoothStatusProgress && callback.onItemBluetoothStatusProgress(i, result.percent);
+                            break;
+                        case 'bluetooth_success':
+                            callback.onItemBluetoothSuccess && callback.onItemBluetoothSuccess(i);
+                            break;
+                        case 'bluetooth_error':
+                            callback.onItemBluetoothError && callback.onItemBluetoothError(i, toAkilesError(result.error));
+                            break;
+                    }
+                }
+            },
+            function (err) {
+                callback.onError && callback.onError(toAkilesError(err));
+            },
+            'batch_action',
+            [opId, items, options]
+        );
+        return cancelFunc(opId);
+    },
+    prepare: function (sessionID, gadgetID, options) {
+        return execPromise('prepare', [sessionID, gadgetID, options]);
+    },
+    release: function (sessionID, gadgetID) {
+        return execPromise('release', [sessionID, gadgetID]);
+    },
+    startNearbyScan: function (options) {
+        return execPromise('start_nearby_scan', [options]);
+    },
+    stopNearbyScan: function () {
+        return execPromise('stop_nearby_scan');
+    },
+    getNearbyHardware: function (sessionID) {
+        return execPromise('get_nearby_hardware', [sessionID]);
+    },
+    scan: function (callback, options) {
+        const opId = generateOpId();
+        execOp(
             function (result) {
                 if (result && result.type) {
                     switch (result.type) {
                         case 'discover':
                             callback.onDiscover && callback.onDiscover(result.hardware);
                             break;
+                        case 'discover_batch':
+                            if (callback.onDiscoverBatch) {
+                                callback.onDiscoverBatch(result.hardwares);
+                            } else if (callback.onDiscover) {
+                                result.hardwares.forEach(function (hw) { callback.onDiscover(hw); });
+                            }
+                            break;
                         case 'success':
                             callback.onSuccess && callback.onSuccess();
                             break;
@@ -148,15 +302,14 @@ module.exports = {
             function (err) {
                 callback.onError && callback.onError(toAkilesError(err));
             },
-            'AKILES',
             'scan',
-            [opId]
+            [opId, options]
         );
         return cancelFunc(opId);
     },
-    sync: function (sessionID, hardwareID, callback) {
+    sync: function (sessionID, hardwareID, callback, options) {
         const opId = generateOpId();
-        cordova.exec(
+        execOp(
             function (result) {
                 if (result && result.type) {
                     switch (result.type) {
@@ -167,26 +320,84 @@ module.exports = {
                             callback.onStatusProgress && callback.onStatusProgress(result.percent);
                             break;
                         case 'success':
+                            result.retry && callback.onAttempts && callback.onAttempts(result.retry);
                             callback.onSuccess && callback.onSuccess();
                             break;
                         case 'error':
+                            result.retry && callback.onAttempts && callback.onAttempts(result.retry);
                             callback.onError && callback.onError(toAkilesError(result.error));
                             break;
+                        case 'retry':
+                            callback.onRetry && callback.onRetry(result.attempt, result.delay, toAkilesError(result.error));
+                            break;
                     }
                 }
             },
             function (err) {
                 callback.onError && callback.onError(toAkilesError(err));
             },
-            'AKILES',
             'sync',
-            [opId, sessionID, hardwareID]
+            [opId, sessionID, hardwareID, options]
+        );
+        return cancelFunc(opId);
+    },
+    syncAll: function (sessionID, callback, options) {
+        const opId = generateOpId();
+        execOp(
+            function (result) {
+                if (result && result.type) {
+                    switch (result.type) {
+                        case 'done':
+                            callback.onComplete && callback.onComplete({
+                                succeeded: result.succeeded,
+                                failed: result.failed.map(function (f) {
+                                    return { hardwareID: f.hardwareID, error: toAkilesError(f.error) };
+                                }),
+                                pending: result.pending,
+                            });
+                            break;
+                        case 'status':
+                            callback.onDeviceStatus && callback.onDeviceStatus(result.hardwareID, result.status);
+                            break;
+                        case 'device_success':
+                            callback.onDeviceSuccess && callback.onDeviceSuccess(result.hardwareID);
+                            break;
+                        case 'device_error':
+                            callback.onDeviceError && callback.onDeviceError(result.hardwareID, toAkilesError(result.error));
+                            break;
+                        case 'progress':
+                            callback.onProgress && callback.onProgress(result.percent);
+                            break;
+                    }
+                }
+            },
+            function (err) {
+                callback.onError && callback.onError(toAkilesError(err));
+            },
+            'sync_all',
+            [opId, sessionID, options]
+        );
+        return cancelFunc(opId);
+    },
+    subscribeCatalog: function (callback) {
+        const opId = generateOpId();
+        execOp(
+            function (result) {
+                if (result && result.type === 'changes') {
+                    callback.onChanges && callback.onChanges(result);
+                }
+            },
+            function (err) {
+                callback.onError && callback.onError(toAkilesError(err));
+            },
+            'subscribe_catalog',
+            [opId]
         );
         return cancelFunc(opId);
     },
     scanCard: function (callback) {
         const opId = generateOpId();
-        cordova.exec(
+        execOp(
             function (card) {
                 callback.onSuccess && callback.onSuccess({
                     ...card,
@@ -202,12 +413,49 @@ module.exports = {
             function (err) {
                 callback.onError && callback.onError(toAkilesError(err));
             },
-            'AKILES',
             'scan_card',
             [opId]
         );
         return cancelFunc(opId);
     },
+    provisionCards: function (callback, options) {
+        const opId = generateOpId();
+        execOp(
+            function (result) {
+                if (result && result.type) {
+                    switch (result.type) {
+                        case 'card_success':
+                            callback.onCard && callback.onCard(result);
+                            break;
+                        case 'card_error':
+                            callback.onCardError && callback.onCardError(toAkilesError(result.error), result);
+                            break;
+                        case 'success':
+                            callback.onEnd && callback.onEnd(result);
+                            break;
+                        case 'error':
+                            callback.onError && callback.onError(toAkilesError(result.error), result);
+                            break;
+                    }
+                }
+            },
+            function (err) {
+                callback.onError && callback.onError(toAkilesError(err));
+            },
+            'provision_cards',
+            [opId, options]
+        );
+        return cancelFunc(opId);
+    },
+    cancelAll: function () {
+        return execPromise('cancel_all');
+    },
+    listOperations: function () {
+        return execPromise('list_operations');
+    },
+    getMetrics: function () {
+        return execPromise('get_metrics');
+    },
     isBluetoothSupported: function () {
         return new Promise((resolve, reject) => {
             cordova.exec(resolve, reject, 'AKILES', 'is_bluetooth_supported', []);